@@ -0,0 +1,57 @@
+package com.cm55.pdfmonk.jmh;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.cm55.pdfmonk.*;
+
+/**
+ * {@link MkPdfBinder}による結合と、{@link MkStamper}による全ページへのスタンプ
+ * <p>
+ * 一回の操作で、結合では{@link Fixtures#BIND_PARTS}ファイル、スタンプでは{@link Fixtures#STAMP_PAGES}ページを処理する。
+ * </p>
+ * @author ysugimura
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class BindStampBenchmark {
+
+  private MkContext ctx;
+  private byte[]stampSource;
+
+  @Setup
+  public void setup() {
+    ctx = MkContext.getDefault();
+    Fixtures.dir();
+    stampSource = Fixtures.stampSource();
+  }
+
+  /** ランダムアクセスで結合する */
+  @Benchmark
+  public long bind() {
+    NullSink sink = new NullSink();
+    MkPdfBinder binder = new MkPdfBinder(sink);
+    for (int i = 0; i < Fixtures.BIND_PARTS; i++) binder.add(Fixtures.bindPart(i));
+    binder.close();
+    return sink.getCount();
+  }
+
+  /** 全ページにページ番号をスタンプする */
+  @Benchmark
+  public long stamp() {
+    NullSink sink = new NullSink();
+    MkStamper stamper = new MkStamper(ctx, MkGeometry.A4_PORTRAIT, new ByteArrayInputStream(stampSource), sink);
+    int pages = stamper.pageCount();
+    for (int page = 1; page <= pages; page++) {
+      new MkTextBlock(ctx, page + " / " + pages).setToContentByte(stamper.getContentByteOver(page), MkUnit.MM, 170, 270);
+    }
+    stamper.close();
+    return sink.getCount();
+  }
+}
@@ -0,0 +1,35 @@
+package com.cm55.pdfmonk.jmh;
+
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.cm55.pdfmonk.*;
+
+/**
+ * {@link MkContext#duplicate()}
+ * <p>
+ * 描画関数ごとにフォント等を変更するために頻繁に呼び出される。
+ * </p>
+ * @author ysugimura
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContextBenchmark {
+
+  private MkContext ctx;
+
+  @Setup
+  public void setup() {
+    ctx = MkContext.getDefault();
+  }
+
+  @Benchmark
+  public MkContext duplicate() {
+    return ctx.duplicate();
+  }
+}
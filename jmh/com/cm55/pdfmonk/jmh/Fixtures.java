@@ -0,0 +1,130 @@
+package com.cm55.pdfmonk.jmh;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import javax.imageio.*;
+
+import com.cm55.pdfmonk.*;
+
+/**
+ * ベンチマークの入力ファイル
+ * <p>
+ * 入力は乱数の種と日時を固定して作成されるので、何度作成しても同じバイト列になる。
+ * gradleのjmhFixturesタスクがビルド時に作成し、そのディレクトリをシステムプロパティpdfmonk.fixturesで渡す。
+ * 指定の無い場合（IDEから直接実行した場合等）は、一時ディレクトリに作成する。
+ * </p>
+ * @author ysugimura
+ */
+public class Fixtures {
+
+  /** 入力ディレクトリを指定するシステムプロパティ */
+  public static final String PROPERTY = "pdfmonk.fixtures";
+
+  /** 画像 */
+  public static final String IMAGE = "image.png";
+
+  /** 結合するPDFの数 */
+  public static final int BIND_PARTS = 20;
+
+  /** 結合するPDFのページ数 */
+  public static final int BIND_PAGES = 10;
+
+  /** スタンプするPDFのページ数 */
+  public static final int STAMP_PAGES = 100;
+
+  private static Path dir;
+
+  /** 入力ファイルを作成する。引数は出力ディレクトリ */
+  public static void main(String[]args) throws IOException {
+    generate(Paths.get(args[0]));
+  }
+
+  /** 入力ディレクトリを取得する。必要であれば作成する */
+  public static synchronized Path dir() {
+    if (dir != null) return dir;
+    try {
+      String property = System.getProperty(PROPERTY);
+      Path path = property != null? Paths.get(property):Files.createTempDirectory("pdfmonk-fixtures");
+      if (!Files.exists(path.resolve(IMAGE))) generate(path);
+      return dir = path;
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  /** 画像のバイト列を取得する */
+  public static byte[]image() {
+    return read(IMAGE);
+  }
+
+  /** 結合するPDFのパスを取得する */
+  public static Path bindPart(int index) {
+    return dir().resolve(String.format("bind-%02d.pdf", index));
+  }
+
+  /** スタンプするPDFのバイト列を取得する */
+  public static byte[]stampSource() {
+    return read("stamp.pdf");
+  }
+
+  private static byte[]read(String name) {
+    try {
+      return Files.readAllBytes(dir().resolve(name));
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  /** 全ての入力ファイルを作成する */
+  static void generate(Path dir) throws IOException {
+    Files.createDirectories(dir);
+    writeImage(dir.resolve(IMAGE));
+    for (int i = 0; i < BIND_PARTS; i++) {
+      writePdf(dir.resolve(String.format("bind-%02d.pdf", i)), "bind-" + i, BIND_PAGES);
+    }
+    writePdf(dir.resolve("stamp.pdf"), "stamp", STAMP_PAGES);
+  }
+
+  /** 図形を描いたPNG画像を作成する */
+  private static void writeImage(Path path) throws IOException {
+    Random random = new Random(1);
+    BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = image.createGraphics();
+    g.setColor(Color.WHITE);
+    g.fillRect(0, 0, 640, 480);
+    for (int i = 0; i < 200; i++) {
+      g.setColor(new Color(random.nextInt(0x1000000)));
+      g.fillOval(random.nextInt(640), random.nextInt(480), 10 + random.nextInt(60), 10 + random.nextInt(60));
+    }
+    g.dispose();
+    ImageIO.write(image, "png", path.toFile());
+  }
+
+  /** 表を流し込んだ指定ページ数のPDFを作成する */
+  private static void writePdf(Path path, String seed, int pages) throws IOException {
+    Random random = new Random(seed.hashCode());
+    MkContext ctx = MkContext.getDefault();
+    try (OutputStream out = Files.newOutputStream(path)) {
+      MkDocument doc = new MkDocument(ctx, MkGeometry.A4_PORTRAIT, out).setDeterministic(seed, 0);
+      MkCanvas canvas = doc.getCanvasOver();
+      for (int page = 1; page <= pages; page++) {
+        if (page > 1) doc.newPage();
+        canvas.setVertical(MkLen.ZERO);
+        MkTable table = new MkTable(ctx, 4);
+        table.setColumnRatios(canvas.getGeometry().getPrintWidth(), new float[] { 20, 60, 20, 20 });
+        for (int row = 0; row < 30; row++) {
+          table.addTextCell(seed + "-" + page + "-" + row);
+          table.addTextCell("商品名称" + random.nextInt(1000));
+          table.addTextCell("" + random.nextInt(10000), MkAlign.RIGHT);
+          table.addTextCell("" + random.nextInt(100), MkAlign.RIGHT);
+        }
+        table.setToContentByte(canvas, MkUnit.MM, 0, 0);
+      }
+      doc.close();
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package com.cm55.pdfmonk.jmh;
+
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.cm55.pdfmonk.*;
+
+/**
+ * {@link MkImage}の読込と配置
+ * @author ysugimura
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageBenchmark {
+
+  /** 一つのドキュメントに置く画像の数 */
+  private static final int PLACEMENTS = 20;
+
+  private MkContext ctx;
+  private byte[]bytes;
+  private MkImage image;
+
+  @Setup
+  public void setup() {
+    ctx = MkContext.getDefault();
+    bytes = Fixtures.image();
+    image = new MkImage(bytes).setSizeAspect(MkUnit.MM, 40, 30);
+  }
+
+  /** 画像のデコード */
+  @Benchmark
+  public MkImage load() {
+    return new MkImage(bytes);
+  }
+
+  /** デコード済の画像を一つのページに繰り返し置いて出力する */
+  @Benchmark
+  public long place() {
+    NullSink sink = new NullSink();
+    MkDocument doc = new MkDocument(ctx, MkGeometry.A4_PORTRAIT, sink);
+    MkCanvas canvas = doc.getCanvasOver();
+    for (int i = 0; i < PLACEMENTS; i++) {
+      image.setToContentByte(canvas, MkUnit.MM, (i % 4) * 45, (i / 4) * 35);
+    }
+    doc.close();
+    return sink.getCount();
+  }
+}
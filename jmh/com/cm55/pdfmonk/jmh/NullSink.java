@@ -0,0 +1,28 @@
+package com.cm55.pdfmonk.jmh;
+
+import java.io.*;
+
+/**
+ * 書き込まれたバイト数のみを数える出力先。
+ * ベンチマークの測定値にディスクやバッファの拡張を含めないために用いる
+ * @author ysugimura
+ */
+public class NullSink extends OutputStream {
+
+  private long count;
+
+  @Override
+  public void write(int b) {
+    count++;
+  }
+
+  @Override
+  public void write(byte[]b, int off, int len) {
+    count += len;
+  }
+
+  /** 書き込まれたバイト数を取得する */
+  public long getCount() {
+    return count;
+  }
+}
@@ -0,0 +1,63 @@
+package com.cm55.pdfmonk.jmh;
+
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.cm55.pdfmonk.*;
+
+/**
+ * {@link MkTable}の構築と流し込み、列の最大幅の計算
+ * @author ysugimura
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class TableBenchmark {
+
+  /** 行数 */
+  @Param({ "1000", "10000", "100000" })
+  public int rows;
+
+  private MkContext ctx;
+
+  /** 列の最大幅の計算に用いる構築済のテーブル */
+  private MkTable built;
+
+  @Setup
+  public void setup() {
+    ctx = MkContext.getDefault();
+    built = build();
+  }
+
+  /** 4列のテーブルを構築する */
+  private MkTable build() {
+    MkTable table = new MkTable(ctx, 4);
+    table.setColumnRatios(MkGeometry.A4_PORTRAIT.getPrintWidth(), new float[] { 20, 60, 20, 20 });
+    for (int row = 0; row < rows; row++) {
+      table.addTextCell(Integer.toString(row));
+      table.addTextCell("商品名称" + (row % 100));
+      table.addTextCell(Integer.toString(row * 37 % 10000), MkAlign.RIGHT);
+      table.addTextCell(Integer.toString(row % 10), MkAlign.RIGHT);
+    }
+    return table;
+  }
+
+  /** 構築してドキュメントに流し込む */
+  @Benchmark
+  public long buildAndAdd() {
+    NullSink sink = new NullSink();
+    MkDocument doc = new MkDocument(ctx, MkGeometry.A4_PORTRAIT, sink);
+    build().addToCanvas(doc.getCanvasOver());
+    doc.close();
+    return sink.getCount();
+  }
+
+  @Benchmark
+  public MkLen[]columnMaxWidths() {
+    return built.getColumnMaxWidths();
+  }
+}
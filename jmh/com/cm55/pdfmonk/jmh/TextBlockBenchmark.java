@@ -0,0 +1,57 @@
+package com.cm55.pdfmonk.jmh;
+
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.cm55.pdfmonk.*;
+
+/**
+ * {@link MkTextBlock}の折り返し
+ * <p>
+ * 毎回新たなテキストブロックを作成し、制限幅での折り返しと大きさの計算を行う。
+ * </p>
+ * @author ysugimura
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextBlockBenchmark {
+
+  /** 入力の種類 */
+  @Param({ "short", "long", "cjk" })
+  public String input;
+
+  private MkContext ctx;
+  private String text;
+
+  @Setup
+  public void setup() {
+    ctx = MkContext.getDefault();
+    switch (input) {
+    case "short":
+      text = "Invoice No. 12345";
+      break;
+    case "long":
+      text = repeat("The quick brown fox jumps over the lazy dog. ", 40);
+      break;
+    default:
+      text = repeat("吾輩は猫である。名前はまだ無い。どこで生れたかとんと見当がつかぬ。", 20);
+      break;
+    }
+  }
+
+  private static String repeat(String s, int count) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < count; i++) sb.append(s);
+    return sb.toString();
+  }
+
+  @Benchmark
+  public MkDimension fold() {
+    return new MkTextBlock(ctx, text).setLimitWidth(MkUnit.MM, 80).getSize();
+  }
+}
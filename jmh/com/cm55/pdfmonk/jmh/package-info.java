@@ -0,0 +1,9 @@
+/**
+ * pdfmonkの主要な処理のJMHベンチマーク
+ * <p>
+ * gradle jmhで、入力ファイルを作成した上で全てを実行し、スループットとgcプロファイラによる割当量をbuild/jmh-result.jsonに出力する。
+ * -PjmhInclude=正規表現で対象を絞り込むことができる。
+ * </p>
+ * @author ysugimura
+ */
+package com.cm55.pdfmonk.jmh;
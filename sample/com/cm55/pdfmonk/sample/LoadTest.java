@@ -0,0 +1,382 @@
+package com.cm55.pdfmonk.sample;
+
+import java.io.*;
+import java.lang.management.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+import javax.management.*;
+import javax.management.openmbean.*;
+
+import com.cm55.pdfmonk.*;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * {@link Sample1}の納品書を元にした負荷試験
+ * <p>
+ * 顧客と明細を乱数で作成し、指定数の納品書を指定の並列度で{@link MkBatchEngine}により作成する。出力は破棄される。
+ * 明細数は対数正規分布に従い、中央値、ばらつき、最大値を指定できる。種を固定しているので、同じ引数であれば同じ文書の並びが作成される。
+ * ウォームアップの後に計測し、以下をJSONで出力する。
+ * </p>
+ * <ul>
+ * <li>描画時間のp50、p95、p99、最大値、平均値
+ * <li>文書数、ページ数、出力バイト数と、それぞれの一秒あたりの値
+ * <li>描画スレッドのメモリ割当量と割当速度
+ * <li>GCの回数、合計時間、停止時間の分布
+ * </ul>
+ * <p>
+ * 引数は--名前=値の形式で指定する。gradle loadTest -PloadTestArgs="--documents=5000 --threads=8"のように実行することもできる。
+ * </p>
+ * <pre>
+ * --documents=1000   計測する文書数
+ * --warmup=200       ウォームアップの文書数
+ * --threads=CPU数    並列度
+ * --itemsMedian=20   明細数の中央値
+ * --itemsSigma=0.8   明細数の対数のばらつき
+ * --itemsMax=500     明細数の最大値
+ * --seed=1           乱数の種
+ * --output=ファイル   JSONの出力先。省略時は標準出力
+ * </pre>
+ * @author ysugimura
+ */
+public class LoadTest {
+
+  /** 顧客 */
+  static class Customer {
+    final String zip;
+    final String address;
+    final String name;
+    Customer(String zip, String address, String name) {
+      this.zip = zip;
+      this.address = address;
+      this.name = name;
+    }
+  }
+
+  /** 明細 */
+  static class Item {
+    final String code;
+    final String name;
+    final int price;
+    final int quantity;
+    Item(String code, String name, int price, int quantity) {
+      this.code = code;
+      this.name = name;
+      this.price = price;
+      this.quantity = quantity;
+    }
+  }
+
+  /** 納品書 */
+  static class Invoice {
+    final Customer customer;
+    final List<Item>items;
+    Invoice(Customer customer, List<Item>items) {
+      this.customer = customer;
+      this.items = items;
+    }
+  }
+
+  private static final String[]PREFECTURES = { "東京都", "大阪府", "愛知県", "福岡県", "北海道", "神奈川県" };
+  private static final String[]FAMILY_NAMES = { "鈴木", "佐藤", "高橋", "田中", "伊藤", "渡辺", "山本", "中村" };
+  private static final String[]GIVEN_NAMES = { "一郎", "花子", "太郎", "恵子", "健一", "由美", "誠", "裕子" };
+  private static final String[]PRODUCTS = { "ボールペン", "ノート", "クリアファイル", "ホッチキス", "付箋", "電卓", "封筒", "コピー用紙" };
+
+  private int documents = 1000;
+  private int warmup = 200;
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private double itemsMedian = 20;
+  private double itemsSigma = 0.8;
+  private int itemsMax = 500;
+  private long seed = 1;
+  private String output;
+
+  /** 描画スレッド。割当量の計測に用いる */
+  private final List<Thread>workers = new CopyOnWriteArrayList<>();
+
+  /** 計測中のGC停止時間（ミリ秒） */
+  private final MkHistogram gcPauses = new MkHistogram();
+
+  /** 計測期間の開始・終了時刻。JVM起動からのミリ秒。この間に開始したGCの停止時間を記録する */
+  private volatile long gcWindowStart = Long.MAX_VALUE, gcWindowEnd = Long.MAX_VALUE;
+
+  /** コレクタ名称／受け取った通知の最大のGC番号 */
+  private final Map<String, Long>gcNotified = new ConcurrentHashMap<>();
+
+  public static void main(String[] args) throws Exception {
+    LoadTest test = new LoadTest();
+    test.parse(args);
+    String json = test.run();
+    if (test.output == null) {
+      System.out.println(json);
+    } else {
+      Files.write(Paths.get(test.output), json.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  /** 引数を解釈する */
+  void parse(String[]args) {
+    for (String arg: args) {
+      int eq = arg.indexOf('=');
+      if (!arg.startsWith("--") || eq < 0) throw new IllegalArgumentException("usage: --name=value:" + arg);
+      String name = arg.substring(2, eq);
+      String value = arg.substring(eq + 1);
+      switch (name) {
+      case "documents": documents = Integer.parseInt(value); break;
+      case "warmup": warmup = Integer.parseInt(value); break;
+      case "threads": threads = Integer.parseInt(value); break;
+      case "itemsMedian": itemsMedian = Double.parseDouble(value); break;
+      case "itemsSigma": itemsSigma = Double.parseDouble(value); break;
+      case "itemsMax": itemsMax = Integer.parseInt(value); break;
+      case "seed": seed = Long.parseLong(value); break;
+      case "output": output = value; break;
+      default: throw new IllegalArgumentException("unknown option:" + name);
+      }
+    }
+  }
+
+  /** ウォームアップの後に計測し、結果のJSONを返す */
+  String run() throws IOException {
+    listenGc();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+      new LinkedBlockingQueue<>(), r-> {
+        Thread thread = new Thread(r, "render-" + workers.size());
+        workers.add(thread);
+        return thread;
+      });
+    executor.prestartAllCoreThreads();
+    MkContext ctx = MkContext.getDefault();
+    try (MkBatchEngine engine = new MkBatchEngine(ctx, executor)) {
+      engine.setQueueCapacity(threads * 4);
+      engine.putImage("logo", new MkImage(Sample1.class.getResource("dog.jpg")));
+
+      // ウォームアップ。別の種を用いる
+      render(engine, new Random(seed + 1), warmup);
+      engine.resetStats();
+
+      long gcCount = gcCount(), gcMillis = gcMillis();
+      long allocated = allocatedBytes();
+      gcWindowStart = ManagementFactory.getRuntimeMXBean().getUptime();
+      MkBatchStats stats = render(engine, new Random(seed), documents);
+      gcWindowEnd = ManagementFactory.getRuntimeMXBean().getUptime();
+      allocated = allocatedBytes() - allocated;
+      gcCount = gcCount() - gcCount;
+      gcMillis = gcMillis() - gcMillis;
+      awaitGcNotifications();
+      return json(stats, allocated, gcCount, gcMillis);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /** 指定数の納品書を作成する */
+  private MkBatchStats render(MkBatchEngine engine, Random random, int count) {
+    MkBatchStats stats = engine.run(IntStream.range(0, count).mapToObj(i->
+      new MkBatchEngine.Job<>(invoice(random), (doc, invoice)->draw(engine, doc, invoice), invoice->new NullOutputStream())));
+    if (stats.getFailureCount() > 0) throw new MkException(stats.getFailures().get(0));
+    return stats;
+  }
+
+  /** 顧客と明細を作成する */
+  private Invoice invoice(Random random) {
+    Customer customer = new Customer(
+      String.format("%03d-%04d", random.nextInt(1000), random.nextInt(10000)),
+      PREFECTURES[random.nextInt(PREFECTURES.length)] + "＊＊市＊＊町" + (1 + random.nextInt(30)) + "-" + (1 + random.nextInt(50)),
+      FAMILY_NAMES[random.nextInt(FAMILY_NAMES.length)] + GIVEN_NAMES[random.nextInt(GIVEN_NAMES.length)]);
+    int count = (int)Math.round(itemsMedian * Math.exp(itemsSigma * random.nextGaussian()));
+    count = Math.max(1, Math.min(itemsMax, count));
+    List<Item>items = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      items.add(new Item(String.format("%05d", random.nextInt(100000)), PRODUCTS[random.nextInt(PRODUCTS.length)] + (i + 1),
+        (1 + random.nextInt(100)) * 10, 1 + random.nextInt(20)));
+    }
+    return new Invoice(customer, items);
+  }
+
+  /** {@link Sample1}と同じレイアウトで納品書を描画する */
+  private void draw(MkBatchEngine engine, MkDocument doc, Invoice invoice) {
+    MkContext ctx = doc.getContext();
+    MkGeometry geo = doc.getGeometry();
+    MkCanvas canvas = doc.getCanvasOver();
+    new MkPageNumberField(ctx, geo.getBottomLeft(), new MkDimension(geo.getPrintWidth(), ctx.getFont().getSize()))
+      .setAlign(MkAlign.LEFT).attach(doc);
+
+    // お客様名称住所
+    Customer customer = invoice.customer;
+    new MkTextBlock(ctx, "〒 " + customer.zip + "\n\n" + customer.address + "\n\n" + customer.name + "　様")
+      .setToContentByte(canvas, MkUnit.MM, 0, 0);
+    canvas.setLineWidth(MkUnit.MM, 0.1F).drawRect(MkUnit.MM, 0, 0, 50, 30);
+
+    // タイトル、ロゴ
+    new Sample1().drawTitle(canvas);
+    float printWidth = geo.getPrintWidth().mmValue();
+    engine.getImage("logo").setSizeAspect(MkUnit.MM, 50, 50)
+      .setToContentByteCentering(canvas, MkUnit.MM, printWidth - 50, 0, 50, 50);
+
+    // 明細
+    canvas.setVertical(MkUnit.MM, 55);
+    MkTable table = new MkTable(ctx, 5);
+    table.setColumnRatios(geo.getPrintWidth(), new float[] { 15, 100, 15, 15, 15 });
+    for (String name: new String[] { "商品コード", "商品名", "単価", "数量", "合計" }) {
+      table.addTextCell(name, MkAlign.CENTER);
+    }
+    long total = 0;
+    for (Item item: invoice.items) {
+      table.addTextCell(item.code, MkAlign.RIGHT);
+      table.addTextCell(item.name);
+      table.addTextCell("" + item.price, MkAlign.RIGHT);
+      table.addTextCell("" + item.quantity, MkAlign.RIGHT);
+      table.addTextCell("" + item.price * item.quantity, MkAlign.RIGHT);
+      total += item.price * item.quantity;
+    }
+    MkCell cell = ctx.getCell();
+    cell.setBorderVisible(false);
+    table.addCell(new MkTextCell(ctx, "").setColSpan(2));
+    cell.setBorderVisible(true);
+    table.addCell(new MkTextCell(ctx, "総合計").setColSpan(2));
+    table.addTextCell("" + total, MkAlign.RIGHT);
+    table.addToCanvas(canvas);
+  }
+
+  /** 描画スレッドの累積メモリ割当量を取得する。取得できない場合は-1 */
+  private long allocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+    com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean)bean;
+    if (!sun.isThreadAllocatedMemorySupported()) return -1;
+    long[]ids = workers.stream().mapToLong(Thread::getId).toArray();
+    return LongStream.of(sun.getThreadAllocatedBytes(ids)).filter(b->b > 0).sum();
+  }
+
+  private static long gcCount() {
+    return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+  }
+
+  private static long gcMillis() {
+    return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+  }
+
+  /**
+   * GCの通知を受けて、計測期間中に開始したGCの停止時間を記録する。
+   * 通知は別スレッドから非同期に届くので、計測の終了後に{@link #awaitGcNotifications()}で到着を待つ。
+   */
+  private void listenGc() {
+    NotificationListener listener = (notification, handback)-> {
+      if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) return;
+      GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData)notification.getUserData());
+      long start = info.getGcInfo().getStartTime();
+      if (isPause(info) && start >= gcWindowStart && start <= gcWindowEnd) {
+        synchronized (gcPauses) {
+          gcPauses.record(info.getGcInfo().getDuration());
+        }
+      }
+      gcNotified.merge(info.getGcName(), info.getGcInfo().getId(), Math::max);
+    };
+    for (GarbageCollectorMXBean bean: ManagementFactory.getGarbageCollectorMXBeans()) {
+      if (bean instanceof NotificationEmitter) ((NotificationEmitter)bean).addNotificationListener(listener, null, null);
+    }
+  }
+
+  /**
+   * 通知が停止時間を表すものか。
+   * ZGC、ShenandoahのCyclesやG1 Concurrent GCのように、アプリケーションと並行して動作した周期を通知するものは除外し、
+   * それらの停止はPausesや"end of ... pause"の通知で数える。CMSのように名前にConcurrentを含むコレクタも、並行動作の時間を含むので除外する
+   */
+  private static boolean isPause(GarbageCollectionNotificationInfo info) {
+    String action = info.getGcAction();
+    if (action.contains("pause")) return true;
+    return !action.contains("cycle") && !info.getGcName().contains("Concurrent");
+  }
+
+  /** 現時点までのGCの通知がすべて届くのを待つ。届かない場合も一定時間で打ち切る */
+  private void awaitGcNotifications() {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    for (GarbageCollectorMXBean bean: ManagementFactory.getGarbageCollectorMXBeans()) {
+      if (!(bean instanceof NotificationEmitter)) continue;
+      long count = bean.getCollectionCount();
+      while (gcNotified.getOrDefault(bean.getName(), 0L) < count && System.nanoTime() < deadline) {
+        try {
+          Thread.sleep(10);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  /** 結果をJSONにする */
+  private String json(MkBatchStats stats, long allocated, long gcCount, long gcMillis) {
+    MkHistogram latency = stats.getLatency();
+    double seconds = stats.getElapsedSeconds();
+    StringBuilder sb = new StringBuilder();
+    sb.append("{\n");
+    sb.append("  \"environment\": {");
+    field(sb, "java", System.getProperty("java.version")).append(", ");
+    field(sb, "vm", System.getProperty("java.vm.name")).append(", ");
+    field(sb, "processors", Runtime.getRuntime().availableProcessors()).append(", ");
+    field(sb, "maxHeapBytes", Runtime.getRuntime().maxMemory()).append("},\n");
+    sb.append("  \"config\": {");
+    field(sb, "documents", documents).append(", ");
+    field(sb, "warmup", warmup).append(", ");
+    field(sb, "threads", threads).append(", ");
+    field(sb, "itemsMedian", itemsMedian).append(", ");
+    field(sb, "itemsSigma", itemsSigma).append(", ");
+    field(sb, "itemsMax", itemsMax).append(", ");
+    field(sb, "seed", seed).append("},\n");
+    sb.append("  \"throughput\": {");
+    field(sb, "elapsedSeconds", seconds).append(", ");
+    field(sb, "documents", stats.getJobCount()).append(", ");
+    field(sb, "pages", stats.getPageCount()).append(", ");
+    field(sb, "bytes", stats.getBytesWritten()).append(", ");
+    field(sb, "documentsPerSecond", stats.getJobsPerSecond()).append(", ");
+    field(sb, "pagesPerSecond", stats.getPagesPerSecond()).append(", ");
+    field(sb, "megabytesPerSecond", stats.getBytesPerSecond() / 1e6).append("},\n");
+    sb.append("  \"latencyMillis\": {");
+    field(sb, "p50", latency.getPercentile(50) / 1e6).append(", ");
+    field(sb, "p95", latency.getPercentile(95) / 1e6).append(", ");
+    field(sb, "p99", latency.getPercentile(99) / 1e6).append(", ");
+    field(sb, "max", latency.getMax() / 1e6).append(", ");
+    field(sb, "mean", latency.getMean() / 1e6).append("},\n");
+    sb.append("  \"allocation\": {");
+    field(sb, "bytes", allocated).append(", ");
+    field(sb, "bytesPerDocument", allocated < 0? -1:allocated / Math.max(1, stats.getJobCount())).append(", ");
+    field(sb, "megabytesPerSecond", allocated < 0 || seconds == 0? -1:allocated / seconds / 1e6).append("},\n");
+    sb.append("  \"gc\": {");
+    field(sb, "count", gcCount).append(", ");
+    field(sb, "totalMillis", gcMillis).append(", ");
+    synchronized (gcPauses) {
+      field(sb, "pauses", gcPauses.getCount()).append(", ");
+      field(sb, "pauseP50Millis", gcPauses.getPercentile(50)).append(", ");
+      field(sb, "pauseP99Millis", gcPauses.getPercentile(99)).append(", ");
+      field(sb, "pauseMaxMillis", gcPauses.getMax()).append("}\n");
+    }
+    sb.append("}");
+    return sb.toString();
+  }
+
+  private static StringBuilder field(StringBuilder sb, String name, Object value) {
+    sb.append('"').append(name).append("\": ");
+    if (value instanceof String) {
+      sb.append('"').append(((String)value).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+    } else if (value instanceof Double) {
+      sb.append(String.format(Locale.ROOT, "%.3f", (Double)value));
+    } else {
+      sb.append(value);
+    }
+    return sb;
+  }
+
+  /** 出力を破棄する */
+  private static class NullOutputStream extends OutputStream {
+    @Override
+    public void write(int b) {
+    }
+    @Override
+    public void write(byte[]b, int off, int len) {
+    }
+  }
+}
@@ -1,7 +1,6 @@
 package com.cm55.pdfmonk.sample;
 
 import java.awt.*;
-import java.awt.geom.*;
 import java.io.*;
 
 import com.cm55.pdfmonk.*;
@@ -27,12 +26,11 @@ public class Sample1 {
     MkDocument doc = new MkDocument(ctx, geo, outFile);
     MkCanvas canvas = doc.getCanvasOver();
 
-    // ページナンバリングオブジェクトをセットアップ
-    MkPageNumbering pageNumbering = new MkPageNumbering(canvas, 
+    // ページ番号欄をセットアップ。総ページ数はクローズ時に自動的に描画される
+    new MkPageNumberField(ctx, 
       geo.getBottomLeft(),
       new MkDimension(geo.getPrintWidth(), ctx.getFont().getSize())
-    );
-    doc.setNewPageCallback(pageNumbering::create);
+    ).setAlign(MkAlign.LEFT).attach(doc);
         
     // キャンバスの絶対座標を指定して描画する
     drawCustomer(canvas);
@@ -43,9 +41,6 @@ public class Sample1 {
     canvas.setVertical(MkUnit.MM, 55);
     drawTable(canvas);
 
-    // 各ページ番号を描画する
-    drawPageNumber(ctx, pageNumbering, doc.getPageNumber());
-    
     // ドキュメントをクローズして表示する
     doc.close();    
     Desktop desktop = Desktop.getDesktop();
@@ -66,15 +61,9 @@ public class Sample1 {
     );
     tb.setToContentByte(canvas, MkUnit.MM, 0, 0);
 
-    // 枠で囲む。Graphics2Dの座標系をミリメートルとして、ミリメートル座標系で描画する。
-    // ここでは単純に矩形しか描画していないが、おそらくGraphics2Dのすべての機能が使用できると思われる。
-    // ただし、座標系変換のためにアフィン変換を設定しているので、アフィン変換を再設定すると、当然ながらミリメートル座標系ではなくなる。
-    Graphics2D g2d = canvas.createGraphics(MkUnit.MM);
-    g2d.setStroke(new BasicStroke(0.1F, 0, 0));
-    g2d.draw(new Rectangle2D.Float(0, 0, 50, 30));
-    
-    // 使い終わったら必ずdispose()すること。これをしないとドキュメントクローズ時にエラーが発生する。
-    g2d.dispose();
+    // 枠で囲む。ミリメートル座標系で、PDFの矩形を直接描画する。
+    // 曲線や複数の図形の組み合わせは、MkPathで描画できる。Graphics2Dの機能が必要な場合はcreateGraphics()を用いる。
+    canvas.setLineWidth(MkUnit.MM, 0.1F).drawRect(MkUnit.MM, 0, 0, 50, 30);
   }
 
   /** タイトルを描画する */
@@ -136,11 +125,4 @@ public class Sample1 {
     table.addToCanvas(canvas);
   }
 
-  /** 各ページ番号を描画する */
-  void drawPageNumber(MkContext ctx, MkPageNumbering pageNumbering, int totalPages) {
-    pageNumbering.pageSlots().forEach(slot-> {
-      new MkTextBlock(ctx, "" + slot.pageNumber + " ページ / 全 " + totalPages + " ページ")
-      .setToContentByte(slot.template,  MkDimension.ZERO);
-    });
-  }
 }
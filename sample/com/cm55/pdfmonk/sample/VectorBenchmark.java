@@ -0,0 +1,85 @@
+package com.cm55.pdfmonk.sample;
+
+import java.awt.*;
+import java.awt.geom.*;
+import java.io.*;
+
+import com.cm55.pdfmonk.*;
+
+/**
+ * 罫線の多い帳票を想定して、Graphics2D経由の描画と直接描画の処理時間と出力サイズを比較する。
+ * 引数はページ数。デフォルトは200
+ * @author ysugimura
+ */
+public class VectorBenchmark {
+
+  /** 一ページの行数 */
+  static final int ROWS = 40;
+
+  /** 一ページの列数 */
+  static final int COLUMNS = 6;
+
+  public static void main(String[] args) throws IOException {
+    int pages = args.length > 0? Integer.parseInt(args[0]):200;
+    VectorBenchmark bench = new VectorBenchmark();
+
+    // ウォームアップ
+    bench.run(pages / 4, true);
+    bench.run(pages / 4, false);
+
+    for (int i = 0; i < 3; i++) {
+      bench.report("graphics2d", pages, true);
+      bench.report("native    ", pages, false);
+    }
+  }
+
+  void report(String label, int pages, boolean graphics2d) {
+    long start = System.nanoTime();
+    long bytes = run(pages, graphics2d);
+    long nanos = System.nanoTime() - start;
+    System.out.printf("%s pages:%d ms:%.1f bytes:%d bytes/page:%d%n", label, pages, nanos / 1e6, bytes, bytes / pages);
+  }
+
+  /** 指定ページ数の罫線表を描画し、出力バイト数を返す */
+  long run(int pages, boolean graphics2d) {
+    MkContext ctx = MkContext.getDefault();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MkDocument doc = new MkDocument(ctx, MkGeometry.A4_PORTRAIT, out);
+    MkCanvas canvas = doc.getCanvasOver();
+    for (int page = 0; page < pages; page++) {
+      if (page > 0) doc.newPage();
+      if (graphics2d) drawGraphics2D(canvas);
+      else drawNative(canvas);
+    }
+    doc.close();
+    return out.size();
+  }
+
+  /** Graphics2D経由で描画する */
+  void drawGraphics2D(MkCanvas canvas) {
+    Graphics2D g2d = canvas.createGraphics(MkUnit.MM);
+    g2d.setStroke(new BasicStroke(0.1F, 0, 0));
+    for (int row = 0; row < ROWS; row++) {
+      g2d.setColor(row % 2 == 0? Color.LIGHT_GRAY:Color.WHITE);
+      g2d.fill(new Rectangle2D.Float(0, row * 6, 180, 6));
+      g2d.setColor(Color.BLACK);
+      for (int column = 0; column < COLUMNS; column++) {
+        g2d.draw(new Rectangle2D.Float(column * 30, row * 6, 30, 6));
+      }
+    }
+    g2d.draw(new RoundRectangle2D.Float(0, ROWS * 6 + 5, 180, 20, 4, 4));
+    g2d.dispose();
+  }
+
+  /** 直接描画する */
+  void drawNative(MkCanvas canvas) {
+    canvas.setLineWidth(MkUnit.MM, 0.1F).setStrokeColor(new MkColor("000000"));
+    for (int row = 0; row < ROWS; row++) {
+      canvas.setFillColor(row % 2 == 0? MkColor.LT_GRAY:MkColor.WHITE).fillRect(MkUnit.MM, 0, row * 6, 180, 6);
+      for (int column = 0; column < COLUMNS; column++) {
+        canvas.drawRect(MkUnit.MM, column * 30, row * 6, 30, 6);
+      }
+    }
+    canvas.drawRoundRect(MkUnit.MM, 0, ROWS * 6 + 5, 180, 20, 2);
+  }
+}
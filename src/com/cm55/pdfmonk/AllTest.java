@@ -7,11 +7,27 @@ import org.junit.runners.Suite.*;
 
 @RunWith(Suite.class) 
 @SuiteClasses( { 
+  MkBatchEngineTest.class,
+  MkBatchStamperTest.class,
+  MkChartTest.class,
+  MkContentByteTest.class,
+  MkContentWriterTest.class,
+  MkDisplayListTest.class,
+  MkFormTemplateTest.class,
   MkGeometryTest.class,
+  MkHistogramTest.class,
+  MkParallelStamperTest.class,
+  MkPdfBinderTest.class,
+  MkPdfPageTest.class,
+  MkPdfScannerTest.class,
+  MkPdfSplitterTest.class,
+  MkRenderCacheTest.class,
+  MkStamperTest.class,
+  MkSvgTest.class,
   MkUnitTest.class
 })
 public class AllTest {
   public static void main(String[] args) {
     JUnitCore.main(AllTest.class.getName());
   }
-}
\ No newline at end of file
+}
\ No newline at end of file
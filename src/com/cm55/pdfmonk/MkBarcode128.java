@@ -0,0 +1,121 @@
+package com.cm55.pdfmonk;
+
+import com.itextpdf.text.*;
+import com.itextpdf.text.pdf.*;
+
+/**
+ * Code128のバーコード
+ * <p>
+ * 画像ではなく、バーを矩形のパスとしてコンテントバイトに直接描画する。全てのバーは一つのパスとなり、一度だけ塗りつぶされる。
+ * 同じPDF内で同じ内容・大きさ・色のバーコードを置く場合には、最初に作成したテンプレートが再利用される。
+ * 人が読むための文字は描画しないので、必要であれば{@link MkTextBlock}で描画する。
+ * </p>
+ * <pre>
+ * new MkBarcode128("4912345678904").setModuleWidth(MkUnit.MM, 0.3f).setHeight(MkUnit.MM, 10)
+ *   .setToContentByte(canvas, MkUnit.MM, 120, 10);
+ * </pre>
+ * @author ysugimura
+ */
+public class MkBarcode128 {
+
+  /** 内容 */
+  private final String code;
+
+  /** バーの幅の並び（モジュール数）。バー、スペースの順 */
+  private final byte[]bars;
+
+  /** 全体のモジュール数 */
+  private final int modules;
+
+  /** 最も細いバーの幅 */
+  private MkLen moduleWidth = new MkLen(MkUnit.MM, 0.3f);
+
+  /** バーの高さ */
+  private MkLen height = new MkLen(MkUnit.MM, 10);
+
+  /** バーの色 */
+  private BaseColor color = BaseColor.BLACK;
+
+  /** テンプレートとしてキャッシュするか */
+  private boolean cached = true;
+
+  /**
+   * 内容を指定する。コードセットは内容に合わせて自動的に選択される
+   * @param code 内容
+   */
+  public MkBarcode128(String code) {
+    this.code = code;
+    this.bars = Barcode128.getBarsCode128Raw(Barcode128.getRawText(code, false));
+    int sum = 0;
+    for (byte bar: bars) sum += bar;
+    this.modules = sum;
+  }
+
+  /** 最も細いバーの幅を指定する。デフォルトは0.3mm */
+  public MkBarcode128 setModuleWidth(MkUnit unit, float width) {
+    moduleWidth = new MkLen(unit, width);
+    return this;
+  }
+
+  /** バーの高さを指定する。デフォルトは10mm */
+  public MkBarcode128 setHeight(MkUnit unit, float height) {
+    this.height = new MkLen(unit, height);
+    return this;
+  }
+
+  /** バーの色を指定する。デフォルトは黒 */
+  public MkBarcode128 setColor(MkColor color) {
+    this.color = color.getBaseColor();
+    return this;
+  }
+
+  /** テンプレートとしてキャッシュするかを指定する。デフォルトはtrue */
+  public MkBarcode128 setCached(boolean cached) {
+    this.cached = cached;
+    return this;
+  }
+
+  /** 内容を取得する */
+  public String getCode() {
+    return code;
+  }
+
+  /** 大きさを取得する。左右の余白は含まれない */
+  public MkDimension getSize() {
+    return new MkDimension(MkUnit.PT, moduleWidth.ptValue() * modules, height.ptValue());
+  }
+
+  /**
+   * 指定位置を左上として描画する
+   * @param contentByte 対象コンテントバイト
+   * @param unit 位置の単位
+   * @param x 描画x位置
+   * @param y 描画y位置
+   */
+  public void setToContentByte(MkContentByte contentByte, MkUnit unit, float x, float y) {
+    setToContentByte(contentByte, new MkDimension(unit, x, y));
+  }
+
+  /**
+   * 指定位置を左上として描画する
+   * @param contentByte 対象コンテントバイト
+   * @param position 描画位置
+   */
+  public void setToContentByte(MkContentByte contentByte, MkDimension position) {
+    String key = cached? "code128:" + moduleWidth.ptValue() + ":" + height.ptValue() + ":" + color.getRGB() + ":" + code:null;
+    contentByte.drawCached(key, this::getSize, position, this::draw);
+  }
+
+  /** バーを描画する */
+  private void draw(MkContentWriter writer, float x, float y) {
+    float module = moduleWidth.ptValue();
+    float h = height.ptValue();
+    writer.setColorFill(color);
+    for (int i = 0; i < bars.length; i++) {
+      float w = bars[i] * module;
+      if (i % 2 == 0) writer.rectangle(x, y, w, h);
+      x += w;
+    }
+    writer.fill();
+  }
+}
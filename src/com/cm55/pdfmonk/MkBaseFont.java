@@ -23,7 +23,9 @@ public class MkBaseFont implements MkDuplicatable<MkBaseFont> {
   private Impl impl;
   
   private MkBaseFont(Impl impl) {
-    (this.impl = impl).refCount++;    
+    synchronized (impl) {
+      (this.impl = impl).refCount++;
+    }
   }
   
   public MkBaseFont(MkFontFace baseName, MkEncoding encoding) {
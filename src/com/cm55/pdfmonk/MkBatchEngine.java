@@ -0,0 +1,338 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+import com.itextpdf.text.pdf.*;
+
+/**
+ * 多数の小さなドキュメントを並列に作成するバッチエンジン
+ * <p>
+ * 請求書のように、小さな{@link MkDocument}を大量に作成する場合に用いる。ジョブは、データ、描画関数、出力先の組であり、
+ * 指定された{@link ExecutorService}上で並列に処理される。ジョブごとに共有コンテキストの複製が作成されるので、
+ * 描画関数の中でコンテキストを変更しても他のジョブには影響しない。フォント等の実体は複製間で共有され、再作成されることはない。
+ * </p>
+ * <p>
+ * ロゴ等のイメージは{@link #putImage(String, MkImage)}で登録しておき、描画関数の中で{@link #getImage(String)}によって取得する。
+ * 取得されるのはデコード済のデータを共有した複製なので、ジョブごとにイメージを読み込み直す必要は無い。
+ * </p>
+ * <p>
+ * 投入側が処理よりも速い場合に、未処理のジョブが際限なく溜まらないよう、{@link #submit(Job)}は以下のいずれかの場合にブロックする。
+ * </p>
+ * <ul>
+ * <li>処理中・処理待ちのジョブ数が{@link #setQueueCapacity(int)}で指定した数に達している。
+ * <li>処理中・処理待ちのジョブの見積りメモリ量の合計が{@link #setMemoryBudget(long)}で指定した量を超える。
+ * </ul>
+ * <p>
+ * 新しいJDKでは、仮想スレッドのExecutorを指定することもできる。
+ * </p>
+ * <pre>
+ * try (MkBatchEngine engine = new MkBatchEngine(ctx, Executors.newVirtualThreadPerTaskExecutor())) {
+ *   engine.setQueueCapacity(256);
+ *   MkBatchStats stats = engine.run(invoices.map(inv-&gt;
+ *     new MkBatchEngine.Job&lt;&gt;(inv, this::drawInvoice, i-&gt;new FileOutputStream(i.fileName()))));
+ *   System.out.println(stats);
+ * }
+ * </pre>
+ * @author ysugimura
+ */
+public class MkBatchEngine implements AutoCloseable {
+
+  /**
+   * 描画関数
+   * @param <T> データの型
+   */
+  @FunctionalInterface
+  public interface Renderer<T> {
+    /**
+     * ドキュメントに描画する。ドキュメントのクローズはエンジン側で行われる。
+     * @param doc 描画対象ドキュメント
+     * @param data データ
+     */
+    public void render(MkDocument doc, T data) throws Exception;
+  }
+
+  /**
+   * 出力先
+   * @param <T> データの型
+   */
+  @FunctionalInterface
+  public interface Sink<T> {
+    /**
+     * 出力先ストリームをオープンする。ストリームはドキュメントのクローズ時にクローズされる。
+     * @param data データ
+     * @return 出力ストリーム
+     */
+    public OutputStream open(T data) throws IOException;
+  }
+
+  /**
+   * ジョブ。データ、描画関数、出力先の組
+   * @param <T> データの型
+   */
+  public static class Job<T> {
+    final T data;
+    final Renderer<T>renderer;
+    final Sink<T>sink;
+    MkGeometry geometry;
+    long estimatedBytes = -1;
+
+    public Job(T data, Renderer<T>renderer, Sink<T>sink) {
+      this.data = data;
+      this.renderer = renderer;
+      this.sink = sink;
+    }
+
+    /** このジョブのジオメトリを指定する。指定の無い場合はエンジンのものが使用される */
+    public Job<T> setGeometry(MkGeometry geometry) {
+      this.geometry = geometry;
+      return this;
+    }
+
+    /** このジョブの見積りメモリ量を指定する。指定の無い場合はエンジンのものが使用される */
+    public Job<T> setEstimatedBytes(long estimatedBytes) {
+      this.estimatedBytes = estimatedBytes;
+      return this;
+    }
+  }
+
+  /** メモリ量を管理する単位 */
+  private static final int MEMORY_UNIT = 1024;
+
+  /** 共有コンテキスト。ジョブごとに複製される */
+  private final MkContext sharedContext;
+
+  /** ジョブを処理するExecutor */
+  private final ExecutorService executor;
+
+  /** executorをこのオブジェクトが作成したか */
+  private final boolean ownExecutor;
+
+  /** 共有イメージ */
+  private final Map<String, MkImage>images = new ConcurrentHashMap<>();
+
+  /** デフォルトのジオメトリ */
+  private MkGeometry geometry = MkGeometry.A4_PORTRAIT;
+
+  /** 処理中・処理待ちのジョブ数の上限 */
+  private int queueCapacity = 64;
+
+  /** 処理中・処理待ちのジョブの見積りメモリ量の上限 */
+  private long memoryBudget = 256L * 1024 * 1024;
+
+  /** ジョブ一件の見積りメモリ量のデフォルト */
+  private long defaultJobBytes = 1024 * 1024;
+
+  /** ジョブ数の制限 */
+  private Semaphore queuePermits;
+
+  /** メモリ量の制限。{@link #MEMORY_UNIT}単位 */
+  private Semaphore memoryPermits;
+
+  /** 統計 */
+  private MkBatchStats stats = new MkBatchStats();
+
+  /**
+   * 共有コンテキストとスレッド数を指定する。固定サイズのスレッドプールが作成され、{@link #close()}で終了される。
+   * @param sharedContext 共有コンテキスト
+   * @param threads スレッド数
+   */
+  public MkBatchEngine(MkContext sharedContext, int threads) {
+    this(sharedContext, Executors.newFixedThreadPool(threads), true);
+  }
+
+  /**
+   * 共有コンテキストとExecutorを指定する。Executorは{@link #close()}でも終了されない。
+   * @param sharedContext 共有コンテキスト
+   * @param executor ジョブを処理するExecutor
+   */
+  public MkBatchEngine(MkContext sharedContext, ExecutorService executor) {
+    this(sharedContext, executor, false);
+  }
+
+  private MkBatchEngine(MkContext sharedContext, ExecutorService executor, boolean ownExecutor) {
+    this.sharedContext = sharedContext;
+    this.executor = executor;
+    this.ownExecutor = ownExecutor;
+  }
+
+  /** デフォルトのジオメトリを指定する */
+  public MkBatchEngine setGeometry(MkGeometry geometry) {
+    this.geometry = geometry;
+    return this;
+  }
+
+  /** 処理中・処理待ちのジョブ数の上限を指定する。最初のジョブの投入前に指定すること */
+  public MkBatchEngine setQueueCapacity(int queueCapacity) {
+    checkNotStarted();
+    this.queueCapacity = queueCapacity;
+    return this;
+  }
+
+  /** 処理中・処理待ちのジョブの見積りメモリ量の上限を指定する。最初のジョブの投入前に指定すること */
+  public MkBatchEngine setMemoryBudget(long memoryBudget) {
+    checkNotStarted();
+    this.memoryBudget = memoryBudget;
+    return this;
+  }
+
+  /** ジョブ一件の見積りメモリ量のデフォルトを指定する */
+  public MkBatchEngine setDefaultJobBytes(long defaultJobBytes) {
+    this.defaultJobBytes = defaultJobBytes;
+    return this;
+  }
+
+  /**
+   * 全ジョブで共有するイメージを登録する
+   * @param name 名称
+   * @param image イメージ。登録後は変更しないこと
+   */
+  public MkBatchEngine putImage(String name, MkImage image) {
+    images.put(name, image);
+    return this;
+  }
+
+  /**
+   * 共有イメージを取得する。デコード済のデータを共有した複製が返される。
+   * @param name 名称
+   * @return イメージの複製
+   */
+  public MkImage getImage(String name) {
+    MkImage image = images.get(name);
+    if (image == null) throw new MkException("no image:" + name);
+    return image.duplicate();
+  }
+
+  /**
+   * ジョブを投入する。処理中・処理待ちのジョブが上限に達している場合にはブロックする。
+   * @param job ジョブ
+   */
+  public <T> void submit(Job<T>job) {
+    ensureStarted();
+    int memory = memoryUnits(job);
+    try {
+      queuePermits.acquire();
+      try {
+        memoryPermits.acquire(memory);
+      } catch (InterruptedException ex) {
+        queuePermits.release();
+        throw ex;
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new MkException(ex);
+    }
+    stats.submitted(System.nanoTime());
+    try {
+      executor.execute(()-> {
+        try {
+          execute(job);
+        } finally {
+          memoryPermits.release(memory);
+          queuePermits.release();
+        }
+      });
+    } catch (RuntimeException ex) {
+      memoryPermits.release(memory);
+      queuePermits.release();
+      throw ex;
+    }
+  }
+
+  /**
+   * 複数のジョブを順に投入し、すべての終了を待つ。
+   * @param jobs ジョブのストリーム
+   * @return 統計
+   */
+  public MkBatchStats run(Stream<? extends Job<?>>jobs) {
+    jobs.forEach(this::submit);
+    return await();
+  }
+
+  /**
+   * 投入済のすべてのジョブの終了を待つ
+   * @return 統計
+   */
+  public MkBatchStats await() {
+    if (queuePermits == null) return stats;
+    try {
+      queuePermits.acquire(queueCapacity);
+      queuePermits.release(queueCapacity);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new MkException(ex);
+    }
+    return stats;
+  }
+
+  /** 統計を取得する */
+  public MkBatchStats getStats() {
+    return stats;
+  }
+
+  /**
+   * 統計をリセットする。処理中のジョブの無いときに呼び出すこと
+   * @return それまでの統計
+   */
+  public MkBatchStats resetStats() {
+    MkBatchStats old = stats;
+    stats = new MkBatchStats();
+    return old;
+  }
+
+  /** すべてのジョブの終了を待ち、このオブジェクトがExecutorを作成した場合にはそれを終了する */
+  @Override
+  public void close() {
+    await();
+    if (ownExecutor) executor.shutdown();
+  }
+
+  /** ジョブを実行する */
+  private <T> void execute(Job<T>job) {
+    MkBatchStats stats = this.stats;
+    long start = System.nanoTime();
+    OutputStreamCounter out = null;
+    MkDocument doc = null;
+    try {
+      out = new OutputStreamCounter(job.sink.open(job.data));
+      doc = new MkDocument(sharedContext.duplicate(), job.geometry != null? job.geometry:geometry, out);
+      job.renderer.render(doc, job.data);
+      int pages = doc.getPageNumber();
+      doc.close();
+      stats.succeeded(System.nanoTime() - start, pages, out.getCounter());
+    } catch (Throwable th) {
+      // 描画途中のドキュメントは出力せず、取込元のリーダと出力先をクローズする
+      if (doc != null) doc.abandon();
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException ex) {
+        }
+      }
+      stats.failed(System.nanoTime() - start, th);
+    }
+  }
+
+  /** ジョブの見積りメモリ量を許可数に変換する。予算を超えるものは予算いっぱいとする */
+  private int memoryUnits(Job<?>job) {
+    long bytes = job.estimatedBytes >= 0? job.estimatedBytes:defaultJobBytes;
+    long units = Math.max(1, (bytes + MEMORY_UNIT - 1) / MEMORY_UNIT);
+    return (int)Math.min(units, budgetUnits());
+  }
+
+  private int budgetUnits() {
+    return (int)Math.min(Integer.MAX_VALUE, Math.max(1, memoryBudget / MEMORY_UNIT));
+  }
+
+  private synchronized void ensureStarted() {
+    if (queuePermits != null) return;
+    queuePermits = new Semaphore(queueCapacity);
+    memoryPermits = new Semaphore(budgetUnits());
+  }
+
+  private void checkNotStarted() {
+    if (queuePermits != null) throw new MkException("already started");
+  }
+}
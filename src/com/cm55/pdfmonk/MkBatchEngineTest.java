@@ -0,0 +1,128 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class MkBatchEngineTest {
+
+  private static final MkContext ctx = MkContext.getDefault();
+
+  /** 開いているファイル記述子の数。取得できない環境ではテストを行わない */
+  private static int openFiles() {
+    String[]fds = new File("/proc/self/fd").list();
+    Assume.assumeNotNull((Object)fds);
+    return fds.length;
+  }
+
+  /** クローズされたかを記録する出力先 */
+  private static class Output extends ByteArrayOutputStream {
+    volatile boolean closed;
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  /** 描画に失敗したジョブは数えられ、そのドキュメントの取込元と出力先はクローズされ、他のジョブは出力される */
+  @Test
+  public void failure() throws IOException {
+    Path file = Files.createTempFile("pdfmonk", ".pdf");
+    try {
+      Files.write(file, MkPdfBinderTest.pdf(MkPdfBinderTest.image(), 1));
+      int before = openFiles();
+      List<Output>outputs = Collections.synchronizedList(new ArrayList<>());
+      MkBatchStats stats;
+      try (MkBatchEngine engine = new MkBatchEngine(ctx, 2)) {
+        stats = engine.run(IntStream.range(0, 6).mapToObj(i->new MkBatchEngine.Job<Integer>(i, (doc, data)-> {
+          new MkPdfPage(file, 1).setScale(0.5f).setToContentByte(doc.getCanvasOver(), MkUnit.MM, 0, 0);
+          if (data == 3) throw new IllegalStateException("broken " + data);
+        }, data-> {
+          Output out = new Output();
+          outputs.add(out);
+          return out;
+        })));
+      }
+      assertEquals(5, stats.getJobCount());
+      assertEquals(1, stats.getFailureCount());
+      assertEquals("broken 3", stats.getFailures().get(0).getMessage());
+      assertEquals(5, stats.getPageCount());
+      assertEquals(6, stats.getLatency().getCount());
+      assertEquals(6, outputs.size());
+      long written = 0;
+      for (Output out: outputs) {
+        assertTrue(out.closed);
+        if (out.size() > 0) assertEquals(1, MkPdfBinderTest.pageCount(out.toByteArray()));
+        written += out.size();
+      }
+      assertEquals(written, stats.getBytesWritten());
+      assertEquals(before, openFiles());
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  /** 処理中・処理待ちのジョブ数が上限に達すると、投入はブロックされる */
+  @Test
+  public void queueCapacity() throws Exception {
+    CountDownLatch gate = new CountDownLatch(1);
+    AtomicInteger submitted = new AtomicInteger();
+    MkBatchEngine engine = new MkBatchEngine(ctx, 1).setQueueCapacity(2);
+    Thread producer = new Thread(()-> {
+      for (int i = 0; i < 4; i++) {
+        engine.submit(new MkBatchEngine.Job<Integer>(i, (doc, data)-> {
+          gate.await();
+          new MkTextBlock(ctx, "job " + data).setToContentByte(doc.getCanvasOver(), MkUnit.MM, 10, 10);
+        }, data->new ByteArrayOutputStream()));
+        submitted.incrementAndGet();
+      }
+    });
+    producer.start();
+    try {
+      Thread.sleep(300);
+      assertEquals(2, submitted.get());
+      assertTrue(producer.isAlive());
+    } finally {
+      gate.countDown();
+    }
+    producer.join(10000);
+    assertEquals(4, submitted.get());
+    engine.close();
+    assertEquals(4, engine.getStats().getJobCount());
+    assertEquals(0, engine.getStats().getFailureCount());
+    assertEquals(4, engine.getStats().getPageCount());
+  }
+
+  /** 見積りメモリ量の合計が予算を超える場合も、投入はブロックされる */
+  @Test
+  public void memoryBudget() throws Exception {
+    CountDownLatch gate = new CountDownLatch(1);
+    AtomicInteger submitted = new AtomicInteger();
+    MkBatchEngine engine = new MkBatchEngine(ctx, 2).setMemoryBudget(3 * 1024 * 1024);
+    Thread producer = new Thread(()-> {
+      for (int i = 0; i < 3; i++) {
+        engine.submit(new MkBatchEngine.Job<Integer>(i, (doc, data)-> {
+          gate.await();
+          new MkTextBlock(ctx, "job " + data).setToContentByte(doc.getCanvasOver(), MkUnit.MM, 10, 10);
+        }, data->new ByteArrayOutputStream()).setEstimatedBytes(2 * 1024 * 1024));
+        submitted.incrementAndGet();
+      }
+    });
+    producer.start();
+    try {
+      Thread.sleep(300);
+      assertEquals(1, submitted.get());
+    } finally {
+      gate.countDown();
+    }
+    producer.join(10000);
+    engine.close();
+    assertEquals(3, engine.getStats().getJobCount());
+  }
+}
@@ -0,0 +1,199 @@
+package com.cm55.pdfmonk;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * 多数のPDFに同じオーバーレイを並列にスタンプする
+ * <p>
+ * 「COPY」の透かしや受付印のように、すべてのファイルのすべてのページに共通の部分は、{@link MkRecordedForm}として一度だけ記録され、
+ * 各ファイルにはフォームXObjectとして一度だけ取り込まれる。各ページには、そのフォームへの参照と、
+ * {@link PageDrawer}によるページごとに異なる小さな部分（通し番号等）のみが描画される。
+ * </p>
+ * <p>
+ * 入力ファイルはメモリマップされ、ジョブは指定された{@link ExecutorService}上で並列に処理される。
+ * ジョブごとに共有コンテキストの複製が作成される。
+ * </p>
+ * <pre>
+ * try (MkBatchStamper stamper = new MkBatchStamper(ctx, MkGeometry.A4_PORTRAIT, 8)) {
+ *   stamper.setOverlay(canvas-&gt; new MkTextBlock(ctx, "COPY").setToContentByte(canvas, MkUnit.MM, 0, 0));
+ *   stamper.setPageDrawer((cb, job, page, pageCount)-&gt;
+ *     new MkTextBlock(cb.getContext(), job.getOutput().getFileName() + "-" + page).setToContentByte(cb, MkUnit.MM, 0, 10));
+ *   MkBatchStats stats = stamper.run(jobs);
+ * }
+ * </pre>
+ * @author ysugimura
+ */
+public class MkBatchStamper implements AutoCloseable {
+
+  /**
+   * ジョブ。入力ファイルと出力ファイルの組
+   */
+  public static class Job {
+
+    private final Path input;
+    private final Path output;
+
+    /**
+     * 入力ファイルと出力ファイルを指定する。同じファイルであってはならない
+     * @param input 入力ファイル
+     * @param output 出力ファイル
+     */
+    public Job(Path input, Path output) {
+      this.input = input;
+      this.output = output;
+    }
+
+    /** 入力ファイルを取得する */
+    public Path getInput() {
+      return input;
+    }
+
+    /** 出力ファイルを取得する */
+    public Path getOutput() {
+      return output;
+    }
+  }
+
+  /**
+   * ページごとに異なる部分の描画関数
+   */
+  @FunctionalInterface
+  public interface PageDrawer {
+    /**
+     * 一ページ分を描画する。共通部分は既に置かれている。
+     * @param contentByte そのページの最前面のコンテントバイト
+     * @param job ジョブ
+     * @param pageNumber ページ番号。１から
+     * @param pageCount 総ページ数
+     */
+    public void draw(MkContentByte contentByte, Job job, int pageNumber, int pageCount) throws Exception;
+  }
+
+  /** 共有コンテキスト。ジョブごとに複製される */
+  private final MkContext sharedContext;
+
+  /** 入力ファイルのジオメトリ */
+  private final MkGeometry geometry;
+
+  /** ジョブを処理するExecutor */
+  private final ExecutorService executor;
+
+  /** executorをこのオブジェクトが作成したか */
+  private final boolean ownExecutor;
+
+  /** 共通部分。nullの場合は無し */
+  private MkRecordedForm overlay;
+
+  /** ページごとの描画関数。nullの場合は無し */
+  private PageDrawer pageDrawer;
+
+  /**
+   * 共有コンテキスト、入力ファイルのジオメトリ、スレッド数を指定する。
+   * 固定サイズのスレッドプールが作成され、{@link #close()}で終了される。
+   * @param sharedContext 共有コンテキスト
+   * @param geometry 入力ファイルのジオメトリ
+   * @param threads スレッド数
+   */
+  public MkBatchStamper(MkContext sharedContext, MkGeometry geometry, int threads) {
+    this(sharedContext, geometry, Executors.newFixedThreadPool(threads), true);
+  }
+
+  /**
+   * 共有コンテキスト、入力ファイルのジオメトリ、Executorを指定する。Executorは{@link #close()}でも終了されない。
+   * @param sharedContext 共有コンテキスト
+   * @param geometry 入力ファイルのジオメトリ
+   * @param executor ジョブを処理するExecutor
+   */
+  public MkBatchStamper(MkContext sharedContext, MkGeometry geometry, ExecutorService executor) {
+    this(sharedContext, geometry, executor, false);
+  }
+
+  private MkBatchStamper(MkContext sharedContext, MkGeometry geometry, ExecutorService executor, boolean ownExecutor) {
+    this.sharedContext = sharedContext;
+    this.geometry = geometry;
+    this.executor = executor;
+    this.ownExecutor = ownExecutor;
+  }
+
+  /**
+   * 共通部分を描画し、記録しておく。入力ファイルと同じ大きさのページとして描画すること
+   * @param drawer 描画関数
+   * @return このオブジェクト
+   */
+  public MkBatchStamper setOverlay(Consumer<MkCanvas>drawer) {
+    return setOverlay(new MkRecordedForm(sharedContext, geometry, drawer));
+  }
+
+  /**
+   * 記録済のフォームを共通部分とする
+   * @param overlay フォーム
+   * @return このオブジェクト
+   */
+  public MkBatchStamper setOverlay(MkRecordedForm overlay) {
+    this.overlay = overlay;
+    return this;
+  }
+
+  /**
+   * ページごとに異なる部分の描画関数を指定する
+   * @param pageDrawer 描画関数
+   * @return このオブジェクト
+   */
+  public MkBatchStamper setPageDrawer(PageDrawer pageDrawer) {
+    this.pageDrawer = pageDrawer;
+    return this;
+  }
+
+  /**
+   * すべてのジョブを並列に処理し、その終了を待つ。失敗したジョブは統計に記録される。
+   * @param jobs ジョブのリスト
+   * @return 統計
+   */
+  public MkBatchStats run(List<Job>jobs) {
+    MkBatchStats stats = new MkBatchStats();
+    List<Future<?>>futures = new ArrayList<>();
+    for (Job job: jobs) {
+      stats.submitted(System.nanoTime());
+      futures.add(executor.submit(()->execute(job, stats)));
+    }
+    try {
+      for (Future<?>future: futures) future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new MkException(ex);
+    } catch (ExecutionException ex) {
+      throw new MkException(ex.getCause());
+    }
+    return stats;
+  }
+
+  /** このオブジェクトがExecutorを作成した場合にはそれを終了する */
+  @Override
+  public void close() {
+    if (ownExecutor) executor.shutdown();
+  }
+
+  /** ジョブを実行する */
+  private void execute(Job job, MkBatchStats stats) {
+    long start = System.nanoTime();
+    try {
+      MkStamper stamper = new MkStamper(sharedContext.duplicate(), geometry, job.input, job.output);
+      int pageCount = stamper.pageCount();
+      try {
+        for (int page = 1; page <= pageCount; page++) {
+          MkContentByte contentByte = stamper.getContentByteOver(page);
+          if (overlay != null) overlay.setToContentByte(contentByte);
+          if (pageDrawer != null) pageDrawer.draw(contentByte, job, page, pageCount);
+        }
+      } finally {
+        stamper.close();
+      }
+      stats.succeeded(System.nanoTime() - start, pageCount, Files.size(job.output));
+    } catch (Throwable th) {
+      stats.failed(System.nanoTime() - start, th);
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.lang.ref.*;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.itextpdf.text.pdf.*;
+
+public class MkBatchStamperTest {
+
+  private Path dir;
+
+  @Before
+  public void before() throws IOException {
+    dir = Files.createTempDirectory("pdfmonk");
+  }
+
+  @After
+  public void after() throws IOException {
+    try (DirectoryStream<Path>files = Files.newDirectoryStream(dir)) {
+      for (Path file: files) Files.delete(file);
+    }
+    Files.delete(dir);
+  }
+
+  /** 共通部分のフォームが、処理済のファイルのライタを保持し続けないこと */
+  @Test
+  public void overlayReleasesWriters() throws Exception {
+    MkContext ctx = MkContext.getDefault();
+    List<MkBatchStamper.Job>jobs = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      Path input = dir.resolve("in" + i + ".pdf");
+      MkDocument doc = new MkDocument(ctx, MkGeometry.A4_PORTRAIT, input.toFile());
+      new MkTextBlock(ctx, "page 1").setToContentByte(doc.getCanvasOver(), MkUnit.MM, 0, 0);
+      doc.newPage();
+      new MkTextBlock(ctx, "page 2").setToContentByte(doc.getCanvasOver(), MkUnit.MM, 0, 0);
+      doc.close();
+      jobs.add(new MkBatchStamper.Job(input, dir.resolve("out" + i + ".pdf")));
+    }
+    MkRecordedForm overlay = new MkRecordedForm(ctx, MkGeometry.A4_PORTRAIT, canvas->
+      new MkTextBlock(ctx, "COPY").setToContentByte(canvas, MkUnit.MM, 50, 50));
+    List<WeakReference<PdfWriter>>writers = Collections.synchronizedList(new ArrayList<>());
+    MkBatchStats stats;
+    try (MkBatchStamper stamper = new MkBatchStamper(ctx, MkGeometry.A4_PORTRAIT, 2)) {
+      stamper.setOverlay(overlay);
+      stamper.setPageDrawer((contentByte, job, page, pageCount)-> {
+        if (page == 1) writers.add(new WeakReference<>(contentByte.getITextContentByte().getPdfWriter()));
+      });
+      stats = stamper.run(jobs);
+    }
+    assertEquals(0, stats.getFailureCount());
+    assertEquals(80, stats.getPageCount());
+    assertEquals(40, writers.size());
+
+    // フォームは参照されたまま、ライタがすべて回収されること
+    long alive = writers.size();
+    for (int i = 0; i < 10 && alive > 0; i++) {
+      System.gc();
+      Thread.sleep(20);
+      alive = writers.stream().filter(w->w.get() != null).count();
+    }
+    assertEquals(0, alive);
+    assertNotNull(overlay.getBytes());
+
+    // 各ファイルにはフォームが一つのXObjectとして取り込まれていること
+    PdfReader reader = new PdfReader(dir.resolve("out0.pdf").toString());
+    try {
+      PdfDictionary xobjects1 = reader.getPageN(1).getAsDict(PdfName.RESOURCES).getAsDict(PdfName.XOBJECT);
+      PdfDictionary xobjects2 = reader.getPageN(2).getAsDict(PdfName.RESOURCES).getAsDict(PdfName.XOBJECT);
+      assertEquals(1, xobjects1.size());
+      assertEquals(xobjects1.getAsIndirectObject(xobjects1.getKeys().iterator().next()).getNumber(),
+          xobjects2.getAsIndirectObject(xobjects2.getKeys().iterator().next()).getNumber());
+    } finally {
+      reader.close();
+    }
+  }
+}
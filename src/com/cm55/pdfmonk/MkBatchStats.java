@@ -0,0 +1,132 @@
+package com.cm55.pdfmonk;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * {@link MkBatchEngine}、{@link MkPdfSplitter}の処理統計
+ * <p>
+ * 処理したジョブ数、失敗数、ページ数、出力バイト数、ジョブ一件あたりの処理時間分布を保持する。
+ * スループットは、最初のジョブの投入から最後のジョブの終了までの経過時間を元に計算される。
+ * </p>
+ * @author ysugimura
+ */
+public class MkBatchStats {
+
+  /** 保持する失敗例外の最大数 */
+  private static final int MAX_FAILURES = 100;
+
+  /** ジョブ一件あたりの処理時間（ナノ秒） */
+  private final MkHistogram latency = new MkHistogram();
+
+  /** 成功ジョブ数 */
+  private final AtomicLong jobs = new AtomicLong();
+
+  /** 総ページ数 */
+  private final AtomicLong pages = new AtomicLong();
+
+  /** 総出力バイト数 */
+  private final AtomicLong bytes = new AtomicLong();
+
+  /** 失敗ジョブ数 */
+  private final AtomicLong failureCount = new AtomicLong();
+
+  /** 失敗時の例外。最初の{@link #MAX_FAILURES}件のみ */
+  private final List<Throwable>failures = Collections.synchronizedList(new ArrayList<>());
+
+  /** 最初のジョブの投入時刻 */
+  private final AtomicLong startNanos = new AtomicLong();
+
+  /** 最後のジョブの終了時刻 */
+  private final AtomicLong endNanos = new AtomicLong();
+
+  /** ジョブが投入された */
+  void submitted(long now) {
+    startNanos.compareAndSet(0, now);
+  }
+
+  /** ジョブが成功した */
+  void succeeded(long nanos, int pageCount, long byteCount) {
+    latency.record(nanos);
+    jobs.incrementAndGet();
+    pages.addAndGet(pageCount);
+    bytes.addAndGet(byteCount);
+    endNanos.accumulateAndGet(System.nanoTime(), Math::max);
+  }
+
+  /** ジョブが失敗した */
+  void failed(long nanos, Throwable th) {
+    latency.record(nanos);
+    if (failureCount.incrementAndGet() <= MAX_FAILURES) failures.add(th);
+    endNanos.accumulateAndGet(System.nanoTime(), Math::max);
+  }
+
+  /** 成功ジョブ数を取得する */
+  public long getJobCount() {
+    return jobs.get();
+  }
+
+  /** 失敗ジョブ数を取得する */
+  public long getFailureCount() {
+    return failureCount.get();
+  }
+
+  /** 失敗時の例外を取得する。最初の100件のみが保持されている */
+  public List<Throwable>getFailures() {
+    synchronized (failures) {
+      return new ArrayList<>(failures);
+    }
+  }
+
+  /** 総ページ数を取得する */
+  public long getPageCount() {
+    return pages.get();
+  }
+
+  /** 総出力バイト数を取得する */
+  public long getBytesWritten() {
+    return bytes.get();
+  }
+
+  /** ジョブ一件あたりの処理時間分布（ナノ秒）を取得する */
+  public MkHistogram getLatency() {
+    return latency;
+  }
+
+  /** 経過時間を秒で取得する */
+  public double getElapsedSeconds() {
+    long start = startNanos.get();
+    long end = endNanos.get();
+    if (start == 0 || end <= start) return 0;
+    return (end - start) / 1e9;
+  }
+
+  /** 一秒あたりの成功ジョブ数を取得する */
+  public double getJobsPerSecond() {
+    return perSecond(jobs.get());
+  }
+
+  /** 一秒あたりのページ数を取得する */
+  public double getPagesPerSecond() {
+    return perSecond(pages.get());
+  }
+
+  /** 一秒あたりの出力バイト数を取得する */
+  public double getBytesPerSecond() {
+    return perSecond(bytes.get());
+  }
+
+  private double perSecond(long value) {
+    double seconds = getElapsedSeconds();
+    if (seconds == 0) return 0;
+    return value / seconds;
+  }
+
+  /** デバッグ用。文字列化する */
+  @Override
+  public String toString() {
+    return String.format("jobs:%d,failures:%d,pages:%d,bytes:%d,jobs/s:%.1f,pages/s:%.1f,p50:%.3fms,p95:%.3fms,p99:%.3fms",
+      getJobCount(), getFailureCount(), getPageCount(), getBytesWritten(), getJobsPerSecond(), getPagesPerSecond(),
+      latency.getPercentile(50) / 1e6, latency.getPercentile(95) / 1e6, latency.getPercentile(99) / 1e6);
+  }
+}
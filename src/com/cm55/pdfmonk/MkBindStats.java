@@ -0,0 +1,149 @@
+package com.cm55.pdfmonk;
+
+import java.util.*;
+
+/**
+ * {@link MkPdfBinder}の処理統計
+ * <p>
+ * 入力ごとのページ数、入力バイト数、出力バイト数、処理時間、処理後のヒープ使用量を保持する。
+ * 入力ごとの出力バイト数は、その入力のページを追加する間に出力に書き込まれたバイト数である。
+ * 重複排除モードでは、既に出力済のフォントや画像は書き込まれないため、これが入力バイト数よりも大幅に小さくなる。
+ * 書き込まれなかったストリームのデータ長は、削減バイト数として入力ごとに数えられる。
+ * </p>
+ * @author ysugimura
+ */
+public class MkBindStats {
+
+  /**
+   * 入力一件分の統計
+   */
+  public static class Input {
+
+    private final int pages;
+    private final long inputBytes;
+    private final long outputBytes;
+    private final long savedBytes;
+    private final long nanos;
+    private final long heapBytes;
+
+    Input(int pages, long inputBytes, long outputBytes, long savedBytes, long nanos, long heapBytes) {
+      this.pages = pages;
+      this.inputBytes = inputBytes;
+      this.outputBytes = outputBytes;
+      this.savedBytes = savedBytes;
+      this.nanos = nanos;
+      this.heapBytes = heapBytes;
+    }
+
+    /** ページ数を取得する */
+    public int getPages() {
+      return pages;
+    }
+
+    /** 入力PDFファイル全体のバイト数を取得する。ページ範囲を指定した場合も、範囲外のページを含む */
+    public long getInputBytes() {
+      return inputBytes;
+    }
+
+    /** この入力の追加中に書き込まれたバイト数を取得する */
+    public long getOutputBytes() {
+      return outputBytes;
+    }
+
+    /** この入力の追加中に、出力済のものと同一内容であったため書き込まれなかったストリームのデータ長の合計を取得する */
+    public long getSavedBytes() {
+      return savedBytes;
+    }
+
+    /** 解析と追加に要した時間（ナノ秒）を取得する */
+    public long getNanos() {
+      return nanos;
+    }
+
+    /** この入力の処理直後のヒープ使用量を取得する。ガベージを含むため目安である */
+    public long getHeapBytes() {
+      return heapBytes;
+    }
+
+    /** デバッグ用。文字列化する */
+    @Override
+    public String toString() {
+      return "pages:" + pages + ",in:" + inputBytes + ",out:" + outputBytes + ",saved:" + savedBytes + ",ms:" + nanos / 1e6 + ",heap:" + heapBytes;
+    }
+  }
+
+  /** 入力ごとの統計 */
+  private final List<Input>inputs = new ArrayList<>();
+
+  /** 入力一件あたりの処理時間（ナノ秒） */
+  private final MkHistogram mergeTime = new MkHistogram();
+
+  /** 総出力バイト数。クローズ後はファイル全体の大きさとなる */
+  private long outputBytes;
+
+  /** ヒープ使用量の最大値 */
+  private long heapHighWater;
+
+  /** 入力が追加された */
+  synchronized void added(Input input) {
+    inputs.add(input);
+    mergeTime.record(input.nanos);
+    heapHighWater = Math.max(heapHighWater, input.heapBytes);
+  }
+
+  /** 総出力バイト数を設定する */
+  synchronized void setOutputBytes(long outputBytes) {
+    this.outputBytes = outputBytes;
+  }
+
+  /** 入力ごとの統計を取得する */
+  public synchronized List<Input>getInputs() {
+    return new ArrayList<>(inputs);
+  }
+
+  /** 入力数を取得する */
+  public synchronized int getInputCount() {
+    return inputs.size();
+  }
+
+  /** 総ページ数を取得する */
+  public synchronized long getPageCount() {
+    return inputs.stream().mapToLong(Input::getPages).sum();
+  }
+
+  /** 総入力バイト数を取得する */
+  public synchronized long getInputBytes() {
+    return inputs.stream().mapToLong(Input::getInputBytes).sum();
+  }
+
+  /** 総出力バイト数を取得する。クローズ後はファイル全体の大きさとなる */
+  public synchronized long getOutputBytes() {
+    return outputBytes;
+  }
+
+  /**
+   * 重複排除によって削減されたバイト数を取得する。
+   * 出力済のものと同一内容であったため書き込まれなかったストリームのデータ長の合計であり、重複排除モードでなければ0となる。
+   */
+  public synchronized long getBytesSaved() {
+    return inputs.stream().mapToLong(Input::getSavedBytes).sum();
+  }
+
+  /** 各入力の処理直後のヒープ使用量の最大値を取得する */
+  public synchronized long getHeapHighWater() {
+    return heapHighWater;
+  }
+
+  /** 入力一件あたりの処理時間分布（ナノ秒）を取得する */
+  public MkHistogram getMergeTime() {
+    return mergeTime;
+  }
+
+  /** デバッグ用。文字列化する */
+  @Override
+  public String toString() {
+    return String.format("inputs:%d,pages:%d,in:%d,out:%d,saved:%d,heap:%d,p50:%.3fms,p99:%.3fms",
+      getInputCount(), getPageCount(), getInputBytes(), getOutputBytes(), getBytesSaved(), getHeapHighWater(),
+      mergeTime.getPercentile(50) / 1e6, mergeTime.getPercentile(99) / 1e6);
+  }
+}
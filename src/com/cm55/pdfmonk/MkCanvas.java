@@ -78,6 +78,12 @@ public class MkCanvas extends MkContentByte {
     return vertical;
   }
 
+  /** {@link MkDocument#releaseTemplate(MkTemplate)}を参照のこと */
+  @Override
+  void releaseTemplate(MkTemplate template) {
+    document.releaseTemplate(template);
+  }
+
   /**
    * キャンバスのジオメトリを取得する
    */
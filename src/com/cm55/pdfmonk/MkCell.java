@@ -52,18 +52,24 @@ public class MkCell implements MkDuplicatable<MkCell> {
    * @param impl
    */
   protected MkCell(Impl impl) {
-    (this.impl = impl).refCount++;
+    synchronized (impl) {
+      (this.impl = impl).refCount++;
+    }
   }
 
   /**
    * セルに対する変更を準備する。参照カウントが２以上であれば、
    * 実体をコピーして自分用に確保する。
+   * 共有されている実体は複数のスレッドから複製される可能性があるので、参照カウントの操作は同期をとる。
    * @return
    */
   protected Impl modifyImpl() {
-    if (impl.refCount > 1) {
-      impl.refCount--;
-      impl = new Impl(new PdfPCell(impl.cell));
+    Impl old = impl;
+    synchronized (old) {
+      if (old.refCount > 1) {
+        old.refCount--;
+        impl = new Impl(new PdfPCell(old.cell));
+      }
     }
     return impl;
   }
@@ -0,0 +1,434 @@
+package com.cm55.pdfmonk;
+
+import java.text.*;
+import java.util.*;
+import java.util.List;
+
+import com.itextpdf.text.BaseColor;
+import com.itextpdf.text.Element;
+import com.itextpdf.text.pdf.*;
+
+/**
+ * 折れ線グラフ、棒グラフ、スパークライン
+ * <p>
+ * {@link MkContentByte#createGraphics(MkUnit)}を経由せず、double配列の系列からパスとラベルを直接出力する。
+ * 軸、目盛線、目盛ラベルの層は、大きさ・値の範囲・色等が同じであれば、同じPDFにつき一度だけテンプレートとして作成され、以降はその参照となる。
+ * 系列はグラフごとに異なるので、置いたコンテントバイトに直接描画される。同じ色の系列が続く場合には、色や線幅の設定も省略される。
+ * </p>
+ * <p>
+ * 表のセル等、テンプレートとして必要な場合には{@link #createTemplate(MkContentByte)}を用いる。
+ * 値の範囲を{@link #setRange(double, double)}で指定しない場合は系列から求められ、目盛線がある場合には切りの良い値に広げられる。
+ * NaNの値は欠損として扱われ、折れ線はそこで途切れる。
+ * </p>
+ * <pre>
+ * MkChart spark = MkChart.sparkline(sales).setSize(MkUnit.MM, 20, 5);
+ * spark.setToContentByte(canvas, MkUnit.MM, 150, row * 6);
+ *
+ * MkChart.bar(monthly).addSeries(lastYear, MkColor.LT_GRAY).setSize(MkUnit.MM, 120, 60)
+ *   .setToContentByte(canvas, MkUnit.MM, 0, 100);
+ * </pre>
+ * @author ysugimura
+ */
+public class MkChart {
+
+  /** グラフの種類 */
+  public enum Type {
+    /** 折れ線 */
+    LINE,
+    /** 棒 */
+    BAR;
+  }
+
+  /** 色を指定しない系列に順に割り当てる色 */
+  private static final BaseColor[]PALETTE = {
+    new BaseColor(0x1f, 0x4e, 0x79), new BaseColor(0xc0, 0x50, 0x4d), new BaseColor(0x9b, 0xbb, 0x59), new BaseColor(0x80, 0x64, 0xa2)
+  };
+
+  /** グラフの種類 */
+  private final Type type;
+
+  /** 系列 */
+  private final List<double[]>series = new ArrayList<>();
+
+  /** 系列の色 */
+  private final List<BaseColor>colors = new ArrayList<>();
+
+  /** 大きさ */
+  private MkDimension size = new MkDimension(MkUnit.MM, 80, 40);
+
+  /** 値の範囲。NaNの場合は系列から求める */
+  private double min = Double.NaN, max = Double.NaN;
+
+  /** 目盛線の間隔の数。0の場合は目盛線無し */
+  private int gridLines = 4;
+
+  /** 軸を描画するか */
+  private boolean axis = true;
+
+  /** 目盛ラベルの文字サイズ（ポイント）。0の場合はラベル無し */
+  private float labelSize = 7;
+
+  /** 目盛ラベルの書式 */
+  private String labelFormat = "#,##0.##";
+
+  /** 系列の線幅（ポイント） */
+  private float lineWidth = 1;
+
+  /** 棒の間の隙間の、区分の幅に対する割合 */
+  private float barGap = 0.2f;
+
+  /** 軸と目盛ラベルの色 */
+  private BaseColor axisColor = BaseColor.BLACK;
+
+  /** 目盛線の色 */
+  private BaseColor gridColor = BaseColor.LIGHT_GRAY;
+
+  /** 軸の層をテンプレートとしてキャッシュするか */
+  private boolean cached = true;
+
+  /**
+   * 種類と最初の系列を指定する
+   * @param type グラフの種類
+   * @param values 系列の値。変更してはならない
+   */
+  public MkChart(Type type, double[]values) {
+    this.type = type;
+    addSeries(values, null);
+  }
+
+  /** 折れ線グラフを作成する */
+  public static MkChart line(double[]values) {
+    return new MkChart(Type.LINE, values);
+  }
+
+  /** 棒グラフを作成する */
+  public static MkChart bar(double[]values) {
+    return new MkChart(Type.BAR, values);
+  }
+
+  /** 軸、目盛線、ラベルの無い、表のセル用の小さな折れ線グラフを作成する */
+  public static MkChart sparkline(double[]values) {
+    return new MkChart(Type.LINE, values).setSize(MkUnit.MM, 20, 5).setGridLines(0).setAxis(false).setLabelSize(0)
+      .setLineWidth(MkUnit.PT, 0.5f);
+  }
+
+  /**
+   * 系列を追加する。棒グラフでは、同じ区分の棒が系列の順に並べられる
+   * @param values 系列の値。変更してはならない
+   * @param color 系列の色。nullの場合は既定の色
+   * @return このオブジェクト
+   */
+  public MkChart addSeries(double[]values, MkColor color) {
+    series.add(values);
+    colors.add(color != null? color.getBaseColor():PALETTE[(series.size() - 1) % PALETTE.length]);
+    return this;
+  }
+
+  public MkChart setSize(MkUnit unit, float width, float height) {
+    return setSize(new MkDimension(unit, width, height));
+  }
+
+  /** 目盛ラベルを含む大きさを指定する。デフォルトは80mm×40mm */
+  public MkChart setSize(MkDimension size) {
+    this.size = size;
+    return this;
+  }
+
+  /** 大きさを取得する */
+  public MkDimension getSize() {
+    return size;
+  }
+
+  /** 値の範囲を指定する。範囲外の値は範囲の端に描画される */
+  public MkChart setRange(double min, double max) {
+    if (!(min < max)) throw new MkException("invalid range " + min + "-" + max);
+    this.min = min;
+    this.max = max;
+    return this;
+  }
+
+  /** 目盛線の間隔の数を指定する。0の場合は目盛線無し。デフォルトは4 */
+  public MkChart setGridLines(int gridLines) {
+    this.gridLines = gridLines;
+    return this;
+  }
+
+  /** 軸を描画するかを指定する。デフォルトはtrue */
+  public MkChart setAxis(boolean axis) {
+    this.axis = axis;
+    return this;
+  }
+
+  /** 目盛ラベルの文字サイズを指定する。0の場合はラベル無し。デフォルトは7ポイント */
+  public MkChart setLabelSize(float points) {
+    this.labelSize = points;
+    return this;
+  }
+
+  /** 目盛ラベルの書式を{@link DecimalFormat}の形式で指定する。デフォルトは"#,##0.##" */
+  public MkChart setLabelFormat(String labelFormat) {
+    this.labelFormat = labelFormat;
+    return this;
+  }
+
+  /** 系列の線幅を指定する。棒グラフでは用いない。デフォルトは1ポイント */
+  public MkChart setLineWidth(MkUnit unit, float width) {
+    this.lineWidth = unit.scalingTo(MkUnit.PT) * width;
+    return this;
+  }
+
+  /** 棒の間の隙間の、区分の幅に対する割合を指定する。デフォルトは0.2 */
+  public MkChart setBarGap(float barGap) {
+    this.barGap = barGap;
+    return this;
+  }
+
+  /** 軸と目盛ラベルの色を指定する。デフォルトは黒 */
+  public MkChart setAxisColor(MkColor color) {
+    this.axisColor = color.getBaseColor();
+    return this;
+  }
+
+  /** 目盛線の色を指定する。デフォルトは薄い灰色 */
+  public MkChart setGridColor(MkColor color) {
+    this.gridColor = color.getBaseColor();
+    return this;
+  }
+
+  /** 軸の層をテンプレートとしてキャッシュするかを指定する。デフォルトはtrue */
+  public MkChart setCached(boolean cached) {
+    this.cached = cached;
+    return this;
+  }
+
+  /**
+   * グラフを描画したテンプレートを作成する
+   * @param contentByte テンプレートを作成するコンテントバイト
+   * @return テンプレート
+   */
+  public MkTemplate createTemplate(MkContentByte contentByte) {
+    MkTemplate template = contentByte.createTemplate(size);
+    setToContentByte(template, MkUnit.PT, 0, 0);
+    return template;
+  }
+
+  /**
+   * 指定位置を左上として描画する
+   * @param contentByte 対象コンテントバイト
+   * @param unit 位置の単位
+   * @param x 描画x位置
+   * @param y 描画y位置
+   */
+  public void setToContentByte(MkContentByte contentByte, MkUnit unit, float x, float y) {
+    setToContentByte(contentByte, new MkDimension(unit, x, y));
+  }
+
+  /**
+   * 指定位置を左上として描画する
+   * @param contentByte 対象コンテントバイト
+   * @param position 描画位置
+   */
+  public void setToContentByte(MkContentByte contentByte, MkDimension position) {
+    Layout layout = new Layout(contentByte.getContext().getBaseFont().getITextBaseFont());
+    if (axis || layout.grid > 0) {
+      String key = cached? "chart:" + type + ":" + size.x.ptValue() + "x" + size.y.ptValue() + ":" + layout.lo + ":" + layout.hi + ":" +
+        layout.grid + ":" + axis + ":" + labelSize + ":" + labelFormat + ":" + layout.font.getPostscriptFontName() + ":" +
+        axisColor.getRGB() + ":" + gridColor.getRGB():null;
+      contentByte.drawCached(key, ()->size, position, layout::drawAxes);
+    }
+    MkPdfPosition pdfPos = contentByte.getGeometry().toPdfPosition(position.x, position.y.add(size.y));
+    if (type == Type.BAR) layout.drawBars(contentByte.writer(), pdfPos.x, pdfPos.y);
+    else layout.drawLines(contentByte.writer(), pdfPos.x, pdfPos.y);
+  }
+
+  /**
+   * 値の範囲と描画領域
+   */
+  class Layout {
+
+    final BaseFont font;
+
+    /** 値の範囲 */
+    double lo, hi;
+
+    /** 目盛線の間隔の数 */
+    int grid;
+
+    /** 目盛の値の書式化結果 */
+    String[]labels;
+
+    /** グラフ左下からのプロット領域 */
+    float left, bottom, width, height;
+
+    Layout(BaseFont font) {
+      this.font = font;
+      resolveRange();
+      float w = size.x.ptValue(), h = size.y.ptValue();
+      float labelWidth = 0;
+      if (labelSize > 0 && grid > 0) {
+        DecimalFormat format = new DecimalFormat(labelFormat);
+        labels = new String[grid + 1];
+        for (int i = 0; i <= grid; i++) {
+          labels[i] = format.format(lo + (hi - lo) * i / grid);
+          labelWidth = Math.max(labelWidth, font.getWidthPoint(labels[i], labelSize));
+        }
+        labelWidth += labelSize / 2;
+      }
+      float pad = labels != null? labelSize / 2:lineWidth / 2;
+      left = labelWidth;
+      bottom = pad;
+      width = Math.max(0, w - labelWidth - (type == Type.LINE? lineWidth / 2:0));
+      height = Math.max(0, h - pad * 2);
+    }
+
+    /** 値の範囲を求める。目盛線がある場合には切りの良い値に広げる */
+    private void resolveRange() {
+      grid = gridLines;
+      if (!Double.isNaN(min)) {
+        lo = min;
+        hi = max;
+        return;
+      }
+      lo = Double.POSITIVE_INFINITY;
+      hi = Double.NEGATIVE_INFINITY;
+      for (double[]values: series) {
+        for (double v: values) {
+          if (Double.isNaN(v) || Double.isInfinite(v)) continue;
+          lo = Math.min(lo, v);
+          hi = Math.max(hi, v);
+        }
+      }
+      if (lo > hi) {
+        lo = 0;
+        hi = 1;
+      }
+      if (type == Type.BAR) {
+        lo = Math.min(lo, 0);
+        hi = Math.max(hi, 0);
+      }
+      if (lo == hi) {
+        double d = lo == 0? 1:Math.abs(lo) / 2;
+        lo -= d;
+        hi += d;
+      }
+      if (grid <= 0) return;
+      double step = niceStep((hi - lo) / grid);
+      while (true) {
+        double niceLo = Math.floor(lo / step) * step;
+        if (niceLo + step * grid >= hi) {
+          lo = niceLo;
+          hi = niceLo + step * grid;
+          return;
+        }
+        step = niceStep(step * 1.01);
+      }
+    }
+
+    /** 値をグラフ左下からのy座標に変換する。範囲外の値は範囲の端とする */
+    float valueY(double value) {
+      double ratio = (value - lo) / (hi - lo);
+      return bottom + height * (float)Math.max(0, Math.min(1, ratio));
+    }
+
+    /** 軸、目盛線、目盛ラベルを描画する */
+    void drawAxes(MkContentWriter writer, float x, float y) {
+      float x0 = x + left, x1 = x0 + width;
+      if (grid > 0) {
+        writer.setColorStroke(gridColor);
+        writer.setLineWidth(0.25f);
+        for (int i = axis? 1:0; i <= grid; i++) {
+          float gy = y + bottom + height * i / grid;
+          writer.moveTo(x0, gy);
+          writer.lineTo(x1, gy);
+        }
+        writer.stroke();
+      }
+      if (axis) {
+        float axisY = y + valueY(Math.max(lo, Math.min(hi, 0)));
+        writer.setColorStroke(axisColor);
+        writer.setLineWidth(0.5f);
+        writer.moveTo(x0, y + bottom + height);
+        writer.lineTo(x0, y + bottom);
+        writer.moveTo(x0, axisY);
+        writer.lineTo(x1, axisY);
+        writer.stroke();
+      }
+      if (labels != null) {
+        writer.setColorFill(axisColor);
+        writer.setFontAndSize(font, labelSize);
+        writer.beginText();
+        for (int i = 0; i <= grid; i++) {
+          float gy = y + bottom + height * i / grid;
+          writer.showTextAligned(Element.ALIGN_RIGHT, labels[i], x0 - labelSize / 4, gy - labelSize * 0.35f);
+        }
+        writer.endText();
+      }
+    }
+
+    /** 折れ線を描画する */
+    void drawLines(MkContentWriter writer, float x, float y) {
+      writer.setLineWidth(lineWidth);
+      for (int s = 0; s < series.size(); s++) {
+        double[]values = series.get(s);
+        int n = values.length;
+        if (n == 0) continue;
+        writer.setColorStroke(colors.get(s));
+        // 孤立した点も見えるよう、長さ0の線とするため、直前の点を保持する
+        boolean drawing = false, any = false, single = false;
+        float lastX = 0, lastY = 0;
+        for (int i = 0; i < n; i++) {
+          if (Double.isNaN(values[i])) {
+            if (single) writer.lineTo(lastX, lastY);
+            drawing = single = false;
+            continue;
+          }
+          lastX = x + left + (n == 1? width / 2:width * i / (n - 1));
+          lastY = y + valueY(values[i]);
+          if (drawing) {
+            writer.lineTo(lastX, lastY);
+            single = false;
+          } else {
+            writer.moveTo(lastX, lastY);
+            drawing = single = any = true;
+          }
+        }
+        if (single) writer.lineTo(lastX, lastY);
+        if (any) writer.stroke();
+      }
+    }
+
+    /** 棒を描画する。一つの系列の棒は一度に塗りつぶされる */
+    void drawBars(MkContentWriter writer, float x, float y) {
+      int categories = 0;
+      for (double[]values: series) categories = Math.max(categories, values.length);
+      if (categories == 0) return;
+      float slot = width / categories;
+      float barWidth = slot * (1 - barGap) / series.size();
+      float base = y + valueY(Math.max(lo, Math.min(hi, 0)));
+      for (int s = 0; s < series.size(); s++) {
+        double[]values = series.get(s);
+        boolean any = false;
+        for (int i = 0; i < values.length; i++) {
+          if (Double.isNaN(values[i])) continue;
+          float top = y + valueY(values[i]);
+          float bx = x + left + slot * i + slot * barGap / 2 + barWidth * s;
+          if (!any) writer.setColorFill(colors.get(s));
+          writer.rectangle(bx, Math.min(base, top), barWidth, Math.abs(top - base));
+          any = true;
+        }
+        if (any) writer.fill();
+      }
+    }
+  }
+
+  /** x以上の1, 2, 2.5, 5の10のべき乗倍の値を求める */
+  static double niceStep(double x) {
+    double exp = Math.pow(10, Math.floor(Math.log10(x)));
+    double f = x / exp;
+    if (f <= 1) return exp;
+    if (f <= 2) return 2 * exp;
+    if (f <= 2.5) return 2.5 * exp;
+    if (f <= 5) return 5 * exp;
+    return 10 * exp;
+  }
+}
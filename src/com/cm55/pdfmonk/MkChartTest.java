@@ -0,0 +1,153 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.itextpdf.text.io.RandomAccessSourceFactory;
+import com.itextpdf.text.pdf.*;
+
+public class MkChartTest {
+
+  private static final MkContext ctx = MkContext.getDefault();
+
+  /** マージンの無い100pt四方のページ */
+  private static final MkGeometry GEOMETRY = new MkGeometry(new MkDimension(MkUnit.PT, 100, 100), MkInsets.ZERO);
+
+  /** パスの構築と描画の演算子 */
+  private static final Set<String>PATH_OPERATORS = new HashSet<>(Arrays.asList("m", "l", "re", "f", "S"));
+
+  private static MkChart.Layout layout(MkChart chart) {
+    return chart.new Layout(ctx.getBaseFont().getITextBaseFont());
+  }
+
+  /** 一ページのPDFに描画し、そのPDFを取得する */
+  private static byte[] pdf(Consumer<MkCanvas>drawer) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MkDocument doc = new MkDocument(ctx, GEOMETRY, out);
+    drawer.accept(doc.getCanvasOver());
+    doc.close();
+    return out.toByteArray();
+  }
+
+  /** 軸、目盛線、ラベルの無い100pt四方のグラフをページ全体に描画し、パスの演算子を取得する */
+  private static List<String>draw(MkChart chart) throws IOException {
+    chart.setSize(MkUnit.PT, 100, 100).setGridLines(0).setAxis(false).setLabelSize(0);
+    PdfReader reader = new PdfReader(pdf(canvas->chart.setToContentByte(canvas, MkUnit.PT, 0, 0)));
+    try {
+      return operators(reader.getPageContent(1));
+    } finally {
+      reader.close();
+    }
+  }
+
+  /** コンテンツ中のパスの演算子を、小数点以下一桁に丸めたオペランドとともに一つずつ文字列化する */
+  private static List<String>operators(byte[]content) throws IOException {
+    PRTokeniser tokeniser = new PRTokeniser(new RandomAccessFileOrArray(new RandomAccessSourceFactory().createSource(content)));
+    List<String>result = new ArrayList<>();
+    StringBuilder operands = new StringBuilder();
+    while (tokeniser.nextToken()) {
+      if (tokeniser.getTokenType() == PRTokeniser.TokenType.NUMBER) {
+        operands.append(String.format("%.1f ", Float.parseFloat(tokeniser.getStringValue())));
+        continue;
+      }
+      if (tokeniser.getTokenType() != PRTokeniser.TokenType.OTHER) continue;
+      String operator = tokeniser.getStringValue();
+      if (PATH_OPERATORS.contains(operator)) result.add(operands + operator);
+      operands.setLength(0);
+    }
+    return result;
+  }
+
+  /** 1, 2, 2.5, 5の10のべき乗倍に切り上げられる */
+  @Test
+  public void niceStep() {
+    assertEquals(1, MkChart.niceStep(0.7), 1e-9);
+    assertEquals(1, MkChart.niceStep(1), 1e-9);
+    assertEquals(2, MkChart.niceStep(1.5), 1e-9);
+    assertEquals(2.5, MkChart.niceStep(2.2), 1e-9);
+    assertEquals(5, MkChart.niceStep(3), 1e-9);
+    assertEquals(10, MkChart.niceStep(7), 1e-9);
+    assertEquals(25, MkChart.niceStep(24.25), 1e-9);
+    assertEquals(0.05, MkChart.niceStep(0.042), 1e-9);
+  }
+
+  /** 目盛線がある場合、範囲は目盛線の間隔が切りの良い値となるよう広げられる */
+  @Test
+  public void range() {
+    assertRange(layout(MkChart.line(new double[] { 0, 40, 97 })), 0, 100, 4);
+    assertRange(layout(MkChart.line(new double[] { 3, 97 })), 0, 100, 4);
+    assertRange(layout(MkChart.line(new double[] { -3, 7 })), -5, 15, 4);
+    assertRange(layout(MkChart.line(new double[] { 0, 97 }).setGridLines(5)), 0, 100, 5);
+    // 目盛線が無ければそのまま
+    assertRange(layout(MkChart.line(new double[] { 3, 97 }).setGridLines(0)), 3, 97, 0);
+    // 指定された範囲はそのまま
+    assertRange(layout(MkChart.line(new double[] { 3, 97 }).setRange(-1, 1)), -1, 1, 4);
+    // 一つの値のみ、値が無い場合
+    assertRange(layout(MkChart.line(new double[] { 5 }).setGridLines(0)), 2.5, 7.5, 0);
+    assertRange(layout(MkChart.line(new double[] { Double.NaN }).setGridLines(0)), 0, 1, 0);
+  }
+
+  private static void assertRange(MkChart.Layout layout, double lo, double hi, int grid) {
+    assertEquals(lo, layout.lo, 1e-9);
+    assertEquals(hi, layout.hi, 1e-9);
+    assertEquals(grid, layout.grid);
+  }
+
+  /** 棒グラフの範囲は常に0を含み、棒は0の位置から上下に伸びる */
+  @Test
+  public void barBaseline() throws IOException {
+    assertRange(layout(MkChart.bar(new double[] { 30, 97 })), 0, 100, 4);
+    assertRange(layout(MkChart.bar(new double[] { -30, -97 })), -100, 0, 4);
+
+    // 範囲は-2から4、プロット領域は下端0.5、高さ99
+    List<String>ops = draw(MkChart.bar(new double[] { 4, -2 }).setBarGap(0));
+    assertEquals(Arrays.asList("0.0 33.5 50.0 66.0 re", "50.0 0.5 50.0 33.0 re", "f"), ops);
+  }
+
+  /** 折れ線はNaNで途切れ、孤立した点は長さ0の線となる */
+  @Test
+  public void lineGaps() throws IOException {
+    // 範囲は1から4、プロット領域は左端0、幅99.5、下端0.5、高さ99
+    List<String>ops = draw(MkChart.line(new double[] { 1, Double.NaN, 2, 3, Double.NaN, 4 }));
+    assertEquals(Arrays.asList(
+      "0.0 0.5 m", "0.0 0.5 l",
+      "39.8 33.5 m", "59.7 66.5 l",
+      "99.5 99.5 m", "99.5 99.5 l",
+      "S"), ops);
+  }
+
+  /** 一つの値のみの折れ線は、中央の点となる */
+  @Test
+  public void singlePoint() throws IOException {
+    assertEquals(Arrays.asList("49.8 50.0 m", "49.8 50.0 l", "S"), draw(MkChart.line(new double[] { 5 })));
+  }
+
+  /** 系列が異なっても、目盛を含めた範囲が同じであれば、軸の層は一つのテンプレートとなる */
+  @Test
+  public void axisCache() throws IOException {
+    byte[]same = pdf(canvas-> {
+      MkChart.line(new double[] { 0, 97 }).setToContentByte(canvas, MkUnit.MM, 0, 0);
+      MkChart.line(new double[] { 10, 88, 40 }).setToContentByte(canvas, MkUnit.MM, 0, 50);
+    });
+    assertEquals(1, xobjects(same));
+    byte[]different = pdf(canvas-> {
+      MkChart.line(new double[] { 0, 97 }).setToContentByte(canvas, MkUnit.MM, 0, 0);
+      MkChart.line(new double[] { 0, 170 }).setToContentByte(canvas, MkUnit.MM, 0, 50);
+    });
+    assertEquals(2, xobjects(different));
+  }
+
+  /** 最初のページのXObjectの数 */
+  private static int xobjects(byte[]pdf) throws IOException {
+    PdfReader reader = new PdfReader(pdf);
+    try {
+      return reader.getPageN(1).getAsDict(PdfName.RESOURCES).getAsDict(PdfName.XOBJECT).size();
+    } finally {
+      reader.close();
+    }
+  }
+}
@@ -31,10 +31,12 @@ public class MkColumnText {
 
   private static final boolean DEBUG = false;
 
+  private final MkContentByte contentByte;
   private final MkGeometry geometry;
   private final ColumnText columnText;
 
   public MkColumnText(MkContentByte contentByte) {
+    this.contentByte = contentByte;
     this.geometry = contentByte.getGeometry();
     columnText = new ColumnText(contentByte.getITextContentByte());
   }
@@ -66,6 +68,8 @@ public class MkColumnText {
     }
 
     try {
+      // ColumnTextは元のコンテントバイトの状態を前提とするので、状態を追跡するグループを終了しておく
+      contentByte.getITextContentByte();
       int r = columnText.go();
       if (DEBUG)
         System.out.println("go " + r);
@@ -2,8 +2,13 @@ package com.cm55.pdfmonk;
 
 import java.awt.*;
 import java.awt.geom.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
 
 import com.itextpdf.awt.*;
+import com.itextpdf.text.BaseColor;
 import com.itextpdf.text.pdf.*;
 
 /**
@@ -22,18 +27,77 @@ import com.itextpdf.text.pdf.*;
  */
 public class MkContentByte {
 
+  /**
+   * PDF上の座標で直接描画する関数
+   */
+  @FunctionalInterface
+  interface PdfDrawer {
+    /**
+     * 描画する
+     * @param writer 出力
+     * @param x 描画領域左下のPDF上のx座標
+     * @param y 描画領域左下のPDF上のy座標
+     */
+    void draw(MkContentWriter writer, float x, float y);
+  }
+
   private MkContext ctx;
   
-  /** itextのPDFコンテンツバイト */
+  /** itextのPDFコンテンツバイト。{@link MkDisplayList}の記録中はnull */
   private final PdfContentByte pcb;
 
   /** このコンテンツバイトのジオメトリ */
   private final MkGeometry geometry;
 
+  /** グラフィックス状態を追跡する出力 */
+  private final MkContentWriter writer;
+
+  /** 直接描画で用いる線幅（ポイント）。NaNの場合は指定無し */
+  private float lineWidth = Float.NaN;
+
+  /** 直接描画で用いる線の色。nullの場合は指定無し */
+  private BaseColor strokeColor;
+
+  /** 直接描画で用いる塗りつぶしの色。nullの場合は指定無し */
+  private BaseColor fillColor;
+
+  /**
+   * 作成されたテンプレートのうち、まだ出力されていないもの。作成元と、そこから作成されたテンプレートで共有する。
+   * テンプレートには置いた後にも描画できるので、PDFのクローズ前にそれぞれのグループを終了する必要がある。最初に必要になったときに作成される
+   */
+  private Set<MkTemplate>templates;
+
+  /** {@link #templateCache}に保持する最大数 */
+  static final int TEMPLATE_CACHE_SIZE = 1000;
+
+  /**
+   * キャッシュされたテンプレート。同じPDFに出力するコンテントバイトで共有する。最初に必要になったときに作成される。
+   * 最も長く使われていないものが先頭であり、{@link #TEMPLATE_CACHE_SIZE}を超えると破棄される
+   */
+  private Map<String, MkTemplate>templateCache;
+
+  /** 取込元の外部PDFのリーダ。テンプレートのキャッシュと共に共有する。最初に必要になったときに作成される */
+  private Map<String, PdfReader>readerCache;
+
   MkContentByte(MkContext ctx, PdfContentByte pcb,  MkGeometry geometry) {
     this.ctx = ctx;
     this.pcb = pcb;
     this.geometry = geometry;
+    this.writer = new MkContentWriter(pcb);
+  }
+
+  /** {@link MkDisplayList}の記録用。描画は指定された出力に記録される */
+  MkContentByte(MkContext ctx, MkContentWriter writer, MkGeometry geometry) {
+    this.ctx = ctx;
+    this.pcb = null;
+    this.geometry = geometry;
+    this.writer = writer;
+  }
+
+  /** itextのPDFコンテンツバイトを取得する。記録中は使用できない */
+  private PdfContentByte pcb() {
+    if (pcb == null) throw new MkException("not supported while recording a display list");
+    return pcb;
   }
 
   /** ジオメトリを取得する */
@@ -66,7 +130,172 @@ public class MkContentByte {
    * @return テンプレート
    */
   public MkTemplate createTemplate(MkDimension size) {
-    return new MkTemplate(ctx, pcb.createTemplate(size.x.ptValue(), size.y.ptValue()), size);
+    MkTemplate template = new MkTemplate(ctx, pcb().createTemplate(size.x.ptValue(), size.y.ptValue()), size);
+    template.shareTemplates(this);
+    template.shareTemplateCache(this);
+    templates().add(template);
+    return template;
+  }
+
+  /** 未出力のテンプレートの集合を取得する */
+  private Set<MkTemplate>templates() {
+    if (templates == null) templates = new HashSet<>();
+    return templates;
+  }
+
+  /** 未出力のテンプレートの集合を、別のコンテントバイトと共有する */
+  void shareTemplates(MkContentByte that) {
+    this.templates = that.templates();
+  }
+
+  /** このコンテントバイトを元に作成された、未出力のテンプレートの描画内容のバイト数の合計を取得する */
+  long unwrittenTemplateBytes() {
+    if (templates == null) return 0;
+    long bytes = 0;
+    for (MkTemplate template: templates) bytes += template.getITextContentByte().getInternalBuffer().size();
+    return bytes;
+  }
+
+  /**
+   * このコンテントバイトを元に作成された、未出力のテンプレートのグループを終了する。
+   * PDFのクローズ前に呼び出す。{@link MkDocument}、{@link MkStamper}等はこれを行う
+   */
+  void closeTemplates() {
+    if (templates == null) return;
+    templates.forEach(template->template.writer().close());
+  }
+
+  /**
+   * このテンプレートは出力された。以降はグループを終了する必要が無く、置く際には参照のみが用いられるので内容を破棄する
+   */
+  void templateWritten() {
+    if (templates != null) templates.remove(this);
+    pcb().reset(false);
+  }
+
+  /**
+   * 取込元のリーダをクローズする。取り込んだページの内容はPDFのクローズ時に取込元から読み込まれるので、PDFのクローズ後に呼び出す。
+   * {@link MkDocument}、{@link MkStamper}等はこれを行う
+   */
+  void closeReaders() {
+    if (readerCache == null) return;
+    readerCache.values().forEach(PdfReader::close);
+    readerCache.clear();
+  }
+
+  /** テンプレートのキャッシュを取得する */
+  private Map<String, MkTemplate>templateCache() {
+    if (templateCache == null) templateCache = new LinkedHashMap<String, MkTemplate>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, MkTemplate>eldest) {
+        return size() > TEMPLATE_CACHE_SIZE;
+      }
+    };
+    return templateCache;
+  }
+
+  /** 取込元のリーダのキャッシュを取得する */
+  private Map<String, PdfReader>readerCache() {
+    if (readerCache == null) readerCache = new HashMap<>();
+    return readerCache;
+  }
+
+  /** 同じPDFに出力する別のコンテントバイトとテンプレート、取込元のキャッシュを共有する */
+  void shareTemplateCache(MkContentByte that) {
+    this.templateCache = that.templateCache();
+    this.readerCache = that.readerCache();
+  }
+
+  /**
+   * 外部PDFのページを取り込む。取込元は同じPDFにつき一度だけ開かれ、同じページは一度だけ取り込まれる。
+   * 取り込んだページは、PDFのクローズ時に一度だけ出力される。
+   * @param sourceKey 取込元を一意に表すキー
+   * @param opener 取込元のリーダを作成する関数
+   * @param pageNumber ページ番号
+   * @return 取り込んだページ
+   */
+  PdfImportedPage importPage(String sourceKey, Callable<PdfReader>opener, int pageNumber) {
+    return (PdfImportedPage)importTemplate("importedPage", sourceKey, opener, pageNumber).getITextContentByte();
+  }
+
+  /**
+   * 外部PDFのページを取り込み、テンプレートとして取得する。{@link #importPage(String, Callable, int)}を参照のこと。
+   * 取り込んだテンプレートはこのPDFのキャッシュにのみ保持されるので、PDFと共に破棄される。
+   * @param cacheName キャッシュの参照を{@link MkRenderListener#cacheAccess(String, boolean)}に通知する際の名称
+   * @param sourceKey 取込元を一意に表すキー
+   * @param opener 取込元のリーダを作成する関数
+   * @param pageNumber ページ番号
+   * @return 取り込んだページのテンプレート
+   */
+  MkTemplate importTemplate(String cacheName, String sourceKey, Callable<PdfReader>opener, int pageNumber) {
+    String key = "page:" + sourceKey + ":" + pageNumber;
+    Map<String, MkTemplate>cache = templateCache();
+    MkTemplate template = cache.get(key);
+    MkRenderListener listener = ctx.getRenderListener();
+    if (listener != null) listener.cacheAccess(cacheName, template != null);
+    if (template != null) return template;
+    PdfWriter pdfWriter = pcb().getPdfWriter();
+    PdfReader reader = readerCache().get(sourceKey);
+    try {
+      if (reader == null) {
+        reader = opener.call();
+        readerCache.put(sourceKey, reader);
+      }
+    } catch (Exception ex) {
+      throw new MkException(ex);
+    }
+    PdfImportedPage page = pdfWriter.getImportedPage(reader, pageNumber);
+    template = new MkTemplate(ctx, page, new MkDimension(MkUnit.PT, page.getWidth(), page.getHeight()));
+    cache.put(key, template);
+    return template;
+  }
+
+  /**
+   * 同じキーの描画内容を、同じPDFにつき一度だけテンプレートとして作成し、指定位置に置く。
+   * 作成されたテンプレートは最初に置いた時点で出力され、以降は参照のみとなる。
+   * {@link MkDisplayList}の記録中、あるいはキーがnullの場合は、テンプレートを作成せずに直接描画する。
+   * @param key キャッシュのキー。描画内容を一意に表すもの
+   * @param size 描画内容の大きさ。テンプレートが再利用される場合は呼び出されない
+   * @param position 描画位置（左上）
+   * @param drawer 描画関数
+   */
+  void drawCached(String key, Supplier<MkDimension>size, MkDimension position, PdfDrawer drawer) {
+    if (pcb == null || key == null) {
+      MkPdfPosition pdfPos = geometry.toPdfPosition(position.x, position.y.add(size.get().y));
+      drawer.draw(writer, pdfPos.x, pdfPos.y);
+      return;
+    }
+    Map<String, MkTemplate>cache = templateCache();
+    MkTemplate template = cache.get(key);
+    MkRenderListener listener = ctx.getRenderListener();
+    if (listener != null) listener.cacheAccess("template", template != null);
+    if (template != null) {
+      MkPdfPosition pdfPos = geometry.toPdfPosition(position.x, position.y.add(template.getGeometry().size.y));
+      pcb.addTemplate(template.getITextContentByte(), pdfPos.x, pdfPos.y);
+      return;
+    }
+    template = createTemplate(size.get());
+    MkPdfPosition pdfPos = geometry.toPdfPosition(position.x, position.y.add(template.getGeometry().size.y));
+    drawer.draw(template.writer(), 0, 0);
+    pcb.addTemplate(template.getITextContentByte(), pdfPos.x, pdfPos.y);
+    releaseTemplate(template);
+    cache.put(key, template);
+  }
+
+  /**
+   * 描画の終了したテンプレートを即座に出力する。一度置かれたものでなければならない。
+   * 出力されなかった場合は、PDFのクローズ時に出力される
+   */
+  void releaseTemplate(MkTemplate template) {
+    PdfWriter pdfWriter = pcb().getPdfWriter();
+    long before = pdfWriter.getOs().getCounter();
+    try {
+      pdfWriter.releaseTemplate(template.getITextContentByte());
+    } catch (IOException ex) {
+      throw new MkException(ex);
+    }
+    if (pdfWriter.getOs().getCounter() == before) return;
+    template.templateWritten();
   }
 
   /** 
@@ -91,7 +320,7 @@ public class MkContentByte {
     MkLen x = position.x;
     MkLen y = position.y.add(template.getGeometry().size.y);
     MkPdfPosition pdfPos = getGeometry().toPdfPosition(x, y);
-    pcb.addTemplate(template.getITextContentByte(), pdfPos.x, pdfPos.y);
+    pcb().addTemplate(template.getITextContentByte(), pdfPos.x, pdfPos.y);
   }
 
   /** 
@@ -117,7 +346,8 @@ public class MkContentByte {
      * 用紙中の任意の場所の任意のサイズという指定がPdfGraphics2Dのコンストラクタに存在しない。
      * これを行うには、作成したGraphics2Dに対して、クリッピングとアフィン変換を行う必要があると思われる。
      */
-    Graphics2D g2d = new PdfGraphics2D(pcb, paperSize.x.ptValue(), paperSize.y.ptValue());
+    writer.close();
+    Graphics2D g2d = new PdfGraphics2D(pcb(), paperSize.x.ptValue(), paperSize.y.ptValue());
 
     // アフィン変換を設定する
     // アフィン変換を作成
@@ -131,9 +361,176 @@ public class MkContentByte {
 
     return g2d;
   }
+
+  // 以下は直接描画。Graphics2Dを経由せずに、PDFのパス演算子を直接出力する。座標は指定された単位で、印刷領域左上を原点とする。
+  // 線幅と色は描画時まで保持され、コンテンツに出力済の値と異なる場合のみ出力される。指定の無い場合は、そのときのPDFの状態が用いられる。
+
+  /** 直接描画の線幅を指定する */
+  public MkContentByte setLineWidth(MkUnit unit, float width) {
+    lineWidth = width * unit.scalingTo(MkUnit.PT);
+    return this;
+  }
+
+  /** 直接描画の線幅を指定する */
+  public MkContentByte setLineWidth(MkLen width) {
+    lineWidth = width.ptValue();
+    return this;
+  }
+
+  /** 直接描画の線の色を指定する */
+  public MkContentByte setStrokeColor(MkColor color) {
+    strokeColor = color.getBaseColor();
+    return this;
+  }
+
+  /** 直接描画の塗りつぶしの色を指定する */
+  public MkContentByte setFillColor(MkColor color) {
+    fillColor = color.getBaseColor();
+    return this;
+  }
+
+  /**
+   * 直接描画とテキストブロックで出力する座標・線幅の小数点以下の桁数を指定する。
+   * 例えば1を指定すると、0.1ポイント単位に丸められ、コンテンツが小さくなる。デフォルトは丸めない
+   * @param decimals 小数点以下の桁数。負の値の場合は丸めない
+   * @return このオブジェクト
+   */
+  public MkContentByte setPrecision(int decimals) {
+    writer.setPrecision(decimals);
+    return this;
+  }
+
+  /** 直線を描画する */
+  public MkContentByte drawLine(MkUnit unit, float x1, float y1, float x2, float y2) {
+    float scale = unit.scalingTo(MkUnit.PT);
+    applyStroke();
+    writer.moveTo(pdfX(x1 * scale), pdfY(y1 * scale));
+    writer.lineTo(pdfX(x2 * scale), pdfY(y2 * scale));
+    writer.stroke();
+    return this;
+  }
+
+  /** 左上位置と大きさを指定して矩形の枠を描画する */
+  public MkContentByte drawRect(MkUnit unit, float x, float y, float width, float height) {
+    applyStroke();
+    rectangle(unit, x, y, width, height);
+    writer.stroke();
+    return this;
+  }
+
+  /** 左上位置と大きさを指定して矩形を塗りつぶす */
+  public MkContentByte fillRect(MkUnit unit, float x, float y, float width, float height) {
+    applyFill();
+    rectangle(unit, x, y, width, height);
+    writer.fill();
+    return this;
+  }
+
+  private void rectangle(MkUnit unit, float x, float y, float width, float height) {
+    float scale = unit.scalingTo(MkUnit.PT);
+    writer.rectangle(pdfX(x * scale), pdfY((y + height) * scale), width * scale, height * scale);
+  }
+
+  /** 左上位置と大きさ、角の半径を指定して角丸矩形の枠を描画する */
+  public MkContentByte drawRoundRect(MkUnit unit, float x, float y, float width, float height, float radius) {
+    applyStroke();
+    roundRectangle(unit, x, y, width, height, radius);
+    writer.stroke();
+    return this;
+  }
+
+  /** 左上位置と大きさ、角の半径を指定して角丸矩形を塗りつぶす */
+  public MkContentByte fillRoundRect(MkUnit unit, float x, float y, float width, float height, float radius) {
+    applyFill();
+    roundRectangle(unit, x, y, width, height, radius);
+    writer.fill();
+    return this;
+  }
+
+  private void roundRectangle(MkUnit unit, float x, float y, float width, float height, float radius) {
+    float scale = unit.scalingTo(MkUnit.PT);
+    writer.roundRectangle(pdfX(x * scale), pdfY((y + height) * scale), width * scale, height * scale, radius * scale);
+  }
+
+  /**
+   * 折れ線を描画する
+   * @param unit 座標の単位
+   * @param xy x, yの順に並べた頂点の座標。二点以上
+   */
+  public MkContentByte drawPolyline(MkUnit unit, float...xy) {
+    if (xy.length < 4 || xy.length % 2 != 0) throw new MkException("polyline requires x,y pairs of two or more points");
+    float scale = unit.scalingTo(MkUnit.PT);
+    applyStroke();
+    writer.moveTo(pdfX(xy[0] * scale), pdfY(xy[1] * scale));
+    for (int i = 2; i < xy.length; i += 2) writer.lineTo(pdfX(xy[i] * scale), pdfY(xy[i + 1] * scale));
+    writer.stroke();
+    return this;
+  }
+
+  /** パスの線を描画する */
+  public MkContentByte drawPath(MkPath path) {
+    if (path.isEmpty()) return this;
+    applyStroke();
+    path.appendTo(writer, geometry);
+    writer.stroke();
+    return this;
+  }
+
+  /** パスを塗りつぶす */
+  public MkContentByte fillPath(MkPath path) {
+    if (path.isEmpty()) return this;
+    applyFill();
+    path.appendTo(writer, geometry);
+    writer.fill();
+    return this;
+  }
+
+  /** パスを塗りつぶし、その線を描画する */
+  public MkContentByte fillAndDrawPath(MkPath path) {
+    if (path.isEmpty()) return this;
+    applyFill();
+    applyStroke();
+    path.appendTo(writer, geometry);
+    writer.fillStroke();
+    return this;
+  }
+
+  /** 印刷領域左端からのポイント値をPDF上のx座標にする */
+  private float pdfX(float x) {
+    return geometry.margins.left.ptValue() + x;
+  }
+
+  /** 印刷領域上端からのポイント値をPDF上のy座標にする */
+  private float pdfY(float y) {
+    return geometry.size.y.ptValue() - geometry.margins.top.ptValue() - y;
+  }
+
+  /** 線幅と線の色を出力する */
+  private void applyStroke() {
+    if (Float.isNaN(lineWidth)) writer.inheritLineWidth();
+    if (strokeColor == null) writer.inheritColorStroke();
+    if (!Float.isNaN(lineWidth)) writer.setLineWidth(lineWidth);
+    if (strokeColor != null) writer.setColorStroke(strokeColor);
+  }
+
+  /** 塗りつぶしの色を出力する */
+  private void applyFill() {
+    if (fillColor == null) writer.inheritColorFill();
+    else writer.setColorFill(fillColor);
+  }
+
+  /** グラフィックス状態を追跡する出力を取得する */
+  MkContentWriter writer() {
+    return writer;
+  }
   
-  /** itextのコンテンツバイトオブジェクトを取得する */
+  /** 
+   * itextのコンテンツバイトオブジェクトを取得する。
+   * 呼び出し側がグラフィックス状態に依存した出力を行うことがあるため、{@link MkContentWriter}のグループはここで終了する。
+   */
   public PdfContentByte getITextContentByte() {
+    PdfContentByte pcb = pcb();
+    writer.close();
     return pcb;
   }
 }
@@ -0,0 +1,108 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.util.function.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.itextpdf.text.pdf.*;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+
+public class MkContentByteTest {
+
+  /** 一ページのPDFを作成する */
+  private static byte[] pdf(MkContext ctx, Consumer<MkCanvas>drawer) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MkDocument doc = new MkDocument(ctx, MkGeometry.A4_PORTRAIT, out);
+    drawer.accept(doc.getCanvasOver());
+    doc.close();
+    return out.toByteArray();
+  }
+
+  /** 最初のページのXObjectの数 */
+  private static int xobjects(byte[]pdf) throws IOException {
+    PdfReader reader = new PdfReader(pdf);
+    try {
+      return reader.getPageN(1).getAsDict(PdfName.RESOURCES).getAsDict(PdfName.XOBJECT).size();
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static String code(int i) {
+    return String.format("C%04d", i);
+  }
+
+  /** 同じバーコードを二度置くと、二度目はキャッシュされたテンプレートの参照となる */
+  @Test
+  public void hit() throws IOException {
+    MkRenderStats stats = new MkRenderStats();
+    MkContext ctx = MkContext.getDefault().duplicate().setRenderListener(stats);
+    byte[]pdf = pdf(ctx, canvas-> {
+      new MkBarcode128("12345").setToContentByte(canvas, MkUnit.MM, 10, 10);
+      new MkBarcode128("12345").setToContentByte(canvas, MkUnit.MM, 10, 40);
+    });
+    assertEquals(1, xobjects(pdf));
+    assertEquals(0.5, stats.getHitRate("template"), 1e-9);
+  }
+
+  /** キャッシュの上限を超えると、最も長く使われていないものが破棄され、再度置くと新たなテンプレートとなる */
+  @Test
+  public void eviction() throws IOException {
+    int size = MkContentByte.TEMPLATE_CACHE_SIZE;
+    byte[]pdf = pdf(MkContext.getDefault(), canvas-> {
+      for (int i = 0; i < size; i++) new MkBarcode128(code(i)).setToContentByte(canvas, MkUnit.MM, 0, 0);
+      // 最初のものを使用してから追加すると、二番目のものが破棄される
+      new MkBarcode128(code(0)).setToContentByte(canvas, MkUnit.MM, 0, 0);
+      new MkBarcode128(code(size)).setToContentByte(canvas, MkUnit.MM, 0, 0);
+      new MkBarcode128(code(0)).setToContentByte(canvas, MkUnit.MM, 0, 0);
+      new MkBarcode128(code(1)).setToContentByte(canvas, MkUnit.MM, 0, 0);
+    });
+    assertEquals(size + 2, xobjects(pdf));
+  }
+
+  /** 出力されたテンプレートは、描画内容を破棄し、未出力の集合から除かれるが、置いたものは出力に残る */
+  @Test
+  public void writtenTemplateReset() throws IOException {
+    MkContext ctx = MkContext.getDefault();
+    MkTemplate[]templates = new MkTemplate[1];
+    byte[]pdf = pdf(ctx, canvas-> {
+      MkTemplate template = canvas.createTemplate(MkUnit.MM, 50, 20);
+      new MkTextBlock(ctx, "template").setToContentByte(template, MkUnit.MM, 0, 0);
+      canvas.setTemplate(template, MkUnit.MM, 10, 10);
+      assertTrue(template.getITextContentByte().getInternalBuffer().size() > 0);
+      canvas.releaseTemplate(template);
+      assertEquals(0, template.getITextContentByte().getInternalBuffer().size());
+      templates[0] = template;
+    });
+    assertEquals(0, templates[0].getITextContentByte().getInternalBuffer().size());
+    PdfReader reader = new PdfReader(pdf);
+    try {
+      assertTrue(PdfTextExtractor.getTextFromPage(reader, 1).contains("template"));
+    } finally {
+      reader.close();
+    }
+  }
+
+  /** ストリーミングモードでは、テンプレートから作成されたテンプレートも、出力されるまで保持量として数えられる */
+  @Test
+  public void nestedTemplateRetained() {
+    MkContext ctx = MkContext.getDefault();
+    MkDocument doc = new MkDocument(ctx, MkGeometry.A4_PORTRAIT, new ByteArrayOutputStream()).setStreaming(1024 * 1024);
+    MkTemplate outer = doc.getCanvasOver().createTemplate(MkUnit.MM, 50, 20);
+    MkTemplate inner = outer.createTemplate(MkUnit.MM, 50, 20);
+    for (int i = 0; i < 100; i++) new MkTextBlock(ctx, "nested " + i).setToContentByte(inner, MkUnit.MM, 0, 0);
+    int bytes = inner.getITextContentByte().getInternalBuffer().size();
+    assertTrue(bytes > 1000);
+    new MkTextBlock(ctx, "page").setToContentByte(doc.getCanvasOver(), MkUnit.MM, 0, 0);
+    doc.newPage();
+    assertTrue(doc.getMemoryHighWater() >= bytes);
+
+    // 出力されれば数えられず、残るのは外側のテンプレートの描画内容のみ
+    outer.setTemplate(inner, MkUnit.MM, 0, 0);
+    outer.releaseTemplate(inner);
+    assertEquals(outer.getITextContentByte().getInternalBuffer().size(), doc.getCanvasOver().unwrittenTemplateBytes());
+    doc.close();
+  }
+}
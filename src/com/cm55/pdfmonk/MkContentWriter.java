@@ -0,0 +1,288 @@
+package com.cm55.pdfmonk;
+
+import com.itextpdf.text.*;
+import com.itextpdf.text.pdf.*;
+
+/**
+ * {@link MkContentByte}の保持するPDFコンテンツバイトへ、グラフィックス状態を追跡しながら出力する
+ * <p>
+ * フォントとサイズ、塗りつぶしの色、線の色、線幅について、コンテンツに出力済の値を保持し、値を変えない演算子を省略する。
+ * 状態の変更は、このオブジェクトが必要になった時点で開始するq〜Qのグループの中で行い、グループは{@link #close()}まで継続する。
+ * テキストブロックごとに行っていたq/Qもこのグループで共有されるので、連続するテキストブロックでは、q/Q、Tf、rg/RGが一度だけ出力される。
+ * </p>
+ * <p>
+ * グループの外側の状態は変更されない。したがって、PDFコンテンツバイトに直接出力する前、およびページの終了時には{@link #close()}を呼び出す必要がある。
+ * {@link MkContentByte#getITextContentByte()}はこれを行う。
+ * テンプレートは置いた後にも描画できるので、そのグループはPDFのクローズ前に{@link MkContentByte#closeTemplates()}で終了される。
+ * </p>
+ * <p>
+ * 省略した演算子の数とバイト数は集計され、ページごとに{@link MkRenderListener#contentOptimized(int, int, long)}で通知される。
+ * </p>
+ * <p>
+ * {@link MkDisplayList}の記録時には、出力の代わりに操作を記録する下位クラスが用いられる。
+ * </p>
+ * @author ysugimura
+ */
+class MkContentWriter {
+
+  /** q\nとQ\nのバイト数 */
+  private static final int GROUP_BYTES = 4;
+
+  /** 出力先 */
+  private final PdfContentByte pcb;
+
+  /** 数値を丸める際の倍率。0の場合は丸めない */
+  private float precision;
+
+  /** グループを開始しているか */
+  private boolean open;
+
+  /** グループ内で設定したフォント。nullの場合は未設定 */
+  private BaseFont font;
+  private float fontSize;
+
+  /** グループ内で設定した塗りつぶしの色。nullの場合は未設定 */
+  private BaseColor fillColor;
+
+  /** グループ内で設定した線の色。nullの場合は未設定 */
+  private BaseColor strokeColor;
+
+  /** グループ内で設定した線幅。NaNの場合は未設定 */
+  private float lineWidth = Float.NaN;
+
+  /** 最後に出力した各演算子のバイト数。省略したバイト数の計算に用いる */
+  private int fontBytes, fillBytes, strokeBytes, lineWidthBytes;
+
+  /** 省略した演算子の数 */
+  private int savedOperators;
+
+  /** 省略したバイト数 */
+  private long savedBytes;
+
+  MkContentWriter(PdfContentByte pcb) {
+    this.pcb = pcb;
+  }
+
+  /**
+   * 座標・線幅の小数点以下の桁数を指定する。負の値の場合は丸めない
+   * @param decimals 小数点以下の桁数
+   */
+  void setPrecision(int decimals) {
+    precision = decimals < 0? 0:(float)Math.pow(10, decimals);
+  }
+
+  /** 指定桁数に丸める */
+  float round(float value) {
+    if (precision == 0) return value;
+    return Math.round(value * precision) / precision;
+  }
+
+  /** グループを開始していなければ開始する */
+  private void open() {
+    if (open) return;
+    pcb.saveState();
+    open = true;
+  }
+
+  /** グループを開始していれば終了し、追跡している状態を未設定に戻す */
+  void close() {
+    if (!open) return;
+    pcb.restoreState();
+    open = false;
+    font = null;
+    fillColor = null;
+    strokeColor = null;
+    lineWidth = Float.NaN;
+  }
+
+  /**
+   * 状態を変更する一まとまりの描画を開始する。
+   * 以前はまとまりごとにq〜Qで囲んでいたが、既にグループが開始されていればそれを共有し、q/Qを省略する。
+   */
+  void beginGroup() {
+    if (open) {
+      savedOperators += 2;
+      savedBytes += GROUP_BYTES;
+      return;
+    }
+    open();
+  }
+
+  /** フォントとサイズを設定する */
+  void setFontAndSize(BaseFont font, float size) {
+    if (font == this.font && size == fontSize) {
+      skipped(fontBytes);
+      return;
+    }
+    open();
+    int start = size();
+    pcb.setFontAndSize(font, size);
+    fontBytes = size() - start;
+    this.font = font;
+    this.fontSize = size;
+  }
+
+  /** 塗りつぶしの色を設定する */
+  void setColorFill(BaseColor color) {
+    if (sameColor(color, fillColor)) {
+      skipped(fillBytes);
+      return;
+    }
+    open();
+    int start = size();
+    pcb.setColorFill(color);
+    fillBytes = size() - start;
+    fillColor = color;
+  }
+
+  /** 線の色を設定する */
+  void setColorStroke(BaseColor color) {
+    if (sameColor(color, strokeColor)) {
+      skipped(strokeBytes);
+      return;
+    }
+    open();
+    int start = size();
+    pcb.setColorStroke(color);
+    strokeBytes = size() - start;
+    strokeColor = color;
+  }
+
+  /** 線幅を設定する */
+  void setLineWidth(float width) {
+    width = round(width);
+    if (width == lineWidth) {
+      skipped(lineWidthBytes);
+      return;
+    }
+    open();
+    int start = size();
+    pcb.setLineWidth(width);
+    lineWidthBytes = size() - start;
+    lineWidth = width;
+  }
+
+  /** グループの外側の塗りつぶしの色を用いる。グループ内で変更していればグループを終了する */
+  void inheritColorFill() {
+    if (fillColor != null) close();
+  }
+
+  /** グループの外側の線の色を用いる。グループ内で変更していればグループを終了する */
+  void inheritColorStroke() {
+    if (strokeColor != null) close();
+  }
+
+  /** グループの外側の線幅を用いる。グループ内で変更していればグループを終了する */
+  void inheritLineWidth() {
+    if (!Float.isNaN(lineWidth)) close();
+  }
+
+  private static boolean sameColor(BaseColor a, BaseColor b) {
+    return b != null && a.getClass() == b.getClass() && a.equals(b);
+  }
+
+  private void skipped(int bytes) {
+    savedOperators++;
+    savedBytes += bytes;
+  }
+
+  private int size() {
+    return pcb.getInternalBuffer().size();
+  }
+
+  void moveTo(float x, float y) {
+    pcb.moveTo(round(x), round(y));
+  }
+
+  void lineTo(float x, float y) {
+    pcb.lineTo(round(x), round(y));
+  }
+
+  void curveTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+    pcb.curveTo(round(x1), round(y1), round(x2), round(y2), round(x3), round(y3));
+  }
+
+  void rectangle(float x, float y, float width, float height) {
+    pcb.rectangle(round(x), round(y), round(width), round(height));
+  }
+
+  void roundRectangle(float x, float y, float width, float height, float radius) {
+    pcb.roundRectangle(round(x), round(y), round(width), round(height), round(radius));
+  }
+
+  void closePath() {
+    pcb.closePath();
+  }
+
+  void stroke() {
+    pcb.stroke();
+  }
+
+  void fill() {
+    pcb.fill();
+  }
+
+  void fillStroke() {
+    pcb.fillStroke();
+  }
+
+  void beginText() {
+    pcb.beginText();
+  }
+
+  /** 一行のテキストを出力する。フォントは設定済であること */
+  void showTextAligned(int alignment, String text, float x, float y) {
+    pcb.showTextAligned(alignment, text, round(x), round(y), 0);
+  }
+
+  void endText() {
+    pcb.endText();
+  }
+
+  /**
+   * 絶対位置の設定された画像を出力する。画像はq〜Qの中に置かれ、グラフィックス状態を変更しないので、状態の追跡は継続する
+   */
+  void addImage(Image image) throws DocumentException {
+    pcb.addImage(image);
+  }
+
+  /** 変換行列を指定して画像を出力する */
+  void addImage(Image image, float a, float b, float c, float d, float e, float f) throws DocumentException {
+    pcb.addImage(image, a, b, c, d, round(e), round(f));
+  }
+
+  /** 変換行列を指定してテンプレートを出力する。テンプレートはq〜Qの中に置かれるので、状態の追跡は継続する */
+  void addTemplate(PdfTemplate template, float a, float b, float c, float d, float e, float f) {
+    pcb.addTemplate(template, a, b, c, d, round(e), round(f));
+  }
+
+  /** 省略した演算子の数を取得する */
+  int getSavedOperators() {
+    return savedOperators;
+  }
+
+  /** 省略したバイト数を取得する */
+  long getSavedBytes() {
+    return savedBytes;
+  }
+
+  /**
+   * ページの終了時に、各コンテンツのグループを終了し、省略した演算子の数とバイト数を合計してリスナに通知する。
+   * 集計は消去される。
+   * @param listener リスナ。nullの場合は通知しない
+   * @param pageNumber ページ番号
+   * @param writers そのページのコンテンツ
+   */
+  static void endPage(MkRenderListener listener, int pageNumber, MkContentWriter...writers) {
+    int operators = 0;
+    long bytes = 0;
+    for (MkContentWriter writer: writers) {
+      writer.close();
+      operators += writer.savedOperators;
+      bytes += writer.savedBytes;
+      writer.savedOperators = 0;
+      writer.savedBytes = 0;
+    }
+    if (listener != null) listener.contentOptimized(pageNumber, operators, bytes);
+  }
+}
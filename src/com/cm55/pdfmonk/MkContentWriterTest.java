@@ -0,0 +1,112 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.nio.file.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.itextpdf.text.io.RandomAccessSourceFactory;
+import com.itextpdf.text.pdf.*;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+
+public class MkContentWriterTest {
+
+  /** コンテンツ中の演算子の数を数える */
+  private static int count(byte[]content, String operator) throws IOException {
+    PRTokeniser tokeniser = new PRTokeniser(new RandomAccessFileOrArray(new RandomAccessSourceFactory().createSource(content)));
+    int count = 0;
+    while (tokeniser.nextToken()) {
+      if (tokeniser.getTokenType() == PRTokeniser.TokenType.OTHER && tokeniser.getStringValue().equals(operator)) count++;
+    }
+    return count;
+  }
+
+  /** 連続するテキストブロックでは、q/Q、フォント、色が一度だけ出力され、省略した数と描画要素数が通知される */
+  @Test
+  public void skipRedundantOperators() throws IOException {
+    MkRenderStats stats = new MkRenderStats();
+    MkContext ctx = MkContext.getDefault().duplicate().setRenderListener(stats);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MkDocument doc = new MkDocument(ctx, MkGeometry.A4_PORTRAIT, out);
+    for (int i = 0; i < 5; i++) {
+      new MkTextBlock(ctx, "line " + i).setToContentByte(doc.getCanvasOver(), MkUnit.MM, 0, i * 10);
+    }
+    doc.close();
+
+    PdfReader reader = new PdfReader(out.toByteArray());
+    try {
+      byte[]content = reader.getPageContent(1);
+      // itextがページの先頭に出力するものと、全ブロックで共有されたもの
+      assertEquals(2, count(content, "q"));
+      assertEquals(2, count(content, "Q"));
+      assertEquals(1, count(content, "Tf"));
+      assertEquals(5, count(content, "Tj") + count(content, "TJ"));
+      String text = PdfTextExtractor.getTextFromPage(reader, 1);
+      for (int i = 0; i < 5; i++) assertTrue(text.contains("line " + i));
+    } finally {
+      reader.close();
+    }
+    assertTrue(stats.getSkippedOperators() >= 8);
+    assertTrue(stats.getSavedBytes() > 0);
+    assertEquals(5, stats.getElementCount(MkRenderPhase.TEXT_DRAW));
+    assertEquals(0, stats.getElementCount(MkRenderPhase.TEXT_FOLD));
+    assertEquals(5, stats.getElementCount());
+    assertTrue(stats.toString().contains("pdfmonk_elements_total{phase=\"text_draw\"} 5\n"));
+  }
+
+  /** 入れ子のテンプレートに、置いた後で描画しても、クローズ時にグループが終了される */
+  @Test
+  public void nestedTemplateDrawnAfterPlacement() throws IOException {
+    MkContext ctx = MkContext.getDefault();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MkDocument doc = new MkDocument(ctx, MkGeometry.A4_PORTRAIT, out);
+    MkTemplate outer = doc.getCanvasOver().createTemplate(MkUnit.MM, 80, 40);
+    MkTemplate inner = outer.createTemplate(MkUnit.MM, 40, 20);
+    outer.setTemplate(inner, MkUnit.MM, 5, 5);
+    doc.getCanvasOver().setTemplate(outer, MkUnit.MM, 10, 10);
+    new MkTextBlock(ctx, "inner").setToContentByte(inner, MkUnit.MM, 0, 0);
+    new MkTextBlock(ctx, "outer").setToContentByte(outer, MkUnit.MM, 0, 0);
+    doc.close();
+
+    PdfReader reader = new PdfReader(out.toByteArray());
+    try {
+      String text = PdfTextExtractor.getTextFromPage(reader, 1);
+      assertTrue(text.contains("inner"));
+      assertTrue(text.contains("outer"));
+    } finally {
+      reader.close();
+    }
+  }
+
+  /** スタンパのページに置いたテンプレートに、置いた後で描画しても、クローズ時にグループが終了される */
+  @Test
+  public void stamperTemplateDrawnAfterPlacement() throws IOException {
+    MkContext ctx = MkContext.getDefault();
+    Path in = Files.createTempFile("pdfmonk", ".pdf");
+    Path out = Files.createTempFile("pdfmonk", ".pdf");
+    try {
+      MkDocument doc = new MkDocument(ctx, MkGeometry.A4_PORTRAIT, in.toFile());
+      new MkTextBlock(ctx, "original").setToContentByte(doc.getCanvasOver(), MkUnit.MM, 0, 0);
+      doc.close();
+
+      MkStamper stamper = new MkStamper(ctx, MkGeometry.A4_PORTRAIT, in, out);
+      MkTemplate template = stamper.getContentByteOver(1).createTemplate(MkUnit.MM, 50, 20);
+      stamper.getContentByteOver(1).setTemplate(template, MkUnit.MM, 20, 20);
+      new MkTextBlock(ctx, "stamped").setToContentByte(template, MkUnit.MM, 0, 0);
+      stamper.close();
+
+      PdfReader reader = new PdfReader(out.toString());
+      try {
+        String text = PdfTextExtractor.getTextFromPage(reader, 1);
+        assertTrue(text.contains("original"));
+        assertTrue(text.contains("stamped"));
+      } finally {
+        reader.close();
+      }
+    } finally {
+      Files.delete(in);
+      Files.delete(out);
+    }
+  }
+}
@@ -112,6 +112,21 @@ public class MkContext {
     return this;
   }
   
+  /** 描画計測リスナを取得する。設定されていなければnull */
+  public MkRenderListener getRenderListener() {
+    return get(MkRenderListener.class);
+  }
+
+  /** 描画計測リスナを設定する。nullを指定すると解除される */
+  public MkContext setRenderListener(MkRenderListener listener) {
+    if (listener == null) {
+      map.remove(MkRenderListener.class);
+      return this;
+    }
+    put(MkRenderListener.class, listener);
+    return this;
+  }
+
   /** 複製する */
   public MkContext duplicate() {
     Map<Class<? extends MkDuplicatable<?>>, MkDuplicatable<?>>newMap = new HashMap<>();
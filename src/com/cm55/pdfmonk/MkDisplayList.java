@@ -0,0 +1,384 @@
+package com.cm55.pdfmonk;
+
+import java.util.*;
+import java.util.function.*;
+
+import com.itextpdf.text.*;
+import com.itextpdf.text.pdf.*;
+
+/**
+ * 描画操作を記録したリスト
+ * <p>
+ * ヘッダ部分や印影、署名欄のように、同じ図形を何度も描画する場合、その都度テキストの折り返しや座標計算を行うのは無駄である。
+ * {@link #record(MkContext, MkDimension, Consumer)}に渡される記録用の{@link MkContentByte}への描画は、
+ * 座標をPDF上の値に解決した操作の並びとして一度だけ記録される。
+ * 記録したリストは、{@link #replay(MkContentByte, MkDimension)}によって、任意の{@link MkCanvas}、{@link MkTemplate}、
+ * {@link MkStamper}のページの任意の位置に何度でも描画することができる。
+ * </p>
+ * <p>
+ * {@link MkRecordedForm}とは異なり、フォームXObjectを作成せず、操作を描画先のコンテンツに直接出力する。
+ * 描画先のグラフィックス状態の追跡はそのまま働くので、同じフォントや色の設定は省略される。
+ * </p>
+ * <p>
+ * 記録できるのは、テキストブロック、画像、直接描画（線、矩形、{@link MkPath}等）である。
+ * テンプレート、{@link java.awt.Graphics2D}、テーブル等、iTextのコンテンツバイトを直接用いるものは記録できず、例外となる。
+ * </p>
+ * <p>
+ * リストは不変であり、複数のスレッドから同時に別々の描画先に描画することができる。記録も各呼び出しで独立しているので、同時に行うことができる。
+ * 描画時にはこのオブジェクトによるメモリ割り当ては行われない。
+ * </p>
+ * <pre>
+ * MkDisplayList seal = MkDisplayList.record(ctx, new MkDimension(MkUnit.MM, 20, 20), cb-&gt; {
+ *   cb.setStrokeColor(MkColor.RED).drawRoundRect(MkUnit.MM, 0, 0, 20, 20, 3);
+ *   new MkTextBlock(ctx, "検印").setToContentByte(cb, MkUnit.MM, 5, 8);
+ * });
+ * for (int page = 1; page &lt;= stamper.pageCount(); page++) {
+ *   seal.replay(stamper.getContentByteOver(page), MkUnit.MM, 170, 0);
+ * }
+ * </pre>
+ * @author ysugimura
+ */
+public class MkDisplayList {
+
+  // 操作の種類
+  private static final byte BEGIN_GROUP = 0;
+  private static final byte FONT = 1;
+  private static final byte FILL_COLOR = 2;
+  private static final byte STROKE_COLOR = 3;
+  private static final byte LINE_WIDTH = 4;
+  private static final byte INHERIT_FILL = 5;
+  private static final byte INHERIT_STROKE = 6;
+  private static final byte INHERIT_LINE_WIDTH = 7;
+  private static final byte MOVE_TO = 8;
+  private static final byte LINE_TO = 9;
+  private static final byte CURVE_TO = 10;
+  private static final byte RECTANGLE = 11;
+  private static final byte ROUND_RECTANGLE = 12;
+  private static final byte CLOSE_PATH = 13;
+  private static final byte STROKE = 14;
+  private static final byte FILL = 15;
+  private static final byte FILL_STROKE = 16;
+  private static final byte BEGIN_TEXT = 17;
+  private static final byte TEXT = 18;
+  private static final byte END_TEXT = 19;
+  private static final byte IMAGE = 20;
+
+  /** 記録時の大きさ */
+  private final MkDimension size;
+
+  /** 操作の種類の並び */
+  private final byte[]ops;
+
+  /** 操作の数値引数の並び。PDF上の座標は、記録時の左下を原点とするポイント値 */
+  private final float[]values;
+
+  /** 操作のオブジェクト引数（フォント、色、文字列、画像）の並び */
+  private final Object[]objects;
+
+  private MkDisplayList(MkDimension size, byte[]ops, float[]values, Object[]objects) {
+    this.size = size;
+    this.ops = ops;
+    this.values = values;
+    this.objects = objects;
+  }
+
+  /**
+   * 描画を記録する
+   * @param ctx コンテキスト
+   * @param size 記録する領域の大きさ。記録用の{@link MkContentByte}は、この大きさのマージン無しのジオメトリを持つ
+   * @param drawer 描画関数。記録用の{@link MkContentByte}が渡される
+   * @return 記録したリスト
+   */
+  public static MkDisplayList record(MkContext ctx, MkDimension size, Consumer<MkContentByte>drawer) {
+    Recorder recorder = new Recorder();
+    drawer.accept(new MkContentByte(ctx, recorder, new MkGeometry(size, MkInsets.ZERO)));
+    return new MkDisplayList(size,
+      Arrays.copyOf(recorder.ops, recorder.opCount),
+      Arrays.copyOf(recorder.values, recorder.valueCount),
+      Arrays.copyOf(recorder.objects, recorder.objectCount));
+  }
+
+  /** 記録時の大きさを取得する */
+  public MkDimension getSize() {
+    return size;
+  }
+
+  /** 操作の数を取得する */
+  public int getOperationCount() {
+    return ops.length;
+  }
+
+  /**
+   * 指定位置を左上として描画する
+   * @param contentByte 描画先
+   * @param unit 位置の単位
+   * @param x 描画x位置
+   * @param y 描画y位置
+   */
+  public void replay(MkContentByte contentByte, MkUnit unit, float x, float y) {
+    float scale = unit.scalingTo(MkUnit.PT);
+    replayAt(contentByte, x * scale, y * scale);
+  }
+
+  /**
+   * 指定位置を左上として描画する
+   * @param contentByte 描画先
+   * @param position 描画位置
+   */
+  public void replay(MkContentByte contentByte, MkDimension position) {
+    replayAt(contentByte, position.x.ptValue(), position.y.ptValue());
+  }
+
+  /**
+   * 描画先の印刷領域左上からのポイント値の位置を左上として描画する
+   */
+  private void replayAt(MkContentByte contentByte, float x, float y) {
+    MkGeometry geometry = contentByte.getGeometry();
+    float dx = geometry.margins.left.ptValue() + x;
+    float dy = geometry.size.y.ptValue() - geometry.margins.top.ptValue() - y - size.y.ptValue();
+    replay(contentByte.writer(), dx, dy);
+  }
+
+  /**
+   * PDF座標で左下位置を指定して出力する
+   * @param writer 出力先
+   * @param dx 左下のx位置
+   * @param dy 左下のy位置
+   */
+  void replay(MkContentWriter writer, float dx, float dy) {
+    float[]v = values;
+    int i = 0;
+    int o = 0;
+    try {
+      for (byte op: ops) {
+        switch (op) {
+        case BEGIN_GROUP: writer.beginGroup(); break;
+        case FONT: writer.setFontAndSize((BaseFont)objects[o++], v[i++]); break;
+        case FILL_COLOR: writer.setColorFill((BaseColor)objects[o++]); break;
+        case STROKE_COLOR: writer.setColorStroke((BaseColor)objects[o++]); break;
+        case LINE_WIDTH: writer.setLineWidth(v[i++]); break;
+        case INHERIT_FILL: writer.inheritColorFill(); break;
+        case INHERIT_STROKE: writer.inheritColorStroke(); break;
+        case INHERIT_LINE_WIDTH: writer.inheritLineWidth(); break;
+        case MOVE_TO: writer.moveTo(v[i] + dx, v[i + 1] + dy); i += 2; break;
+        case LINE_TO: writer.lineTo(v[i] + dx, v[i + 1] + dy); i += 2; break;
+        case CURVE_TO:
+          writer.curveTo(v[i] + dx, v[i + 1] + dy, v[i + 2] + dx, v[i + 3] + dy, v[i + 4] + dx, v[i + 5] + dy);
+          i += 6;
+          break;
+        case RECTANGLE: writer.rectangle(v[i] + dx, v[i + 1] + dy, v[i + 2], v[i + 3]); i += 4; break;
+        case ROUND_RECTANGLE: writer.roundRectangle(v[i] + dx, v[i + 1] + dy, v[i + 2], v[i + 3], v[i + 4]); i += 5; break;
+        case CLOSE_PATH: writer.closePath(); break;
+        case STROKE: writer.stroke(); break;
+        case FILL: writer.fill(); break;
+        case FILL_STROKE: writer.fillStroke(); break;
+        case BEGIN_TEXT: writer.beginText(); break;
+        case TEXT: writer.showTextAligned(Element.ALIGN_LEFT, (String)objects[o++], v[i] + dx, v[i + 1] + dy); i += 2; break;
+        case END_TEXT: writer.endText(); break;
+        case IMAGE:
+          writer.addImage((Image)objects[o++], v[i], v[i + 1], v[i + 2], v[i + 3], v[i + 4] + dx, v[i + 5] + dy);
+          i += 6;
+          break;
+        default: throw new IllegalStateException();
+        }
+      }
+    } catch (DocumentException ex) {
+      throw new MkException(ex);
+    }
+  }
+
+  /**
+   * 出力の代わりに操作を記録する
+   */
+  private static class Recorder extends MkContentWriter {
+
+    private byte[]ops = new byte[64];
+    private int opCount;
+    private float[]values = new float[256];
+    private int valueCount;
+    private Object[]objects = new Object[32];
+    private int objectCount;
+
+    /** 最後に設定されたフォント。テキストのアラインメントの解決に用いる */
+    private BaseFont font;
+    private float fontSize;
+
+    Recorder() {
+      super(null);
+    }
+
+    private void op(byte op) {
+      if (opCount == ops.length) ops = Arrays.copyOf(ops, opCount * 2);
+      ops[opCount++] = op;
+    }
+
+    private void value(float value) {
+      if (valueCount == values.length) values = Arrays.copyOf(values, valueCount * 2);
+      values[valueCount++] = value;
+    }
+
+    private void object(Object object) {
+      if (objectCount == objects.length) objects = Arrays.copyOf(objects, objectCount * 2);
+      objects[objectCount++] = object;
+    }
+
+    /** 座標は描画時に丸められる */
+    @Override
+    float round(float value) {
+      return value;
+    }
+
+    /** 記録にはグループは無い */
+    @Override
+    void close() {
+    }
+
+    @Override
+    void beginGroup() {
+      op(BEGIN_GROUP);
+    }
+
+    @Override
+    void setFontAndSize(BaseFont font, float size) {
+      op(FONT);
+      object(font);
+      value(size);
+      this.font = font;
+      this.fontSize = size;
+    }
+
+    @Override
+    void setColorFill(BaseColor color) {
+      op(FILL_COLOR);
+      object(color);
+    }
+
+    @Override
+    void setColorStroke(BaseColor color) {
+      op(STROKE_COLOR);
+      object(color);
+    }
+
+    @Override
+    void setLineWidth(float width) {
+      op(LINE_WIDTH);
+      value(width);
+    }
+
+    @Override
+    void inheritColorFill() {
+      op(INHERIT_FILL);
+    }
+
+    @Override
+    void inheritColorStroke() {
+      op(INHERIT_STROKE);
+    }
+
+    @Override
+    void inheritLineWidth() {
+      op(INHERIT_LINE_WIDTH);
+    }
+
+    @Override
+    void moveTo(float x, float y) {
+      op(MOVE_TO);
+      value(x);
+      value(y);
+    }
+
+    @Override
+    void lineTo(float x, float y) {
+      op(LINE_TO);
+      value(x);
+      value(y);
+    }
+
+    @Override
+    void curveTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+      op(CURVE_TO);
+      value(x1);
+      value(y1);
+      value(x2);
+      value(y2);
+      value(x3);
+      value(y3);
+    }
+
+    @Override
+    void rectangle(float x, float y, float width, float height) {
+      op(RECTANGLE);
+      value(x);
+      value(y);
+      value(width);
+      value(height);
+    }
+
+    @Override
+    void roundRectangle(float x, float y, float width, float height, float radius) {
+      op(ROUND_RECTANGLE);
+      value(x);
+      value(y);
+      value(width);
+      value(height);
+      value(radius);
+    }
+
+    @Override
+    void closePath() {
+      op(CLOSE_PATH);
+    }
+
+    @Override
+    void stroke() {
+      op(STROKE);
+    }
+
+    @Override
+    void fill() {
+      op(FILL);
+    }
+
+    @Override
+    void fillStroke() {
+      op(FILL_STROKE);
+    }
+
+    @Override
+    void beginText() {
+      op(BEGIN_TEXT);
+    }
+
+    /** アラインメントは記録時に解決し、左詰めの位置として記録する */
+    @Override
+    void showTextAligned(int alignment, String text, float x, float y) {
+      if (font == null) throw new MkException("font is not set");
+      switch (alignment) {
+      case Element.ALIGN_CENTER: x -= font.getWidthPoint(text, fontSize) / 2; break;
+      case Element.ALIGN_RIGHT: x -= font.getWidthPoint(text, fontSize); break;
+      default: break;
+      }
+      op(TEXT);
+      object(text);
+      value(x);
+      value(y);
+    }
+
+    @Override
+    void endText() {
+      op(END_TEXT);
+    }
+
+    /** 画像の位置と大きさは変換行列として記録する */
+    @Override
+    void addImage(Image image) {
+      if (!image.hasAbsoluteY()) throw new MkException("image has no absolute position");
+      float[]matrix = image.matrix();
+      op(IMAGE);
+      object(image);
+      for (int i = 0; i < 4; i++) value(matrix[i]);
+      value(image.getAbsoluteX() - matrix[Image.CX]);
+      value(image.getAbsoluteY() - matrix[Image.CY]);
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.util.function.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.itextpdf.text.io.RandomAccessSourceFactory;
+import com.itextpdf.text.pdf.*;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+
+public class MkDisplayListTest {
+
+  private static final MkContext ctx = MkContext.getDefault();
+
+  /** 印影の図形を描画する */
+  private static void seal(MkContentByte cb, float x, float y) {
+    cb.setStrokeColor(MkColor.RED).setLineWidth(MkUnit.MM, 0.3f).drawRoundRect(MkUnit.MM, x, y, 40, 20, 3);
+    new MkTextBlock(ctx, "SEAL\nline two").setToContentByte(cb, MkUnit.MM, x + 2, y + 2);
+  }
+
+  /** 一ページのPDFを作成し、そのページのコンテンツを取得する */
+  private static byte[] pageContent(Consumer<MkCanvas>drawer) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MkDocument doc = new MkDocument(ctx, MkGeometry.A4_PORTRAIT, out);
+    drawer.accept(doc.getCanvasOver());
+    doc.close();
+    PdfReader reader = new PdfReader(out.toByteArray());
+    try {
+      return reader.getPageContent(1);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /** コンテンツ中の演算子の数を数える */
+  private static int count(byte[]content, String operator) throws IOException {
+    PRTokeniser tokeniser = new PRTokeniser(new RandomAccessFileOrArray(new RandomAccessSourceFactory().createSource(content)));
+    int count = 0;
+    while (tokeniser.nextToken()) {
+      if (tokeniser.getTokenType() == PRTokeniser.TokenType.OTHER && tokeniser.getStringValue().equals(operator)) count++;
+    }
+    return count;
+  }
+
+  /** 再生した結果は、同じ位置に直接描画した結果と同じコンテンツとなる */
+  @Test
+  public void replayMatchesDirectDrawing() throws IOException {
+    MkDisplayList list = MkDisplayList.record(ctx, new MkDimension(MkUnit.MM, 40, 20), cb->seal(cb, 0, 0));
+    assertTrue(list.getOperationCount() > 0);
+    byte[]direct = pageContent(canvas->seal(canvas, 30, 50));
+    byte[]replayed = pageContent(canvas->list.replay(canvas, MkUnit.MM, 30, 50));
+    assertEquals(new String(direct, "ISO-8859-1"), new String(replayed, "ISO-8859-1"));
+  }
+
+  /** 繰り返し再生すると、描画先の状態の追跡によって同じフォントと色の設定は省略される */
+  @Test
+  public void replayRepeatedly() throws IOException {
+    MkDisplayList list = MkDisplayList.record(ctx, new MkDimension(MkUnit.MM, 40, 20), cb->seal(cb, 0, 0));
+    byte[]content = pageContent(canvas-> {
+      for (int i = 0; i < 5; i++) list.replay(canvas, new MkDimension(MkUnit.MM, 0, i * 30));
+    });
+    assertEquals(1, count(content, "Tf"));
+    assertEquals(1, count(content, "RG"));
+    assertEquals(5, count(content, "S"));
+  }
+
+  /** スタンパのページとテンプレートにも再生できる */
+  @Test
+  public void replayToStamperAndTemplate() throws IOException {
+    MkDisplayList list = MkDisplayList.record(ctx, new MkDimension(MkUnit.MM, 40, 20), cb->seal(cb, 0, 0));
+    ByteArrayOutputStream original = new ByteArrayOutputStream();
+    MkDocument doc = new MkDocument(ctx, MkGeometry.A4_PORTRAIT, original);
+    MkTemplate template = doc.getCanvasOver().createTemplate(MkUnit.MM, 40, 20);
+    list.replay(template, MkUnit.MM, 0, 0);
+    doc.getCanvasOver().setTemplate(template, MkUnit.MM, 0, 0);
+    doc.close();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MkStamper stamper = new MkStamper(ctx, MkGeometry.A4_PORTRAIT, new ByteArrayInputStream(original.toByteArray()), out);
+    list.replay(stamper.getContentByteOver(1), MkUnit.MM, 100, 100);
+    stamper.close();
+
+    PdfReader reader = new PdfReader(out.toByteArray());
+    try {
+      String text = PdfTextExtractor.getTextFromPage(reader, 1);
+      assertEquals(2, text.split("SEAL", -1).length - 1);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /** iTextのコンテンツバイトを直接用いる描画は記録できない */
+  @Test(expected = MkException.class)
+  public void unsupported() {
+    MkDisplayList.record(ctx, new MkDimension(MkUnit.MM, 40, 20), cb->cb.createTemplate(MkUnit.MM, 10, 10));
+  }
+}
@@ -1,6 +1,10 @@
 package com.cm55.pdfmonk;
 
 import java.io.*;
+import java.nio.charset.*;
+import java.security.*;
+import java.util.*;
+import java.util.List;
 import java.util.function.*;
 
 import com.itextpdf.text.*;
@@ -26,6 +30,18 @@ import com.itextpdf.text.pdf.*;
  * <p>
  * これらのレイヤーは最終的なPDFの表示としては重ね合わされる。
  * </p>
+ * <h2>ストリーミングモード</h2>
+ * <p>
+ * 数万ページに及ぶような大きなドキュメントを一定のメモリで作成するには、{@link #setStreaming(long)}でストリーミングモードとする。
+ * このモードでは、ページの終了ごとに出力をフラッシュし、ドキュメントが保持している描画内容の量を調べて、メモリ予算を超えていれば例外とする。
+ * ドキュメントが保持しているものとは、現在のページの描画内容と、{@link MkCanvas}あるいはそこから作成されたテンプレートから作成されて、
+ * まだ出力されていない{@link MkTemplate}である。
+ * 描画の終わったテンプレートは{@link #releaseTemplate(MkTemplate)}によって即座に出力し、解放することができる。
+ * </p>
+ * <p>
+ * なお、{@link MkImage}はページに置かれた時点で出力されるため、ドキュメント側には保持されない。
+ * また、{@link MkPageNumbering}はページごとにテンプレートを保持するので、このモードでは{@link MkPageNumberField}を用いること。
+ * </p>
  */
 public class MkDocument  {
 
@@ -41,6 +57,9 @@ public class MkDocument  {
   /** itextの{@link PdfWriter} */
   private PdfWriter pdfWriter;
 
+  /** 出力先。ファイルIDを固定する場合に書き換えを行う */
+  private FixedIdOutputStream output;
+
   /** 最上位コンテンツバイト */
   private MkCanvas canvasOver;
 
@@ -53,6 +72,21 @@ public class MkDocument  {
   /** 改ページが行われた場合のコールバック */
   private Consumer<Integer>newPageCallback;
 
+  /** 改ページが行われた場合の追加のコールバック */
+  private List<Consumer<Integer>>newPageCallbacks = new ArrayList<>();
+
+  /** クローズ直前のコールバック */
+  private List<Consumer<Integer>>closeCallbacks = new ArrayList<>();
+
+  /** ストリーミングモードのメモリ予算。0以下の場合はストリーミングモードではない */
+  private long memoryBudget;
+
+  /** ストリーミングモードで、ドキュメントが保持していた描画内容の最大バイト数 */
+  private long memoryHighWater;
+
+  /** ストリーミングモードで、ページ終了時に観測されたヒープ使用量の最大値 */
+  private long heapHighWater;
+
   /**
    * ドキュメントをオープンする。その際、ドキュメントのページサイズと出力先ファイルを指定する。
    * このシステムでは、一つのドキュメント内のすべてのページは同じジオメトリを持つものとする。
@@ -79,7 +113,8 @@ public class MkDocument  {
           geo.margins.right.ptValue(), geo.margins.top.ptValue(), geo.margins.bottom.ptValue());
       
       // PdfWriterを作成する
-      pdfWriter = PdfWriter.getInstance(document, out);
+      output = new FixedIdOutputStream(out);
+      pdfWriter = PdfWriter.getInstance(document, output);
       pdfWriter.setPdfVersion(PdfWriter.VERSION_1_7);
 
       // Documentをオープンする
@@ -88,6 +123,8 @@ public class MkDocument  {
       // キャンバスを得る
       canvasOver = new MkCanvas(pdfWriter.getDirectContent(), this);
       canvasUnder = new MkCanvas(pdfWriter.getDirectContentUnder(), this);
+      canvasUnder.shareTemplates(canvasOver);
+      canvasUnder.shareTemplateCache(canvasOver);
 
     } catch (Exception ex) {
       throw new MkException(ex);
@@ -109,6 +146,140 @@ public class MkDocument  {
     return this;
   }
 
+  /**
+   * 改ページが行われた場合のコールバックを追加する。
+   * <p>
+   * {@link #setNewPageCallback(Consumer)}と同様だが、既に設定されているコールバックを置き換えず、追加する。
+   * ページ背景やページ番号のように、複数の部品がそれぞれ改ページを知る必要のある場合に用いる。
+   * 追加と同時に現在のページ番号でコールバックされる。
+   * </p>
+   * @param newPageCallback 改ページが行われた場合のコールバック
+   * @return このオブジェクト
+   */
+  public MkDocument addNewPageCallback(Consumer<Integer>newPageCallback) {
+    newPageCallbacks.add(newPageCallback);
+    newPageCallback.accept(pageNumber);
+    return this;
+  }
+
+  /**
+   * クローズ直前のコールバックを追加する。
+   * <p>
+   * {@link #close()}が呼び出されると、ドキュメントが実際にクローズされる前に、総ページ数を引数としてコールバックされる。
+   * この時点では、既に置かれた{@link MkTemplate}はまだ出力されていないので、総ページ数の描画等を行うことができる。
+   * </p>
+   * @param closeCallback 総ページ数を引数とするコールバック
+   * @return このオブジェクト
+   */
+  public MkDocument addCloseCallback(Consumer<Integer>closeCallback) {
+    closeCallbacks.add(closeCallback);
+    return this;
+  }
+
+  /**
+   * ストリーミングモードとする。ドキュメントの作成直後、描画の前に呼び出すこと。
+   * <p>
+   * ページの終了ごとに出力がフラッシュされ、このドキュメントが保持している描画内容がメモリ予算を超えると{@link MkException}となる。
+   * クラスの説明を参照のこと。
+   * </p>
+   * @param memoryBudget ドキュメントが保持してよい描画内容のバイト数
+   * @return このオブジェクト
+   */
+  public MkDocument setStreaming(long memoryBudget) {
+    this.memoryBudget = memoryBudget;
+    return this;
+  }
+
+  /**
+   * 出力を決定的にする。クローズ前に呼び出すこと。
+   * <p>
+   * 通常、PDFのファイルIDはランダムに、作成日時・更新日時は現在時刻に設定されるため、同じ内容を描画しても出力は毎回異なる。
+   * このメソッドを呼び出すと、ファイルIDはseedから計算した値に、作成日時・更新日時は指定時刻に固定されるので、
+   * 同じ入力からは同じバイト列が出力されるようになる。ただし、埋め込みフォントのサブセットを使用する場合には、
+   * iTextがサブセット名をランダムに生成するため、この限りではない。
+   * </p>
+   * @param seed ファイルIDの元とする文字列。典型的には描画内容のハッシュ値
+   * @param timeMillis 作成日時・更新日時とする時刻
+   * @return このオブジェクト
+   */
+  public MkDocument setDeterministic(String seed, long timeMillis) {
+    Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    calendar.setTimeInMillis(timeMillis);
+    PdfDate date = new PdfDate(calendar);
+    pdfWriter.getInfo().put(PdfName.CREATIONDATE, date);
+    pdfWriter.getInfo().put(PdfName.MODDATE, date);
+    try {
+      output.setFileId(MessageDigest.getInstance("MD5").digest(seed.getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException ex) {
+      throw new MkException(ex);
+    }
+    return this;
+  }
+
+  /** ストリーミングモードかどうかを取得する */
+  public boolean isStreaming() {
+    return memoryBudget > 0;
+  }
+
+  /**
+   * 描画の終了したテンプレートを即座に出力し、解放する。これ以降、このテンプレートに描画してはいけない。
+   * テンプレートをページに置くことは、解放後も可能である。
+   * <p>
+   * itextは、このドキュメントのものでないテンプレートや既に出力されたテンプレートについては何もしない。
+   * ストリーミングモードの保持量からは、実際に出力された場合にのみ除かれる。
+   * </p>
+   * @param template 解放するテンプレート
+   */
+  public void releaseTemplate(MkTemplate template) {
+    long before = pdfWriter.getOs().getCounter();
+    try {
+      pdfWriter.releaseTemplate(template.getITextContentByte());
+    } catch (IOException ex) {
+      throw new MkException(ex);
+    }
+    if (pdfWriter.getOs().getCounter() == before) return;
+    template.templateWritten();
+  }
+
+  /** ストリーミングモードで、ドキュメントが保持していた描画内容の最大バイト数を取得する */
+  public long getMemoryHighWater() {
+    return memoryHighWater;
+  }
+
+  /** ストリーミングモードで、ページ終了時に観測されたヒープ使用量の最大値を取得する */
+  public long getHeapHighWater() {
+    return heapHighWater;
+  }
+
+  /** 出力済のバイト数を取得する */
+  public long getBytesWritten() {
+    return pdfWriter.getOs().getCounter();
+  }
+
+  /** 
+   * ストリーミングモードで、ページの終了時に保持量を調べる。
+   * 現在のページの描画内容と、未出力のテンプレートの描画内容の合計が保持量となる。
+   * 未出力のテンプレートは、入れ子のものも含めて両キャンバスで共有されている。
+   */
+  private void checkRetained() {
+    long retained = canvasOver.getITextContentByte().getInternalBuffer().size() +
+        canvasUnder.getITextContentByte().getInternalBuffer().size() + canvasOver.unwrittenTemplateBytes();
+    memoryHighWater = Math.max(memoryHighWater, retained);
+    Runtime runtime = Runtime.getRuntime();
+    heapHighWater = Math.max(heapHighWater, runtime.totalMemory() - runtime.freeMemory());
+    if (retained > memoryBudget)
+      throw new MkException("memory budget exceeded:" + retained + " > " + memoryBudget + " at page " + pageNumber);
+  }
+
+  /** ストリーミングモードで、ページの終了後に出力をフラッシュする */
+  private void flush() {
+    try {
+      pdfWriter.getOs().flush();
+    } catch (IOException ex) {
+      throw new MkException(ex);
+    }
+  }
+
   /** itextの｛@link Document}オブジェクトを得る */
   public Document getITextDocument() {
     return document;
@@ -130,10 +301,40 @@ public class MkDocument  {
     return pageNumber;
   }
   
-  /** ドキュメントをクローズする */
+  /** 
+   * ドキュメントをクローズする。
+   * {@link #addCloseCallback(Consumer)}が設定されていれば、クローズ前にそのコールバックを呼び出す。
+   * コンテキストに{@link MkRenderListener}が設定されていれば、総ページ数と総出力バイト数を通知する。
+   */
   public void close() {
-    document.close();
+    MkRenderListener listener = ctx.getRenderListener();
+    long start = MkRenderPhase.start(listener);
+    closeCallbacks.forEach(c->c.accept(pageNumber));
+    MkContentWriter.endPage(listener, pageNumber, canvasOver.writer(), canvasUnder.writer());
+    // 未出力のテンプレートは最背面キャンバスと共有されている
+    canvasOver.closeTemplates();
+    if (isStreaming()) checkRetained();
+    try {
+      document.close();
+    } finally {
+      // 取込元のキャッシュは最背面キャンバスと共有されている
+      canvasOver.closeReaders();
+    }
     document = null;
+    MkRenderPhase.CLOSE.end(listener, start);
+    if (listener != null) {
+      long bytes = pdfWriter.getOs().getCounter();
+      listener.pageCompleted(pageNumber, bytes);
+      listener.documentClosed(pageNumber, bytes);
+    }
+  }
+
+  /**
+   * 描画に失敗したドキュメントを破棄する。PDFはクローズせず、取込元のリーダのみをクローズする。
+   * 出力先は呼び出し側でクローズすること
+   */
+  void abandon() {
+    canvasOver.closeReaders();
   }
 
   /** 最上位層キャンバスを得る */
@@ -148,16 +349,26 @@ public class MkDocument  {
 
   /** 
    * 改ページし、現在のページ番号を更新する。
-   * {@link #setNewPageCallback(Consumer)}が設定されていれば、そのコールバックを呼び出す。
+   * {@link #setNewPageCallback(Consumer)}、{@link #addNewPageCallback(Consumer)}が設定されていれば、そのコールバックを呼び出す。
    */
   public void newPage() {
+    MkRenderListener listener = ctx.getRenderListener();
+    long start = MkRenderPhase.start(listener);
+    MkContentWriter.endPage(listener, pageNumber, canvasOver.writer(), canvasUnder.writer());
+    if (isStreaming()) checkRetained();
     document.newPage();
+    if (isStreaming()) flush();
+    if (listener != null) listener.pageCompleted(pageNumber, pdfWriter.getOs().getCounter());
     pageNumber++;
     if (newPageCallback != null) newPageCallback.accept(pageNumber);
+    newPageCallbacks.forEach(c->c.accept(pageNumber));
+    MkRenderPhase.NEW_PAGE.end(listener, start);
   }
 
   /** 要素を追加する */
   public void add(MkElement element) {
+    MkRenderListener listener = ctx.getRenderListener();
+    long start = MkRenderPhase.start(listener);
     element.getElements().forEach(e -> {
       try {
         document.add(e);
@@ -165,5 +376,112 @@ public class MkDocument  {
         throw new MkException(ex);
       }
     });
+    MkRenderPhase.ADD_ELEMENT.end(listener, start);
+  }
+
+  /**
+   * トレイラのファイルIDを書き換える出力ストリーム。
+   * <p>
+   * iTextは、クローズ時にランダムなファイルIDを生成してトレイラに書き込み、それを変更する方法が無い。
+   * このため、ファイルIDを固定する場合には、トレイラの"/ID [&lt;...&gt;&lt;...&gt;]"の16進数部分を、同じ長さの値に置き換える。
+   * 長さは変わらないので、相互参照表のオフセットに影響は無い。ファイルIDが設定されていなければ何もしない。
+   * </p>
+   * <p>
+   * トレイラはファイルの末尾に書き込まれるので、出力の末尾の一定バイト数のみを保留しておき、クローズ時にその中の最後の"/ID [&lt;"を書き換える。
+   * それより前の出力はそのまま書き込まれるので、文書情報や描画内容に同じ文字列が含まれていても書き換えられることは無い。
+   * </p>
+   */
+  private static class FixedIdOutputStream extends FilterOutputStream {
+    private static final byte[]ID = "/ID [<".getBytes(StandardCharsets.US_ASCII);
+
+    /** 保留する末尾のバイト数。トレイラ全体を含む大きさ */
+    private static final int TAIL = 1024;
+
+    /** 書き換え後のファイルIDの16進表現。nullの場合は書き換えない */
+    private byte[]hex;
+
+    /** 保留中の末尾 */
+    private final byte[]tail = new byte[TAIL];
+
+    /** 保留中のバイト数 */
+    private int tailLength;
+
+    FixedIdOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    void setFileId(byte[]id) {
+      hex = new byte[id.length * 2];
+      for (int i = 0; i < id.length; i++) {
+        hex[i * 2] = (byte)Character.forDigit((id[i] >> 4) & 0xf, 16);
+        hex[i * 2 + 1] = (byte)Character.forDigit(id[i] & 0xf, 16);
+      }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte)b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[]b, int off, int len) throws IOException {
+      if (hex == null) {
+        out.write(b, off, len);
+        return;
+      }
+      // 保留分と合わせて末尾のTAILバイトを超える部分を書き込む
+      int excess = tailLength + len - TAIL;
+      if (excess > 0) {
+        int fromTail = Math.min(excess, tailLength);
+        out.write(tail, 0, fromTail);
+        System.arraycopy(tail, fromTail, tail, 0, tailLength - fromTail);
+        tailLength -= fromTail;
+        int fromData = excess - fromTail;
+        out.write(b, off, fromData);
+        off += fromData;
+        len -= fromData;
+      }
+      System.arraycopy(b, off, tail, tailLength, len);
+      tailLength += len;
+    }
+
+    /** 保留中の末尾はトレイラが書き込まれる可能性があるので、書き込まない */
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (hex != null) {
+        replaceId();
+        out.write(tail, 0, tailLength);
+        tailLength = 0;
+      }
+      super.close();
+    }
+
+    /** 保留中の末尾の最後の"/ID [&lt;"に続く二つの16進数を書き換える */
+    private void replaceId() {
+      int index = lastIndexOf(ID);
+      if (index < 0) return;
+      int first = index + ID.length;
+      int second = first + hex.length + 2;
+      if (second + hex.length > tailLength) return;
+      if (tail[first + hex.length] != '>' || tail[first + hex.length + 1] != '<') return;
+      System.arraycopy(hex, 0, tail, first, hex.length);
+      System.arraycopy(hex, 0, tail, second, hex.length);
+    }
+
+    private int lastIndexOf(byte[]pattern) {
+      outer:
+      for (int i = tailLength - pattern.length; i >= 0; i--) {
+        for (int j = 0; j < pattern.length; j++) {
+          if (tail[i + j] != pattern[j]) continue outer;
+        }
+        return i;
+      }
+      return -1;
+    }
   }
 }
@@ -34,14 +34,23 @@ public class MkFont implements MkDuplicatable<MkFont> {
   }
 
   private MkFont(Impl impl) {
-    impl.refCount++;
+    synchronized (impl) {
+      impl.refCount++;
+    }
     this.impl = impl;
   }
   
+  /** 
+   * 変更の準備をする。他と共有されていれば複製して自分用とする。
+   * 共有されている実体は複数のスレッドから複製される可能性があるので、参照カウントの操作は同期をとる。
+   */
   private Impl modifyImpl() {
-    if (impl.refCount > 1) {
-      impl.refCount--;
-      impl = new Impl(impl.baseFont, new Font(impl.font));
+    Impl old = impl;
+    synchronized (old) {
+      if (old.refCount > 1) {
+        old.refCount--;
+        impl = new Impl(old.baseFont, new Font(old.font));
+      }
     }
     return impl;
   }
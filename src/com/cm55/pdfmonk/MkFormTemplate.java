@@ -0,0 +1,232 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+
+import com.itextpdf.text.*;
+import com.itextpdf.text.io.*;
+import com.itextpdf.text.pdf.*;
+
+/**
+ * 多数のレコードを記入するためのフォーム様式
+ * <p>
+ * 様式のPDFは一度だけ読み込まれ、各レコードの記入ではそのバイト列を共有して、必要なオブジェクトのみを解析する。
+ * 各フィールドのフォント、サイズ、ウィジェットの位置は、スレッドごとにフィールド名をキーとしてキャッシュされ、
+ * 二件目以降のレコードでは再解決されない。
+ * </p>
+ * <p>
+ * {@link #fill(Map, OutputStream, boolean)}は複数のスレッドから同時に呼び出すことができる。
+ * レコード一件あたりの処理時間は{@link #getLatency()}で取得できる。
+ * </p>
+ * <pre>
+ * MkFormTemplate template = new MkFormTemplate(ctx, MkGeometry.A4_PORTRAIT, Paths.get("form.pdf"));
+ * for (Map&lt;String, String&gt; record: records) {
+ *   try (OutputStream out = new FileOutputStream(record.get("id") + ".pdf")) {
+ *     template.fill(record, out, true);
+ *   }
+ * }
+ * </pre>
+ * @author ysugimura
+ */
+public class MkFormTemplate {
+
+  /**
+   * フィールドの情報
+   */
+  public static class Field {
+
+    private final String name;
+    private final int pageNumber;
+    private final MkRect rect;
+    private final String fontName;
+    private final float fontSize;
+
+    Field(String name, int pageNumber, MkRect rect, String fontName, float fontSize) {
+      this.name = name;
+      this.pageNumber = pageNumber;
+      this.rect = rect;
+      this.fontName = fontName;
+      this.fontSize = fontSize;
+    }
+
+    /** フィールド名を取得する */
+    public String getName() {
+      return name;
+    }
+
+    /** 最初のウィジェットのあるページ番号を取得する */
+    public int getPageNumber() {
+      return pageNumber;
+    }
+
+    /** 最初のウィジェットの位置を取得する */
+    public MkRect getRect() {
+      return rect;
+    }
+
+    /** 様式に指定されたフォントのリソース名を取得する。指定が無い場合はnull */
+    public String getFontName() {
+      return fontName;
+    }
+
+    /** 様式に指定されたフォントサイズを取得する。0は自動 */
+    public float getFontSize() {
+      return fontSize;
+    }
+
+    /** デバッグ用。文字列化する */
+    @Override
+    public String toString() {
+      return name + ":page:" + pageNumber + "," + rect + ",font:" + fontName + "," + fontSize;
+    }
+  }
+
+  /** コンテキスト */
+  private final MkContext ctx;
+
+  /** 様式のジオメトリ */
+  private final MkGeometry geometry;
+
+  /** 様式のPDF */
+  private final byte[]pdf;
+
+  /** フィールド。様式上の順序 */
+  private final Map<String, Field>fields = new LinkedHashMap<>();
+
+  /** スレッドごとのフィールドの外観設定のキャッシュ */
+  private final ThreadLocal<Map<String, TextField>>fieldCaches = ThreadLocal.withInitial(HashMap::new);
+
+  /** レコード一件あたりの処理時間（ナノ秒） */
+  private final MkHistogram latency = new MkHistogram();
+
+  /**
+   * 様式を指定する
+   * @param ctx コンテキスト。フォントが代替フォントとして用いられる
+   * @param geometry 様式のジオメトリ
+   * @param pdf 様式のPDF。変更してはならない
+   */
+  public MkFormTemplate(MkContext ctx, MkGeometry geometry, byte[]pdf) {
+    this.ctx = ctx;
+    this.geometry = geometry;
+    this.pdf = pdf;
+    PdfReader reader = newReader();
+    try {
+      resolveFields(reader.getAcroFields());
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * 様式を指定する。ファイルは一度だけ読み込まれる
+   * @param ctx コンテキスト。フォントが代替フォントとして用いられる
+   * @param geometry 様式のジオメトリ
+   * @param path 様式のファイル
+   */
+  public MkFormTemplate(MkContext ctx, MkGeometry geometry, Path path) {
+    this(ctx, geometry, readAllBytes(path));
+  }
+
+  private static byte[]readAllBytes(Path path) {
+    try {
+      return Files.readAllBytes(path);
+    } catch (IOException ex) {
+      throw new MkException(ex);
+    }
+  }
+
+  /**
+   * 様式のバイト列を共有したリーダを作成する。
+   * 解析済のリーダの複製はオブジェクトの一部を元のリーダと共有しており、フラット化によって元のリーダのフィールドが失われることがあるため、
+   * レコードごとに作成する
+   */
+  private PdfReader newReader() {
+    try {
+      return new PdfReader(new RandomAccessFileOrArray(new RandomAccessSourceFactory().createSource(pdf)), null);
+    } catch (IOException ex) {
+      throw new MkException(ex);
+    }
+  }
+
+  /** フィールドの位置、フォント、サイズを解決する */
+  private void resolveFields(AcroFields acroFields) {
+    for (Map.Entry<String, AcroFields.Item>e: acroFields.getFields().entrySet()) {
+      String name = e.getKey();
+      int pageNumber = 0;
+      MkRect rect = null;
+      List<AcroFields.FieldPosition>positions = acroFields.getFieldPositions(name);
+      if (positions != null && !positions.isEmpty()) {
+        AcroFields.FieldPosition position = positions.get(0);
+        Rectangle r = position.position;
+        pageNumber = position.page;
+        rect = new MkRect(geometry.fromPdfPosition(r.getLeft(), r.getTop()),
+          new MkDimension(MkUnit.PT, r.getWidth(), r.getHeight()));
+      }
+      String fontName = null;
+      float fontSize = 0;
+      PdfString da = e.getValue().getMerged(0).getAsString(PdfName.DA);
+      if (da != null) {
+        Object[]elements = AcroFields.splitDAelements(da.toUnicodeString());
+        if (elements[AcroFields.DA_FONT] != null) fontName = (String)elements[AcroFields.DA_FONT];
+        if (elements[AcroFields.DA_SIZE] != null) fontSize = ((Float)elements[AcroFields.DA_SIZE]).floatValue();
+      }
+      fields.put(name, new Field(name, pageNumber, rect, fontName, fontSize));
+    }
+  }
+
+  /**
+   * フィールドの情報を取得する。様式上の順序。
+   * これはレイアウトの確認等のための参照用であり、記入時の外観の作成には用いられない。
+   * 記入時の外観設定の再利用は、スレッドごとのitextのフィールドのキャッシュによって行われる。
+   */
+  public Collection<Field>getFields() {
+    return Collections.unmodifiableCollection(fields.values());
+  }
+
+  /** 指定名称のフィールドの情報を取得する。無い場合はnull */
+  public Field getField(String name) {
+    return fields.get(name);
+  }
+
+  /**
+   * 一件のレコードを記入して出力する
+   * @param record フィールド名と値のマップ。様式に無いフィールド名が含まれる場合は例外となる
+   * @param out 出力先。失敗した場合も含め、クローズされる
+   * @param flatten trueの場合はフォームをフラット化し、編集できないようにする
+   */
+  public void fill(Map<String, String>record, OutputStream out, boolean flatten) {
+    long start = System.nanoTime();
+    PdfReader reader = null;
+    boolean done = false;
+    try {
+      for (String name: record.keySet()) {
+        if (!fields.containsKey(name)) throw new MkException("no field:" + name);
+      }
+      reader = newReader();
+      MkStamper stamper = new MkStamper(ctx, geometry, reader, out);
+      stamper.setFieldCache(fieldCaches.get());
+      for (Map.Entry<String, String>e: record.entrySet()) {
+        stamper.setField(e.getKey(), e.getValue());
+      }
+      stamper.close(flatten);
+      done = true;
+    } finally {
+      // 失敗した場合は、記入途中のスタンパを捨て、様式のリーダと出力先をクローズする
+      if (!done) {
+        if (reader != null) reader.close();
+        try {
+          out.close();
+        } catch (IOException ex) {
+        }
+      }
+    }
+    latency.record(System.nanoTime() - start);
+  }
+
+  /** レコード一件あたりの処理時間分布（ナノ秒）を取得する */
+  public MkHistogram getLatency() {
+    return latency;
+  }
+}
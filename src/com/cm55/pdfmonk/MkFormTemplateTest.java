@@ -0,0 +1,109 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.itextpdf.text.*;
+import com.itextpdf.text.pdf.*;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+
+public class MkFormTemplateTest {
+
+  /** 二つのテキストフィールドを持つ様式を作成する */
+  private static byte[] form() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Document document = new Document(PageSize.A4);
+    PdfWriter writer = PdfWriter.getInstance(document, out);
+    document.open();
+    document.add(new Paragraph("form"));
+    TextField name = new TextField(writer, new Rectangle(100, 700, 300, 720), "name");
+    name.setFontSize(12);
+    writer.addAnnotation(name.getTextField());
+    TextField amount = new TextField(writer, new Rectangle(100, 650, 300, 670), "amount");
+    amount.setFontSize(10);
+    writer.addAnnotation(amount.getTextField());
+    document.close();
+    return out.toByteArray();
+  }
+
+  private static Map<String, String>record(String name, String amount) {
+    Map<String, String>record = new HashMap<>();
+    record.put("name", name);
+    record.put("amount", amount);
+    return record;
+  }
+
+  /** クローズされたかを記録する出力先 */
+  private static class Output extends ByteArrayOutputStream {
+    boolean closed;
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  /** フィールドの位置とサイズが解決される */
+  @Test
+  public void fields() throws Exception {
+    MkFormTemplate template = new MkFormTemplate(MkContext.getDefault(), MkGeometry.A4_PORTRAIT, form());
+    assertEquals(2, template.getFields().size());
+    MkFormTemplate.Field name = template.getField("name");
+    assertEquals(1, name.getPageNumber());
+    assertEquals(12, name.getFontSize(), 0);
+    assertEquals(200, name.getRect().width.ptValue(), 0.01);
+    assertNull(template.getField("none"));
+  }
+
+  /** 二件のレコードを記入し、それぞれの値が読み出せる */
+  @Test
+  public void fill() throws Exception {
+    MkFormTemplate template = new MkFormTemplate(MkContext.getDefault(), MkGeometry.A4_PORTRAIT, form());
+    String[][]records = { { "山田太郎", "1,000" }, { "Suzuki", "2,500" } };
+    for (String[]values: records) {
+      Output out = new Output();
+      template.fill(record(values[0], values[1]), out, false);
+      assertTrue(out.closed);
+      PdfReader reader = new PdfReader(out.toByteArray());
+      try {
+        assertEquals(values[0], reader.getAcroFields().getField("name"));
+        assertEquals(values[1], reader.getAcroFields().getField("amount"));
+      } finally {
+        reader.close();
+      }
+    }
+    assertEquals(2, template.getLatency().getCount());
+  }
+
+  /** フラット化するとフィールドは無くなり、値はページの内容となる */
+  @Test
+  public void flatten() throws Exception {
+    MkFormTemplate template = new MkFormTemplate(MkContext.getDefault(), MkGeometry.A4_PORTRAIT, form());
+    Output out = new Output();
+    template.fill(record("Sato", "3,000"), out, true);
+    PdfReader reader = new PdfReader(out.toByteArray());
+    try {
+      assertTrue(reader.getAcroFields().getFields().isEmpty());
+      String text = PdfTextExtractor.getTextFromPage(reader, 1);
+      assertTrue(text.contains("Sato"));
+      assertTrue(text.contains("3,000"));
+    } finally {
+      reader.close();
+    }
+  }
+
+  /** 様式に無いフィールドを指定すると例外となるが、出力先はクローズされる */
+  @Test
+  public void unknownField() throws Exception {
+    MkFormTemplate template = new MkFormTemplate(MkContext.getDefault(), MkGeometry.A4_PORTRAIT, form());
+    Output out = new Output();
+    try {
+      template.fill(Collections.singletonMap("none", "x"), out, false);
+      fail();
+    } catch (MkException ex) {
+    }
+    assertTrue(out.closed);
+  }
+}
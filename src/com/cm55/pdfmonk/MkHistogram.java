@@ -0,0 +1,121 @@
+package com.cm55.pdfmonk;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * 非負のlong値（典型的にはナノ秒単位の処理時間やバイト数）の分布を集計するヒストグラム
+ * <p>
+ * 値は対数的に区切られたバケットに振り分けられる。２のべき乗の区間それぞれをさらに{@link #SUB_BUCKETS}個に等分するため、
+ * パーセンタイル値の相対誤差は1/{@link #SUB_BUCKETS}以内となる。バケット数は固定であり、記録数が増えてもメモリは増加しない。
+ * </p>
+ * <p>
+ * 記録はスレッドセーフであり、ロックを使用しない。
+ * </p>
+ * @author ysugimura
+ */
+public class MkHistogram {
+
+  /** ２のべき乗の区間一つあたりのバケット数 */
+  static final int SUB_BUCKETS = 16;
+
+  /** {@link #SUB_BUCKETS}のビット数 */
+  private static final int SUB_BITS = 4;
+
+  /** バケット数 */
+  private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+  /** 各バケットの記録数 */
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  /** 総記録数 */
+  private final AtomicLong count = new AtomicLong();
+
+  /** 総和 */
+  private final AtomicLong sum = new AtomicLong();
+
+  /** 最大値 */
+  private final AtomicLong max = new AtomicLong();
+
+  /** 値を記録する。負値は0とみなす */
+  public void record(long value) {
+    if (value < 0) value = 0;
+    counts.incrementAndGet(bucketOf(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    max.accumulateAndGet(value, Math::max);
+  }
+
+  /** 総記録数を取得する */
+  public long getCount() {
+    return count.get();
+  }
+
+  /** 総和を取得する */
+  public long getSum() {
+    return sum.get();
+  }
+
+  /** 最大値を取得する */
+  public long getMax() {
+    return max.get();
+  }
+
+  /** 平均値を取得する。記録の無い場合は0 */
+  public double getMean() {
+    long n = count.get();
+    if (n == 0) return 0;
+    return (double)sum.get() / n;
+  }
+
+  /**
+   * パーセンタイル値を取得する。記録の無い場合は0
+   * @param percentile 0から100までのパーセンタイル
+   * @return 該当する値の概算
+   */
+  public long getPercentile(double percentile) {
+    long n = count.get();
+    if (n == 0) return 0;
+    long rank = (long)Math.ceil(n * Math.min(100, Math.max(0, percentile)) / 100);
+    if (rank < 1) rank = 1;
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) return Math.min(upperBoundOf(i), max.get());
+    }
+    return max.get();
+  }
+
+  /** すべての記録を消去する */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  /** 値の格納されるバケットを求める */
+  static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) return (int)value;
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int)(value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  /** バケットに格納される値の上限を求める */
+  static long upperBoundOf(int bucket) {
+    if (bucket < SUB_BUCKETS) return bucket;
+    int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+    long sub = bucket % SUB_BUCKETS;
+    long lower = (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+    long width = 1L << (exponent - SUB_BITS);
+    if (lower > Long.MAX_VALUE - width) return Long.MAX_VALUE;
+    return lower + width - 1;
+  }
+
+  /** デバッグ用。文字列化する */
+  @Override
+  public String toString() {
+    return "count:" + getCount() + ",mean:" + getMean() + ",p50:" + getPercentile(50) + ",p95:" + getPercentile(95) +
+        ",p99:" + getPercentile(99) + ",max:" + getMax();
+  }
+}
@@ -0,0 +1,30 @@
+package com.cm55.pdfmonk;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class MkHistogramTest {
+
+  @Test
+  public void bucket() {
+    for (long v: new long[] { 0, 1, 15, 16, 17, 100, 1000, 123456789L, Long.MAX_VALUE }) {
+      int bucket = MkHistogram.bucketOf(v);
+      assertTrue(v <= MkHistogram.upperBoundOf(bucket));
+      if (bucket > 0) assertTrue(v > MkHistogram.upperBoundOf(bucket - 1));
+    }
+  }
+  
+  @Test
+  public void percentile() {
+    MkHistogram h = new MkHistogram();
+    assertEquals(0, h.getPercentile(50));
+    for (int i = 1; i <= 1000; i++) h.record(i * 1000);
+    assertEquals(1000, h.getCount());
+    assertEquals(1000000, h.getMax());
+    assertEquals(500000, h.getPercentile(50), 500000 / MkHistogram.SUB_BUCKETS);
+    assertEquals(990000, h.getPercentile(99), 990000 / MkHistogram.SUB_BUCKETS);
+    assertEquals(1000000, h.getPercentile(100));
+    h.reset();
+    assertEquals(0, h.getCount());
+  }
+}
@@ -10,8 +10,13 @@ import com.itextpdf.text.*;
 
 /**
  * イメージ要素
+ * <p>
+ * 描画サイズや描画位置の設定はこのオブジェクトの状態を変更するため、複数のスレッドで同じオブジェクトを使用してはいけない。
+ * その場合には{@link #duplicate()}で複製したものを使用する。複製はデコード済のイメージデータを共有するので、
+ * イメージファイルの再読込やデコードは行われない。
+ * </p>
  */
-public class MkImage implements MkElement {
+public class MkImage implements MkElement, MkDuplicatable<MkImage> {
 
   private static final boolean DEBUG = false;
 
@@ -36,6 +41,20 @@ public class MkImage implements MkElement {
     }
   }
 
+  /** 複製のみに使用される */
+  private MkImage(Image image) {
+    this.image = image;
+  }
+
+  /** 
+   * 複製する。デコード済のイメージデータは共有され、描画サイズ等の状態のみが複製される。
+   * @return 複製されたイメージ
+   */
+  @Override
+  public MkImage duplicate() {
+    return new MkImage(Image.getInstance(image));
+  }
+
   /** イメージ自体のサイズを取得する。単位はピクセル */
   public int getPixelWidth() {
     return Math.round(image.getWidth());
@@ -98,13 +117,16 @@ public class MkImage implements MkElement {
    */
   public void setToContentByte(MkContentByte contentByte, MkDimension position) {
     setAbsolutePosition(contentByte.getGeometry(), position);
+    MkRenderListener listener = contentByte.getContext().getRenderListener();
+    long start = MkRenderPhase.start(listener);
     try {
-      contentByte.getITextContentByte().addImage(image);
+      contentByte.writer().addImage(image);
     } catch (Exception ex) {
       throw new MkException(ex);
     } finally {
       this.resetAbsolutePosition();
     }
+    MkRenderPhase.IMAGE.end(listener, start);
   }
 
   public void setToContentByteCentering(MkContentByte contentByte, MkUnit unit, float x, float y, float width, float height) {
@@ -121,19 +143,24 @@ public class MkImage implements MkElement {
    */
   public void setToContentByteCentering(MkContentByte contentByte, MkRect area) {
     setAbsolutePosition(contentByte.getGeometry(), topLeftInArea(area));
+    MkRenderListener listener = contentByte.getContext().getRenderListener();
+    long start = MkRenderPhase.start(listener);
     try {
-      contentByte.getITextContentByte().addImage(image);
+      contentByte.writer().addImage(image);
     } catch (Exception ex) {
       throw new MkException(ex);
     } finally {
       this.resetAbsolutePosition();
     }
+    MkRenderPhase.IMAGE.end(listener, start);
   }
 
   /** イメージ左上をドキュメントの指定位置に置く */
   public void setToDocument(MkDocument document, MkDimension position) {
     setAbsolutePosition(document.getGeometry(), position);
     flushEditing();
+    MkRenderListener listener = document.getContext().getRenderListener();
+    long start = MkRenderPhase.start(listener);
     try {
       document.getITextDocument().add(image);
     } catch (Exception ex) {
@@ -141,12 +168,15 @@ public class MkImage implements MkElement {
     } finally {
       this.resetAbsolutePosition();
     }
+    MkRenderPhase.IMAGE.end(listener, start);
   }
 
   /** イメージをドキュメント中の指定領域の中にセンタリングされるように置く */
   public MkImage setToDocumentCentering(MkDocument document, MkRect area) {
     setAbsolutePosition(document.getGeometry(), topLeftInArea(area));
     flushEditing();
+    MkRenderListener listener = document.getContext().getRenderListener();
+    long start = MkRenderPhase.start(listener);
     try {
       document.getITextDocument().add(image);
     } catch (Exception ex) {
@@ -154,6 +184,7 @@ public class MkImage implements MkElement {
     } finally {
       this.resetAbsolutePosition();
     }
+    MkRenderPhase.IMAGE.end(listener, start);
     return this;
   }
 
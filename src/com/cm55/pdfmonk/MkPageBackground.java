@@ -0,0 +1,62 @@
+package com.cm55.pdfmonk;
+
+import java.util.function.*;
+
+/**
+ * ページ背景
+ * <p>
+ * レターヘッド、枠線、固定の見出し等、すべてのページに共通の描画内容を{@link MkRecordedForm}として一度だけ記録しておき、
+ * {@link #attach(MkDocument)}したドキュメントの各ページの最下位層に置く。各ページに置かれるのは、ドキュメントに一つだけ取り込まれた
+ * フォームXObjectへの参照なので、ページ数が増えても描画内容が繰り返し出力されることはない。
+ * </p>
+ * <p>
+ * このオブジェクトは変更されないので、バッチ処理等で複数のドキュメントに対して共有することができる。
+ * その場合でも、描画内容のレイアウトは最初の一度しか行われない。
+ * </p>
+ * <pre>
+ * MkPageBackground background = new MkPageBackground(ctx, geo, canvas-&gt; {
+ *   ...固定の描画...
+ * });
+ * ...
+ * MkDocument doc = new MkDocument(ctx, geo, out);
+ * background.attach(doc);
+ * </pre>
+ * @author ysugimura
+ */
+public class MkPageBackground {
+
+  /** 背景として置くフォーム */
+  private final MkRecordedForm form;
+
+  /**
+   * 背景の描画内容を記録する。{@link MkRecordedForm#MkRecordedForm(MkContext, MkGeometry, Consumer)}を参照のこと。
+   * @param ctx コンテキスト
+   * @param geometry ジオメトリ。背景を置くドキュメントと同じ用紙サイズであること
+   * @param drawer 描画関数
+   */
+  public MkPageBackground(MkContext ctx, MkGeometry geometry, Consumer<MkCanvas>drawer) {
+    this(new MkRecordedForm(ctx, geometry, drawer));
+  }
+
+  /**
+   * 記録済のフォームを背景とする
+   * @param form フォーム
+   */
+  public MkPageBackground(MkRecordedForm form) {
+    this.form = form;
+  }
+
+  /** 背景のフォームを取得する */
+  public MkRecordedForm getForm() {
+    return form;
+  }
+
+  /**
+   * ドキュメントに背景を設定する。現在のページ以降のすべてのページに背景が置かれる。
+   * @param document 対象ドキュメント
+   */
+  public void attach(MkDocument document) {
+    MkCanvas canvas = document.getCanvasUnder();
+    document.addNewPageCallback(pageNumber->form.setToContentByte(canvas));
+  }
+}
@@ -0,0 +1,146 @@
+package com.cm55.pdfmonk;
+
+/**
+ * 「3 ページ / 全 10 ページ」のようなページ番号欄
+ * <p>
+ * {@link MkPageNumbering}は各ページにテンプレートを作成してすべて保持し、クローズ前に利用者がそれぞれに描画する必要があるが、
+ * このオブジェクトは以下のようにして、ページあたりの処理とメモリを一定に保つ。
+ * </p>
+ * <ul>
+ * <li>現在のページ番号は、改ページ時にそのページに直接描画する。
+ * <li>総ページ数は、ドキュメントに一つだけ作成したテンプレートを各ページに置いておき、{@link MkDocument#close()}の直前に
+ * 一度だけそのテンプレートに描画する。
+ * </ul>
+ * <p>
+ * 書式は{@link #setFormat(String)}で指定し、ページ番号を{@value #PAGE}、総ページ数を{@value #TOTAL}で表す。
+ * 総ページ数の幅は描画時点では不明なため、{@link #setTotalDigits(int)}で指定した桁数分の幅が確保される。
+ * 書式全体は、指定された領域内で{@link #setAlign(MkAlign)}のアラインメントで配置される。
+ * </p>
+ * <pre>
+ * MkDocument doc = new MkDocument(ctx, geo, out);
+ * new MkPageNumberField(ctx, geo.getBottomLeft(), new MkDimension(geo.getPrintWidth(), ctx.getFont().getSize()))
+ *   .setAlign(MkAlign.CENTER)
+ *   .attach(doc);
+ * ...
+ * doc.close();
+ * </pre>
+ * @author ysugimura
+ */
+public class MkPageNumberField {
+
+  /** 書式中のページ番号 */
+  public static final String PAGE = "{page}";
+
+  /** 書式中の総ページ数 */
+  public static final String TOTAL = "{total}";
+
+  /** コンテキスト */
+  private final MkContext ctx;
+
+  /** 欄の位置 */
+  private final MkDimension position;
+
+  /** 欄の大きさ */
+  private final MkDimension size;
+
+  /** 書式 */
+  private String format = PAGE + " ページ / 全 " + TOTAL + " ページ";
+
+  /** 欄内のアラインメント */
+  private MkAlign align = MkAlign.CENTER;
+
+  /** 総ページ数のために確保する桁数 */
+  private int totalDigits = 3;
+
+  /**
+   * 位置と大きさを指定する
+   * @param ctx コンテキスト。フォントが使用される
+   * @param unit 単位
+   * @param x 欄のx位置
+   * @param y 欄のy位置
+   * @param width 欄の幅
+   * @param height 欄の高さ
+   */
+  public MkPageNumberField(MkContext ctx, MkUnit unit, float x, float y, float width, float height) {
+    this(ctx, new MkDimension(unit, x, y), new MkDimension(unit, width, height));
+  }
+
+  /**
+   * 位置と大きさを指定する
+   * @param ctx コンテキスト。フォントが使用される
+   * @param position 欄の位置
+   * @param size 欄の大きさ
+   */
+  public MkPageNumberField(MkContext ctx, MkDimension position, MkDimension size) {
+    this.ctx = ctx;
+    this.position = position;
+    this.size = size;
+  }
+
+  /** 書式を指定する。{@link #PAGE}、{@link #TOTAL}を含むことができる */
+  public MkPageNumberField setFormat(String format) {
+    this.format = format;
+    return this;
+  }
+
+  /** 欄内のアラインメントを指定する */
+  public MkPageNumberField setAlign(MkAlign align) {
+    this.align = align;
+    return this;
+  }
+
+  /** 総ページ数のために確保する桁数を指定する */
+  public MkPageNumberField setTotalDigits(int totalDigits) {
+    this.totalDigits = totalDigits;
+    return this;
+  }
+
+  /**
+   * ドキュメントにページ番号欄を設定する。現在のページ以降のすべてのページに描画される。
+   * @param document 対象ドキュメント
+   */
+  public void attach(MkDocument document) {
+    MkCanvas canvas = document.getCanvasOver();
+    int index = format.indexOf(TOTAL);
+    String head = index < 0? format:format.substring(0, index);
+    String tail = index < 0? "":format.substring(index + TOTAL.length());
+    MkFont font = ctx.getFont();
+    float totalWidth = index < 0? 0:font.getStringWidth(zeros(totalDigits)).ptValue();
+
+    // 総ページ数用のテンプレートは一つだけ作成し、クローズ直前に描画する
+    MkTemplate total = index < 0? null:canvas.createTemplate(new MkDimension(new MkLen(MkUnit.PT, totalWidth), size.y));
+    if (total != null) {
+      document.addCloseCallback(pageCount->new MkTextBlock(ctx, "" + pageCount).setToContentByte(total, MkDimension.ZERO));
+    }
+
+    document.addNewPageCallback(pageNumber-> {
+      String headText = head.replace(PAGE, "" + pageNumber);
+      String tailText = tail.replace(PAGE, "" + pageNumber);
+      float headWidth = font.getStringWidth(headText).ptValue();
+      float tailWidth = font.getStringWidth(tailText).ptValue();
+      float x = position.x.ptValue() + offset(headWidth + totalWidth + tailWidth);
+      if (!headText.isEmpty())
+        new MkTextBlock(ctx, headText).setToContentByte(canvas, new MkDimension(new MkLen(MkUnit.PT, x), position.y));
+      if (total != null)
+        canvas.setTemplate(total, new MkDimension(new MkLen(MkUnit.PT, x + headWidth), position.y));
+      if (!tailText.isEmpty())
+        new MkTextBlock(ctx, tailText).setToContentByte(canvas,
+          new MkDimension(new MkLen(MkUnit.PT, x + headWidth + totalWidth), position.y));
+    });
+  }
+
+  /** 欄内のアラインメントによる描画開始位置のずれを求める */
+  private float offset(float width) {
+    switch (align) {
+    case CENTER: return (size.x.ptValue() - width) / 2;
+    case RIGHT: return size.x.ptValue() - width;
+    default: return 0;
+    }
+  }
+
+  private static String zeros(int digits) {
+    StringBuilder s = new StringBuilder();
+    for (int i = 0; i < digits; i++) s.append('0');
+    return s.toString();
+  }
+}
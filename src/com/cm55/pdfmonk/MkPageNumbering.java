@@ -35,6 +35,9 @@ import com.cm55.pdfmonk.*;
  * });
  * doc.close();
  * </pre>
+ * <p>
+ * 単に「第*ページ / 全*ページ」を描画するだけであれば、ページごとにテンプレートを保持しない{@link MkPageNumberField}を用いる方がよい。
+ * </p>
  * @author ysugimura
  */
 public class MkPageNumbering {
@@ -0,0 +1,257 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+import com.itextpdf.text.*;
+import com.itextpdf.text.pdf.*;
+
+/**
+ * 一つの大きなPDFの全ページに、ページ範囲ごとに並列にスタンプする
+ * <p>
+ * 数万ページのPDFに通し番号をふるような場合、{@link MkStamper}では一つのスレッドで一ページずつ処理することになる。
+ * このオブジェクトは、ページを指定ページ数ごとの範囲に分割し、各範囲を別々のスレッドで一時ファイルにスタンプした後、
+ * それらを元の順序で{@link MkPdfBinder}によって結合する。結合後にはページ数が元と同じであることが確認される。
+ * 結合時には重複排除が行われるので、複数の範囲から参照される画像や埋込フォントは一度だけ出力されるが、
+ * 範囲ごとにサブセット化されたフォントは内容が異なるため、範囲ごとに出力される。
+ * 結合のために全ページをもう一度読み書きするので、複数のプロセッサで並列に処理できない環境では{@link MkStamper}より遅い。
+ * </p>
+ * <p>
+ * 各範囲はページのみをコピーして作り直されるため、{@link MkStamper}とは異なり、出力は元の文書の一部を失う。
+ * 文書情報とXMPメタデータは引き継がれるが、しおり、フォームのフィールド、ページラベル、名前付きの移動先、
+ * 文書構造、レイヤといった文書全体の情報は失われる。
+ * 元のPDFがこれらを持つ場合には例外となるので、失ってよい場合にのみ{@link #setLossy(boolean)}を指定する。
+ * </p>
+ * <p>
+ * 各スレッドは元のファイルを別々にメモリマップし、その範囲のページから参照されるオブジェクトのみを読み込む。
+ * 各ページの描画関数には、{@link MkStamper#getContentByteOver(int)}と同様の{@link MkContentByte}と、元のPDFにおけるページ番号が渡される。
+ * </p>
+ * <pre>
+ * MkBatchStats stats = new MkParallelStamper(ctx, geo, in, out)
+ *   .setChunkPages(500)
+ *   .run((cb, page, pageCount)-&gt;new MkTextBlock(cb.getContext(), String.format("%06d", page)).setToContentByte(cb, MkUnit.MM, 0, 0));
+ * </pre>
+ * @author ysugimura
+ */
+public class MkParallelStamper {
+
+  /**
+   * 各ページの描画関数
+   */
+  @FunctionalInterface
+  public interface PageStamper {
+    /**
+     * 一ページ分を描画する。複数のスレッドから同時に呼び出される。
+     * @param contentByte そのページの最前面のコンテントバイト
+     * @param pageNumber 元のPDFにおけるページ番号。１から
+     * @param pageCount 元のPDFの総ページ数
+     */
+    public void stamp(MkContentByte contentByte, int pageNumber, int pageCount) throws Exception;
+  }
+
+  /** 共有コンテキスト。範囲ごとに複製される */
+  private final MkContext sharedContext;
+
+  /** ページのジオメトリ */
+  private final MkGeometry geometry;
+
+  /** 入力ファイル */
+  private final Path input;
+
+  /** 出力ファイル */
+  private final Path output;
+
+  /** スレッド数 */
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  /** 一つの範囲のページ数 */
+  private int chunkPages = 1000;
+
+  /** 結合時に失われる文書全体の情報を持つ入力を許す */
+  private boolean lossy;
+
+  /** 結合時に失われる、カタログ中の文書全体の情報 */
+  private static final PdfName[] DOCUMENT_LEVEL = {
+    PdfName.OUTLINES, PdfName.ACROFORM, PdfName.PAGELABELS, PdfName.DESTS, PdfName.NAMES,
+    PdfName.STRUCTTREEROOT, PdfName.OCPROPERTIES
+  };
+
+  /**
+   * 入力ファイルと出力ファイルを指定する
+   * @param sharedContext 共有コンテキスト
+   * @param geometry ページのジオメトリ
+   * @param input 入力ファイル
+   * @param output 出力ファイル。入力ファイルと同じであってはならない
+   */
+  public MkParallelStamper(MkContext sharedContext, MkGeometry geometry, Path input, Path output) {
+    this.sharedContext = sharedContext;
+    this.geometry = geometry;
+    this.input = input;
+    this.output = output;
+  }
+
+  /** スレッド数を指定する。デフォルトはプロセッサ数 */
+  public MkParallelStamper setThreads(int threads) {
+    if (threads < 1) throw new MkException("threads must be positive");
+    this.threads = threads;
+    return this;
+  }
+
+  /** 一つの範囲のページ数を指定する。デフォルトは1000 */
+  public MkParallelStamper setChunkPages(int chunkPages) {
+    if (chunkPages < 1) throw new MkException("chunkPages must be positive");
+    this.chunkPages = chunkPages;
+    return this;
+  }
+
+  /**
+   * 失われる文書全体の情報を持つ入力を許すかを指定する。デフォルトはfalse
+   * @param value trueの場合、しおり、フォームのフィールド等を持つ入力であっても、それらを捨てて出力する
+   * @return このオブジェクト
+   */
+  public MkParallelStamper setLossy(boolean value) {
+    this.lossy = value;
+    return this;
+  }
+
+  /**
+   * 全ページにスタンプし、出力ファイルを作成する。いずれかの範囲が失敗した場合は、出力ファイルは作成されず例外となる。
+   * 入力が文書全体の情報を持ち、{@link #setLossy(boolean)}が指定されていない場合は、何もせずに例外となる。
+   * @param pageStamper 各ページの描画関数
+   * @return 処理統計。一つの範囲を一つのジョブとする。結合の時間は含まれない
+   */
+  public MkBatchStats run(PageStamper pageStamper) {
+    int pageCount;
+    Map<String, String>info;
+    byte[]xmpMetadata;
+    try {
+      PdfReader reader = new PdfReader(MkPdfBinder.randomAccess(input), null);
+      try {
+        if (!lossy) {
+          for (PdfName key: DOCUMENT_LEVEL) {
+            if (reader.getCatalog().contains(key)) throw new MkException("input has " + key + ", which would be lost");
+          }
+        }
+        pageCount = reader.getNumberOfPages();
+        // 更新日時と作成者のソフトウェアは新たに設定される
+        info = reader.getInfo();
+        info.remove("ModDate");
+        info.remove("Producer");
+        xmpMetadata = reader.getMetadata();
+      } finally {
+        reader.close();
+      }
+    } catch (IOException ex) {
+      throw new MkException(ex);
+    }
+    MkBatchStats stats = new MkBatchStats();
+    List<Path>parts = new ArrayList<>();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    boolean binding = false;
+    boolean done = false;
+    try {
+      List<Future<?>>futures = new ArrayList<>();
+      for (int first = 1; first <= pageCount; first += chunkPages) {
+        int last = Math.min(pageCount, first + chunkPages - 1);
+        Path part = Files.createTempFile(output.toAbsolutePath().getParent(), "part", ".pdf");
+        parts.add(part);
+        stats.submitted(System.nanoTime());
+        int firstPage = first;
+        futures.add(executor.submit(()->stampRange(firstPage, last, pageCount, part, pageStamper, stats)));
+      }
+      for (Future<?>future: futures) future.get();
+      if (stats.getFailureCount() > 0) throw new MkException(stats.getFailures().get(0));
+
+      binding = true;
+      MkPdfBinder binder = new MkPdfBinder(output.toFile()).setLowMemory(chunkPages).setDeduplicate(true)
+        .setInfo(info).setXmpMetadata(xmpMetadata);
+      try {
+        for (Path part: parts) binder.add(part);
+      } catch (RuntimeException ex) {
+        try {
+          binder.close();
+        } catch (RuntimeException closeEx) {
+          ex.addSuppressed(closeEx);
+        }
+        throw ex;
+      }
+      binder.close();
+      long merged = binder.getStats().getPageCount();
+      if (merged != pageCount) throw new MkException("page count mismatch:" + merged + " != " + pageCount);
+      done = true;
+      return stats;
+    } catch (IOException ex) {
+      throw new MkException(ex);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new MkException(ex);
+    } catch (ExecutionException ex) {
+      throw new MkException(ex.getCause());
+    } finally {
+      executor.shutdownNow();
+      for (Path part: parts) {
+        try {
+          Files.deleteIfExists(part);
+        } catch (IOException ex) {
+        }
+      }
+      // 結合の途中で失敗した場合は、不完全な出力ファイルを残さない
+      if (binding && !done) {
+        try {
+          Files.deleteIfExists(output);
+        } catch (IOException ex) {
+        }
+      }
+    }
+  }
+
+  /**
+   * 一つの範囲にスタンプし、一時ファイルに出力する
+   * @param firstPage 最初のページ
+   * @param lastPage 最後のページ
+   * @param pageCount 元のPDFの総ページ数
+   * @param part 一時ファイル
+   * @param pageStamper 各ページの描画関数
+   * @param stats 処理統計
+   */
+  private void stampRange(int firstPage, int lastPage, int pageCount, Path part, PageStamper pageStamper, MkBatchStats stats) {
+    long start = System.nanoTime();
+    try {
+      MkContext ctx = sharedContext.duplicate();
+      PdfReader reader = new PdfReader(MkPdfBinder.randomAccess(input), null);
+      MkContentByte first = null;
+      try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(part))) {
+        // PdfStamperでページを選択すると全オブジェクトが読み込まれるため、範囲のページのみをコピーしながらスタンプする
+        Document document = new Document(reader.getPageSizeWithRotation(firstPage));
+        PdfCopy copy = new PdfCopy(document, out);
+        document.open();
+        for (int page = firstPage; page <= lastPage; page++) {
+          PdfImportedPage imported = copy.getImportedPage(reader, page);
+          PdfCopy.PageStamp stamp = copy.createPageStamp(imported);
+          MkContentByte contentByte = new MkContentByte(ctx, stamp.getOverContent(), geometry);
+          // 作成されたテンプレートとテンプレートのキャッシュは範囲内の全ページで共有し、範囲の終了時にまとめてグループを終了する
+          if (first == null) first = contentByte;
+          else {
+            contentByte.shareTemplates(first);
+            contentByte.shareTemplateCache(first);
+          }
+          pageStamper.stamp(contentByte, page, pageCount);
+          MkContentWriter.endPage(ctx.getRenderListener(), page, contentByte.writer());
+          stamp.alterContents();
+          copy.addPage(imported);
+        }
+        if (first != null) first.closeTemplates();
+        document.close();
+      } finally {
+        reader.close();
+        if (first != null) first.closeReaders();
+      }
+      stats.succeeded(System.nanoTime() - start, lastPage - firstPage + 1, Files.size(part));
+    } catch (Throwable th) {
+      stats.failed(System.nanoTime() - start, th);
+    }
+  }
+}
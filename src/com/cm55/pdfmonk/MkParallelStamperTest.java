@@ -0,0 +1,98 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.itextpdf.text.pdf.*;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+
+public class MkParallelStamperTest {
+
+  private Path dir;
+  private Path input;
+  private Path output;
+
+  @Before
+  public void before() throws IOException {
+    dir = Files.createTempDirectory("pdfmonk");
+    input = dir.resolve("in.pdf");
+    output = dir.resolve("out.pdf");
+    PdfReader reader = new PdfReader(MkPdfBinderTest.pdf(MkPdfBinderTest.image(), 5));
+    try (OutputStream out = Files.newOutputStream(input)) {
+      PdfStamper stamper = new PdfStamper(reader, out);
+      Map<String, String>info = reader.getInfo();
+      info.put("Title", "parallel");
+      stamper.setMoreInfo(new HashMap<>(info));
+      stamper.close();
+    } catch (Exception ex) {
+      throw new IOException(ex);
+    } finally {
+      reader.close();
+    }
+  }
+
+  @After
+  public void after() throws IOException {
+    try (DirectoryStream<Path>files = Files.newDirectoryStream(dir)) {
+      for (Path file: files) Files.delete(file);
+    }
+    Files.delete(dir);
+  }
+
+  private MkBatchStats run(MkParallelStamper stamper) {
+    return stamper.setThreads(2).setChunkPages(2).run((contentByte, page, pageCount)->
+      new MkTextBlock(contentByte.getContext(), "stamp " + page + "/" + pageCount).setToContentByte(contentByte, MkUnit.MM, 10, 150));
+  }
+
+  /** 各ページに元のページ番号でスタンプされ、文書情報が引き継がれ、範囲をまたいだ画像は一つにまとめられる */
+  @Test
+  public void stamp() throws IOException {
+    MkBatchStats stats = run(new MkParallelStamper(MkContext.getDefault(), MkGeometry.A4_PORTRAIT, input, output));
+    assertEquals(3, stats.getJobCount());
+    assertEquals(5, stats.getPageCount());
+    PdfReader reader = new PdfReader(output.toString());
+    try {
+      assertEquals(5, reader.getNumberOfPages());
+      assertEquals("parallel", reader.getInfo().get("Title"));
+      Set<Integer>images = new HashSet<>();
+      for (int page = 1; page <= 5; page++) {
+        String text = PdfTextExtractor.getTextFromPage(reader, page);
+        assertTrue(text.contains("page " + page));
+        assertTrue(text.contains("stamp " + page + "/5"));
+        PdfDictionary xobjects = reader.getPageN(page).getAsDict(PdfName.RESOURCES).getAsDict(PdfName.XOBJECT);
+        for (PdfName name: xobjects.getKeys()) images.add(xobjects.getAsIndirectObject(name).getNumber());
+      }
+      assertEquals(1, images.size());
+    } finally {
+      reader.close();
+    }
+  }
+
+  /** 失われる文書全体の情報を持つ入力は、指定しない限り例外となる */
+  @Test
+  public void lossy() throws Exception {
+    Path labeled = dir.resolve("labeled.pdf");
+    PdfReader reader = new PdfReader(input.toString());
+    try (OutputStream out = Files.newOutputStream(labeled)) {
+      PdfStamper stamper = new PdfStamper(reader, out);
+      PdfPageLabels labels = new PdfPageLabels();
+      labels.addPageLabel(1, PdfPageLabels.LOWERCASE_ROMAN_NUMERALS);
+      stamper.getWriter().setPageLabels(labels);
+      stamper.close();
+    } finally {
+      reader.close();
+    }
+    try {
+      run(new MkParallelStamper(MkContext.getDefault(), MkGeometry.A4_PORTRAIT, labeled, output));
+      fail();
+    } catch (MkException ex) {
+    }
+    assertFalse(Files.exists(output));
+    run(new MkParallelStamper(MkContext.getDefault(), MkGeometry.A4_PORTRAIT, labeled, output).setLossy(true));
+    assertEquals(5, MkPdfBinderTest.pageCount(Files.readAllBytes(output)));
+  }
+}
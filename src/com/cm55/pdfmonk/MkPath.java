@@ -0,0 +1,192 @@
+package com.cm55.pdfmonk;
+
+import java.util.*;
+
+/**
+ * {@link MkContentByte}に直接描画するパス
+ * <p>
+ * 座標は指定された単位で、印刷領域左上を原点として右下方向に広がる。複数の図形を一つのパスにまとめると、
+ * {@link MkContentByte#drawPath(MkPath)}等の一回の呼び出しで、線幅や色の設定と描画の演算子が一度だけ出力される。
+ * パスは何度でも描画することができる。
+ * </p>
+ * <pre>
+ * MkPath path = new MkPath(MkUnit.MM);
+ * for (int row = 0; row &lt;= 10; row++) path.moveTo(0, row * 5).lineTo(100, row * 5);
+ * canvas.setLineWidth(MkUnit.MM, 0.1f).drawPath(path);
+ * </pre>
+ * @author ysugimura
+ */
+public class MkPath {
+
+  private static final byte MOVE = 0;
+  private static final byte LINE = 1;
+  private static final byte CURVE = 2;
+  private static final byte CLOSE = 3;
+  private static final byte RECT = 4;
+  private static final byte ROUND_RECT = 5;
+
+  /** 座標の単位 */
+  private final MkUnit unit;
+
+  /** 操作の種類 */
+  private byte[]ops = new byte[16];
+  private int opCount;
+
+  /** 操作の座標の並び */
+  private float[]coords = new float[64];
+  private int coordCount;
+
+  /**
+   * 座標の単位を指定する
+   * @param unit 座標の単位
+   */
+  public MkPath(MkUnit unit) {
+    this.unit = unit;
+  }
+
+  /** 座標の単位を取得する */
+  public MkUnit getUnit() {
+    return unit;
+  }
+
+  /** 何も追加されていないか */
+  public boolean isEmpty() {
+    return opCount == 0;
+  }
+
+  /** 新たなサブパスを開始する */
+  public MkPath moveTo(float x, float y) {
+    op(MOVE, 2);
+    coords[coordCount++] = x;
+    coords[coordCount++] = y;
+    return this;
+  }
+
+  /** 現在位置から直線を引く */
+  public MkPath lineTo(float x, float y) {
+    op(LINE, 2);
+    coords[coordCount++] = x;
+    coords[coordCount++] = y;
+    return this;
+  }
+
+  /** 現在位置から、二つの制御点を持つベジェ曲線を引く */
+  public MkPath curveTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+    op(CURVE, 6);
+    coords[coordCount++] = x1;
+    coords[coordCount++] = y1;
+    coords[coordCount++] = x2;
+    coords[coordCount++] = y2;
+    coords[coordCount++] = x3;
+    coords[coordCount++] = y3;
+    return this;
+  }
+
+  /** 現在のサブパスを閉じる */
+  public MkPath closePath() {
+    op(CLOSE, 0);
+    return this;
+  }
+
+  /** 左上位置と大きさを指定して矩形を追加する */
+  public MkPath rect(float x, float y, float width, float height) {
+    op(RECT, 4);
+    coords[coordCount++] = x;
+    coords[coordCount++] = y;
+    coords[coordCount++] = width;
+    coords[coordCount++] = height;
+    return this;
+  }
+
+  /** 左上位置と大きさ、角の半径を指定して角丸矩形を追加する */
+  public MkPath roundRect(float x, float y, float width, float height, float radius) {
+    op(ROUND_RECT, 5);
+    coords[coordCount++] = x;
+    coords[coordCount++] = y;
+    coords[coordCount++] = width;
+    coords[coordCount++] = height;
+    coords[coordCount++] = radius;
+    return this;
+  }
+
+  /**
+   * 折れ線を追加する
+   * @param xy x, yの順に並べた頂点の座標。二点以上
+   */
+  public MkPath polyline(float...xy) {
+    if (xy.length < 4 || xy.length % 2 != 0) throw new MkException("polyline requires x,y pairs of two or more points");
+    moveTo(xy[0], xy[1]);
+    for (int i = 2; i < xy.length; i += 2) lineTo(xy[i], xy[i + 1]);
+    return this;
+  }
+
+  /**
+   * 閉じた多角形を追加する
+   * @param xy x, yの順に並べた頂点の座標。二点以上
+   */
+  public MkPath polygon(float...xy) {
+    return polyline(xy).closePath();
+  }
+
+  /** 全てを削除し、再利用できるようにする */
+  public MkPath clear() {
+    opCount = 0;
+    coordCount = 0;
+    return this;
+  }
+
+  /**
+   * 操作を追加し、その座標を格納できるよう領域を確保する。座標は呼び出し側で{@link #coords}に直接格納する
+   * @param op 操作の種類
+   * @param coordinates 操作の座標の数
+   */
+  private void op(byte op, int coordinates) {
+    if (opCount == ops.length) ops = Arrays.copyOf(ops, opCount * 2);
+    if (coordCount + coordinates > coords.length) coords = Arrays.copyOf(coords, Math.max(coords.length * 2, coordCount + coordinates));
+    ops[opCount++] = op;
+  }
+
+  /**
+   * PDFのコンテンツバイトにパスを構築する。描画の演算子は出力しない
+   * @param writer 出力先
+   * @param geometry 出力先のジオメトリ
+   */
+  void appendTo(MkContentWriter writer, MkGeometry geometry) {
+    float scale = unit.scalingTo(MkUnit.PT);
+    float left = geometry.margins.left.ptValue();
+    float top = geometry.size.y.ptValue() - geometry.margins.top.ptValue();
+    int c = 0;
+    for (int i = 0; i < opCount; i++) {
+      switch (ops[i]) {
+      case MOVE:
+        writer.moveTo(left + coords[c] * scale, top - coords[c + 1] * scale);
+        c += 2;
+        break;
+      case LINE:
+        writer.lineTo(left + coords[c] * scale, top - coords[c + 1] * scale);
+        c += 2;
+        break;
+      case CURVE:
+        writer.curveTo(
+          left + coords[c] * scale, top - coords[c + 1] * scale,
+          left + coords[c + 2] * scale, top - coords[c + 3] * scale,
+          left + coords[c + 4] * scale, top - coords[c + 5] * scale);
+        c += 6;
+        break;
+      case CLOSE:
+        writer.closePath();
+        break;
+      case RECT:
+        writer.rectangle(left + coords[c] * scale, top - (coords[c + 1] + coords[c + 3]) * scale,
+          coords[c + 2] * scale, coords[c + 3] * scale);
+        c += 4;
+        break;
+      case ROUND_RECT:
+        writer.roundRectangle(left + coords[c] * scale, top - (coords[c + 1] + coords[c + 3]) * scale,
+          coords[c + 2] * scale, coords[c + 3] * scale, coords[c + 4] * scale);
+        c += 5;
+        break;
+      }
+    }
+  }
+}
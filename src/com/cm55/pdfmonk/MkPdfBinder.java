@@ -1,6 +1,9 @@
 package com.cm55.pdfmonk;
 
 import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 import com.itextpdf.text.*;
 import com.itextpdf.text.io.*;
@@ -12,6 +15,25 @@ import com.itextpdf.text.pdf.*;
  * 単純に出力先を指定して、入力とするPDFを次々に指定していき、最後にクローズする。
  * 入力としては、バイト配列、入力ストリーム、ファイルのいずれでもよい。
  * </p>
+ * <p>
+ * 大きなファイルの場合には{@link #add(Path)}を用いる。ファイルはメモリマップされ、実際に参照されるオブジェクトのみが読み込まれるので、
+ * ファイル全体がヒープ上に置かれることはない。{@link #add(Path, int, int)}では、指定範囲のページのみを出力する。
+ * </p>
+ * <p>
+ * 同じフォントやロゴを含む多数のPDFをまとめる場合には、{@link #setDeduplicate(boolean)}を指定すると、
+ * 内容の同一なストリーム（フォント、画像、フォームXObject等）は一度だけ出力される。
+ * 処理統計は{@link #getStats()}で取得できる。
+ * </p>
+ * <p>
+ * 多数のファイルをまとめる場合には、{@link #setPipeline(int, int)}を指定すると、入力の解析は別スレッドで並行して行われ、
+ * 呼び出しスレッドは解析済の入力を追加順に出力するだけになる。先読みする入力数は指定された数までに制限されるので、
+ * メモリ使用量は入力数にかかわらず一定に保たれる。
+ * </p>
+ * <p>
+ * 数万件の入力をまとめる場合には、{@link #setLowMemory(int)}を指定する。各入力の出力が終わった時点で、
+ * その入力のための取込情報を解放し、指定ページ数ごとに出力をフラッシュする。
+ * 入力ごとのヒープ使用量は{@link MkBindStats.Input#getHeapBytes()}で確認できる。
+ * </p>
  * @author ysugimura
  */
 public class MkPdfBinder {
@@ -20,6 +42,36 @@ public class MkPdfBinder {
   private Document document = null;
   private PdfCopy copy = null;
 
+  /** 同一内容のストリームを一度だけ出力する */
+  private boolean deduplicate;
+
+  /** 処理統計 */
+  private final MkBindStats stats = new MkBindStats();
+
+  /** 入力解析用のスレッドプール。nullの場合は呼び出しスレッドで解析する */
+  private ExecutorService readers;
+
+  /** {@link #readers}をこのオブジェクトが作成したか */
+  private boolean ownReaders;
+
+  /** 先読みする入力数 */
+  private int prefetch;
+
+  /** 出力をフラッシュするページ数。0の場合は低メモリモードではない */
+  private int flushPages;
+
+  /** 前回のフラッシュ以降に出力したページ数 */
+  private int unflushedPages;
+
+  /** 出力の文書情報。nullの場合は指定しない */
+  private Map<String, String>info;
+
+  /** 出力のXMPメタデータ。nullの場合は指定しない */
+  private byte[]xmpMetadata;
+
+  /** 解析中あるいは解析済で、出力待ちの入力。追加順 */
+  private final Deque<Future<Parsed>>pending = new ArrayDeque<>();
+
   /**
    * 出力先ファイルを指定する。オープンされるが、このオブジェクトのクローズ時に自動的にクローズされる。
    * @param file
@@ -41,17 +93,100 @@ public class MkPdfBinder {
     this.output = out;
   }
 
+  /**
+   * 重複排除モードを指定する。最初のPDFを追加する前に指定しなければならない。
+   * 重複の検出のために各ストリームのハッシュ値を計算するので、重複の無い入力の場合には単に遅くなる。
+   * @param value trueの場合、内容の同一なストリームを一度だけ出力する
+   * @return このオブジェクト
+   */
+  public MkPdfBinder setDeduplicate(boolean value) {
+    if (copy != null) throw new MkException("already started");
+    this.deduplicate = value;
+    return this;
+  }
+
+  /**
+   * パイプラインモードを指定する。入力の解析は指定数のスレッドで行われ、クローズ時にそれらは終了する。
+   * @param threads 解析スレッド数
+   * @param prefetch 先読みする入力数。この数を超えると、{@link #add(File)}等は先頭の入力の出力が終わるまで戻らない
+   * @return このオブジェクト
+   */
+  public MkPdfBinder setPipeline(int threads, int prefetch) {
+    setPipeline(Executors.newFixedThreadPool(threads), prefetch);
+    ownReaders = true;
+    return this;
+  }
+
+  /**
+   * パイプラインモードを指定する。入力の解析は指定されたスレッドプールで行われる。プールはクローズ時にも終了されない。
+   * @param readers 解析用のスレッドプール
+   * @param prefetch 先読みする入力数。この数を超えると、{@link #add(File)}等は先頭の入力の出力が終わるまで戻らない
+   * @return このオブジェクト
+   */
+  public MkPdfBinder setPipeline(ExecutorService readers, int prefetch) {
+    if (copy != null || !pending.isEmpty()) throw new MkException("already started");
+    if (prefetch < 1) throw new MkException("prefetch must be positive");
+    this.readers = readers;
+    this.ownReaders = false;
+    this.prefetch = prefetch;
+    return this;
+  }
+
+  /**
+   * 低メモリモードを指定する。
+   * 各入力のページを出力し終えた時点で、{@link PdfCopy#freeReader(PdfReader)}によってその入力の取込情報を解放し、
+   * 指定ページ数を出力するごとに出力ストリームをフラッシュする。
+   * 解放後の入力のオブジェクトは再利用されないため、複数の入力が同じリソースを持つ場合には、
+   * {@link #setDeduplicate(boolean)}を併用しない限り、それぞれ出力される。
+   * @param flushPages 出力をフラッシュするページ数
+   * @return このオブジェクト
+   */
+  public MkPdfBinder setLowMemory(int flushPages) {
+    if (flushPages < 1) throw new MkException("flushPages must be positive");
+    this.flushPages = flushPages;
+    return this;
+  }
+
+  /**
+   * 出力の文書情報を指定する。最初のPDFを追加する前に指定しなければならない。
+   * 各入力の文書情報は出力されないので、元の文書情報を残す場合には{@link PdfReader#getInfo()}等を指定する。
+   * Producerは置き換えられる。
+   * @param info 文書情報。キーはTitle、Author等
+   * @return このオブジェクト
+   */
+  public MkPdfBinder setInfo(Map<String, String>info) {
+    if (copy != null) throw new MkException("already started");
+    this.info = info;
+    return this;
+  }
+
+  /**
+   * 出力のXMPメタデータを指定する。最初のPDFを追加する前に指定しなければならない。
+   * @param xmpMetadata XMPメタデータ
+   * @return このオブジェクト
+   */
+  public MkPdfBinder setXmpMetadata(byte[]xmpMetadata) {
+    if (copy != null) throw new MkException("already started");
+    this.xmpMetadata = xmpMetadata;
+    return this;
+  }
+
+  /** 処理統計を取得する */
+  public MkBindStats getStats() {
+    return stats;
+  }
+
   /** バイト配列の形のPDFを追加する */
   public void add(byte[] bytes) {
-    add(new RandomAccessFileOrArray(
-        new RandomAccessSourceFactory().createSource(bytes)));
+    add(()->new RandomAccessFileOrArray(
+        new RandomAccessSourceFactory().createSource(bytes)), 1, Integer.MAX_VALUE, false);
   }
 
-  /** 入力ストリームの形のPDFを追加する */
+  /** 入力ストリームの形のPDFを追加する。パイプラインモードであっても、ストリームはこの呼び出し中に読み込まれる */
   public void add(InputStream in) {
     try {
-    add(new RandomAccessFileOrArray(
-        new RandomAccessSourceFactory().createSource(in)));
+      RandomAccessSource source = new RandomAccessSourceFactory().createSource(in);
+      add(()->new RandomAccessFileOrArray(source), 1, Integer.MAX_VALUE, false);
     } catch (IOException ex) {
       throw new MkException(ex);
     }
@@ -59,45 +194,265 @@ public class MkPdfBinder {
 
   /** ファイルの形のPDFを追加する */
   public void add(File file) {
+    add(()-> {
+      try (InputStream in = new FileInputStream(file)) {
+        return new RandomAccessFileOrArray(new RandomAccessSourceFactory().createSource(in));
+      }
+    }, 1, Integer.MAX_VALUE, false);
+  }
+
+  /**
+   * ファイルの形のPDFをランダムアクセスで追加する。
+   * ファイルはメモリマップされ、出力するページから参照されるオブジェクトのみが読み込まれる。
+   * パイプラインモードであっても、解析スレッドではクロスリファレンスとページツリーのみを読み込む。
+   * @param path ファイル
+   */
+  public void add(Path path) {
+    add(path, 1, Integer.MAX_VALUE);
+  }
+
+  /**
+   * ファイルの形のPDFの指定範囲のページのみをランダムアクセスで追加する。
+   * @param path ファイル
+   * @param firstPage 最初のページ。１からページ数まで。ページ数を超える場合は{@link MkException}となる
+   * @param lastPage 最後のページ。ページ数を超える場合は最後のページまで
+   */
+  public void add(Path path, int firstPage, int lastPage) {
+    if (firstPage < 1 || lastPage < firstPage) throw new MkException("invalid page range " + firstPage + "-" + lastPage);
+    add(()->randomAccess(path), firstPage, lastPage, true);
+  }
+
+  /** ファイルをメモリマップしたランダムアクセス入力を作成する */
+  static RandomAccessFileOrArray randomAccess(Path path) throws IOException {
+    return new RandomAccessFileOrArray(new RandomAccessSourceFactory().createBestSource(path.toString()));
+  }
+  /**
+   * 入力の内容を出力に追加する。
+   * パイプラインモードの場合は解析を依頼し、先読み数を超えた分を出力する。
+   * @param source 追加する入力
+   * @param firstPage 出力する最初のページ
+   * @param lastPage 出力する最後のページ
+   * @param randomAccess 入力がランダムアクセス可能であり、常に部分的に読み込む
+   */
+  private void add(Source source, int firstPage, int lastPage, boolean randomAccess) {
+    boolean partial = readers == null || randomAccess;
+    if (readers == null) {
+      addReader(parse(source, partial, firstPage, lastPage));
+      return;
+    }
+    pending.add(readers.submit(()->parse(source, partial, firstPage, lastPage)));
+    while (pending.size() > prefetch) addReader(join(pending.remove()));
+  }
+
+  /**
+   * 入力を解析する。
+   * パイプラインモードの場合は、出力時に解析スレッドの処理が残らないよう、通常は全オブジェクトを読み込む。
+   * 最初のページが入力のページ数を超える場合は{@link MkException}となる。
+   * @param source 入力
+   * @param partial 部分的に読み込む
+   * @param firstPage 出力する最初のページ
+   * @param lastPage 出力する最後のページ
+   * @return 解析結果
+   */
+  private Parsed parse(Source source, boolean partial, int firstPage, int lastPage) {
+    long start = System.nanoTime();
     try {
-    add(new RandomAccessFileOrArray(
-        new RandomAccessSourceFactory().createSource(new FileInputStream(file))));
+      RandomAccessFileOrArray file = source.open();
+      PdfReader reader;
+      try {
+        reader = new PdfReader(file, null, partial); // ここがポイント
+      } catch (IOException | RuntimeException ex) {
+        // 解析に失敗した場合、itextは入力をクローズしない
+        file.close();
+        throw ex;
+      }
+      if (firstPage > reader.getNumberOfPages()) {
+        int pageCount = reader.getNumberOfPages();
+        reader.close();
+        throw new MkException("first page " + firstPage + " exceeds page count " + pageCount);
+      }
+      reader.consolidateNamedDestinations();
+      return new Parsed(reader, firstPage, lastPage, System.nanoTime() - start);
     } catch (IOException ex) {
       throw new MkException(ex);
     }
   }
 
+  private static Parsed join(Future<Parsed>future) {
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new MkException(ex);
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof MkException) throw (MkException)ex.getCause();
+      throw new MkException(ex.getCause());
+    }
+  }
+
   /**
-   * 入力の内容を出力に追加する。
-   * @param input 追加する入力
+   * 解析済のPDFの全ページを出力に追加し、統計を記録する。リーダは失敗した場合もクローズされる。
+   * @param parsed 入力の解析結果
    */
-  private void add(RandomAccessFileOrArray input) {
+  private void addReader(Parsed parsed) {
+    long start = System.nanoTime();
+    PdfReader reader = parsed.reader;
     try {
-      PdfReader reader = new PdfReader(input, null); // ここがポイント
-      reader.consolidateNamedDestinations();
       if (document == null) {
-        document = new Document(reader.getPageSizeWithRotation(1));
-        copy = new PdfCopy(document, output);
+        document = new Document(reader.getPageSizeWithRotation(parsed.firstPage));
+        copy = deduplicate? new DedupCopy(document, output):new PdfCopy(document, output);
+        if (info != null) info.forEach(document::addHeader);
+        if (xmpMetadata != null) copy.setXmpMetadata(xmpMetadata);
         document.open();
       }
+      long written = copy.getOs().getCounter();
+      long deduplicated = copy instanceof DedupCopy? ((DedupCopy)copy).savedBytes:0;
       PdfImportedPage page;
-      int numberOfPages = reader.getNumberOfPages();
-      for (int i = 1; i <= numberOfPages; i++) {
+      int lastPage = Math.min(parsed.lastPage, reader.getNumberOfPages());
+      int numberOfPages = Math.max(0, lastPage - parsed.firstPage + 1);
+      for (int i = parsed.firstPage; i <= lastPage; i++) {
         page = copy.getImportedPage(reader, i);
         copy.addPage(page);
       }
-      reader.close();
+      long inputBytes = reader.getFileLength();
+      if (flushPages > 0) {
+        copy.freeReader(reader);
+        unflushedPages += numberOfPages;
+        if (unflushedPages >= flushPages) {
+          copy.getOs().flush();
+          unflushedPages = 0;
+        }
+      }
+      long now = copy.getOs().getCounter();
+      Runtime runtime = Runtime.getRuntime();
+      long saved = copy instanceof DedupCopy? ((DedupCopy)copy).savedBytes - deduplicated:0;
+      stats.added(new MkBindStats.Input(numberOfPages, inputBytes, now - written, saved,
+        parsed.nanos + System.nanoTime() - start, runtime.totalMemory() - runtime.freeMemory()));
+      stats.setOutputBytes(now);
     } catch (Exception ex) {
       throw new MkException(ex);
+    } finally {
+      reader.close();
     }
   }
 
   /**　
    * クローズする。
-   * {@link #output}も自動的にクローズされる。
+   * {@link #output}も自動的にクローズされる。ページを一つも出力していない場合は、出力先をクローズするのみとなる。
+   * 出力待ちの入力の出力に失敗した場合は、残りの入力を破棄し、途中までの出力をクローズして例外となる。
    */
   public void close() {
+    boolean drained = false;
+    try {
+      while (!pending.isEmpty()) addReader(join(pending.remove()));
+      drained = true;
+    } finally {
+      if (!drained) discardPending();
+      if (ownReaders) readers.shutdownNow();
+      if (!drained) abandonOutput();
+    }
+    if (copy == null) {
+      try {
+        output.close();
+      } catch (IOException ex) {
+        throw new MkException(ex);
+      }
+      return;
+    }
+    OutputStreamCounter counter = copy.getOs();
     copy.close();
     document.close();
+    stats.setOutputBytes(counter.getCounter());
+  }
+
+  /**
+   * 出力待ちの入力をすべて破棄する。解析中のものはその終了を待ち、解析済のリーダをクローズする
+   */
+  private void discardPending() {
+    for (Future<Parsed>future: pending) {
+      try {
+        future.get().reader.close();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        future.cancel(true);
+      } catch (ExecutionException ex) {
+      }
+    }
+    pending.clear();
+  }
+
+  /** 失敗時に、途中までの出力をクローズする。それ自体の失敗は無視する */
+  private void abandonOutput() {
+    if (document != null) {
+      try {
+        document.close();
+      } catch (RuntimeException ex) {
+      }
+    }
+    try {
+      output.close();
+    } catch (IOException ex) {
+    }
+  }
+
+  /**
+   * 重複排除したストリームのデータ長を数える{@link PdfSmartCopy}。
+   * 入力中で初めて参照されたオブジェクトが、既に出力済のオブジェクトに解決された場合を重複排除されたものとする。
+   */
+  private static class DedupCopy extends PdfSmartCopy {
+
+    /** これまでに割り当てた出力側のオブジェクト番号 */
+    private final BitSet issued = new BitSet();
+
+    /** 現在の入力 */
+    private PdfReader current;
+
+    /** 現在の入力で参照済のオブジェクト番号 */
+    private final BitSet seen = new BitSet();
+
+    /** 重複排除したストリームのデータ長の合計 */
+    long savedBytes;
+
+    DedupCopy(Document document, OutputStream output) throws DocumentException {
+      super(document, output);
+    }
+
+    @Override
+    protected PdfIndirectReference copyIndirect(PRIndirectReference in) throws IOException, BadPdfFormatException {
+      if (in.getReader() != current) {
+        current = in.getReader();
+        seen.clear();
+      }
+      boolean first = !seen.get(in.getNumber());
+      seen.set(in.getNumber());
+      PdfIndirectReference ref = super.copyIndirect(in);
+      if (ref == null) return null;
+      boolean existing = issued.get(ref.getNumber());
+      issued.set(ref.getNumber());
+      if (first && existing) {
+        PdfObject object = PdfReader.getPdfObjectRelease(in);
+        if (object instanceof PRStream) savedBytes += ((PRStream)object).getLength();
+      }
+      return ref;
+    }
+  }
+
+  /** 入力 */
+  private interface Source {
+    RandomAccessFileOrArray open() throws IOException;
+  }
+
+  /** 入力の解析結果 */
+  private static class Parsed {
+    final PdfReader reader;
+    final int firstPage;
+    final int lastPage;
+    final long nanos;
+    Parsed(PdfReader reader, int firstPage, int lastPage, long nanos) {
+      this.reader = reader;
+      this.firstPage = firstPage;
+      this.lastPage = lastPage;
+      this.nanos = nanos;
+    }
   }
 }
@@ -0,0 +1,187 @@
+package com.cm55.pdfmonk;
+
+import java.awt.image.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import javax.imageio.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.itextpdf.text.pdf.*;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+
+public class MkPdfBinderTest {
+
+  /** 圧縮の効かない画像を作成する */
+  static byte[] image() throws IOException {
+    BufferedImage image = new BufferedImage(200, 200, BufferedImage.TYPE_INT_RGB);
+    Random random = new Random(1);
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) image.setRGB(x, y, random.nextInt());
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", out);
+    return out.toByteArray();
+  }
+
+  /** 同じ画像を各ページに描いたPDFを作成する */
+  static byte[] pdf(byte[]image, int pages) {
+    MkContext ctx = MkContext.getDefault();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MkDocument doc = new MkDocument(ctx, MkGeometry.A4_PORTRAIT, out);
+    for (int i = 0; i < pages; i++) {
+      if (i > 0) doc.newPage();
+      new MkImage(image).setSizeAspect(MkUnit.MM, 50, 50).setToContentByte(doc.getCanvasOver(), MkUnit.MM, 10, 10);
+      new MkTextBlock(ctx, "page " + (i + 1)).setToContentByte(doc.getCanvasOver(), MkUnit.MM, 10, 100);
+    }
+    doc.close();
+    return out.toByteArray();
+  }
+
+  private static MkBindStats bind(ByteArrayOutputStream out, boolean deduplicate, List<byte[]>inputs) {
+    MkPdfBinder binder = new MkPdfBinder(out).setDeduplicate(deduplicate);
+    try {
+      for (byte[]input: inputs) binder.add(input);
+    } finally {
+      binder.close();
+    }
+    return binder.getStats();
+  }
+
+  static int pageCount(byte[]pdf) throws IOException {
+    PdfReader reader = new PdfReader(pdf);
+    try {
+      return reader.getNumberOfPages();
+    } finally {
+      reader.close();
+    }
+  }
+
+  /** 重複排除モードでは、入力をまたいで同一の画像が一度だけ出力される */
+  @Test
+  public void deduplicate() throws IOException {
+    byte[]image = image();
+    List<byte[]>inputs = new ArrayList<>();
+    for (int i = 0; i < 4; i++) inputs.add(pdf(image, 2));
+
+    ByteArrayOutputStream plain = new ByteArrayOutputStream();
+    MkBindStats plainStats = bind(plain, false, inputs);
+    ByteArrayOutputStream dedup = new ByteArrayOutputStream();
+    MkBindStats dedupStats = bind(dedup, true, inputs);
+
+    assertEquals(8, pageCount(plain.toByteArray()));
+    assertEquals(8, pageCount(dedup.toByteArray()));
+    assertEquals(4, dedupStats.getInputCount());
+    assertEquals(8, dedupStats.getPageCount());
+    assertEquals(dedup.size(), dedupStats.getOutputBytes());
+
+    // 重複した三つの画像の大半が削減される
+    assertTrue(plain.size() - dedup.size() > image.length * 2);
+
+    // 各入力の二ページ目の画像は一ページ目と、以降の入力の画像とページ内容は最初の入力のものと同一であり、
+    // 少なくとも計七つの画像が書き込まれない
+    assertEquals(0, plainStats.getBytesSaved());
+    long imageBytes = dedupStats.getInputs().get(0).getSavedBytes();
+    assertTrue(imageBytes > image.length / 2);
+    for (int i = 1; i < 4; i++) assertTrue(dedupStats.getInputs().get(i).getSavedBytes() >= imageBytes * 2);
+    assertTrue(dedupStats.getBytesSaved() >= imageBytes * 7);
+    assertTrue(dedupStats.getBytesSaved() <= plain.size() - dedup.size());
+  }
+
+  /** ページ範囲の最後がページ数を超える場合は最後のページまで、最初が超える場合は例外となる */
+  @Test
+  public void pageRange() throws IOException {
+    File file = File.createTempFile("pdfmonk", ".pdf");
+    try {
+      try (OutputStream out = new FileOutputStream(file)) {
+        out.write(pdf(image(), 3));
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      MkPdfBinder binder = new MkPdfBinder(out);
+      try {
+        binder.add(file.toPath(), 2, 10);
+        try {
+          binder.add(file.toPath(), 4, 10);
+          fail();
+        } catch (MkException ex) {
+        }
+      } finally {
+        binder.close();
+      }
+      assertEquals(2, pageCount(out.toByteArray()));
+    } finally {
+      file.delete();
+    }
+  }
+
+  /** 開いているファイル記述子の数。取得できない環境ではテストを行わない */
+  private static int openFiles() {
+    String[]fds = new File("/proc/self/fd").list();
+    Assume.assumeNotNull((Object)fds);
+    return fds.length;
+  }
+
+  /** クローズされたかを記録する出力先 */
+  private static class Output extends ByteArrayOutputStream {
+    boolean closed;
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  /** 壊れた入力の出力に失敗した場合、先読み済の入力と出力先はクローズされる */
+  @Test
+  public void corruptInput() throws IOException {
+    byte[]image = image();
+    List<Path>files = new ArrayList<>();
+    try {
+      for (int i = 0; i < 4; i++) {
+        Path file = Files.createTempFile("pdfmonk", ".pdf");
+        Files.write(file, i == 2? "%PDF-1.4 broken".getBytes(): pdf(image, 1));
+        files.add(file);
+      }
+      int before = openFiles();
+      Output out = new Output();
+      MkPdfBinder binder = new MkPdfBinder(out).setPipeline(2, 10);
+      for (Path file: files) binder.add(file);
+      try {
+        binder.close();
+        fail();
+      } catch (MkException ex) {
+      }
+      assertTrue(out.closed);
+      assertEquals(before, openFiles());
+    } finally {
+      for (Path file: files) Files.delete(file);
+    }
+  }
+
+  /** 入力の順序とページ範囲が保たれる */
+  @Test
+  public void pipeline() throws IOException {
+    byte[]image = image();
+    List<byte[]>inputs = new ArrayList<>();
+    for (int i = 1; i <= 5; i++) inputs.add(pdf(image, i));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MkPdfBinder binder = new MkPdfBinder(out).setPipeline(2, 2).setLowMemory(3);
+    try {
+      for (byte[]input: inputs) binder.add(input);
+    } finally {
+      binder.close();
+    }
+    assertEquals(15, binder.getStats().getPageCount());
+    PdfReader reader = new PdfReader(out.toByteArray());
+    try {
+      assertEquals(15, reader.getNumberOfPages());
+      assertTrue(PdfTextExtractor.getTextFromPage(reader, 2).contains("page 1"));
+      assertTrue(PdfTextExtractor.getTextFromPage(reader, 3).contains("page 2"));
+      assertTrue(PdfTextExtractor.getTextFromPage(reader, 15).contains("page 5"));
+    } finally {
+      reader.close();
+    }
+  }
+}
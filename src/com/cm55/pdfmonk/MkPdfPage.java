@@ -0,0 +1,187 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.nio.file.*;
+
+import com.itextpdf.text.Rectangle;
+import com.itextpdf.text.io.*;
+import com.itextpdf.text.pdf.*;
+
+/**
+ * 外部PDFのページを要素として置く
+ * <p>
+ * ベクトル形式のロゴや既製の様式など、PDFとして用意された図版を、ラスタ化せずに{@link MkCanvas}や{@link MkTemplate}に置く。
+ * 取込元は常にランダムアクセスで読み込まれ、置いたページから参照されるオブジェクトのみが解析される。
+ * 同じPDFへの出力では、取込元は一度だけ開かれ、同じページは何度置いても一つのフォームXObjectとして出力される。
+ * </p>
+ * <p>
+ * ページの/Rotateは反映され、見た目の向きで置かれる。
+ * 描画サイズの設定はこのオブジェクトの状態を変更するため、複数のスレッドで同じオブジェクトを使用する場合には{@link #duplicate()}で複製したものを使用する。
+ * </p>
+ * <pre>
+ * MkPdfPage logo = new MkPdfPage(Paths.get("logo.pdf"), 1).setSizeAspect(MkUnit.MM, 40, 20);
+ * logo.setToContentByte(canvas, MkUnit.MM, 0, 0);
+ * </pre>
+ * @author ysugimura
+ */
+public class MkPdfPage implements MkDuplicatable<MkPdfPage> {
+
+  /** 取込元 */
+  private interface Source {
+    RandomAccessFileOrArray open() throws IOException;
+  }
+
+  /** 取込元を一意に表すキー */
+  private final String sourceKey;
+
+  /** 取込元 */
+  private final Source source;
+
+  /** ページ番号 */
+  private final int pageNumber;
+
+  /** ページの回転角度。0, 90, 180, 270 */
+  private final int rotation;
+
+  /** 回転前のページの大きさ（ポイント） */
+  private final float width, height;
+
+  /** 描画の倍率 */
+  private float scale = 1;
+
+  /**
+   * ファイルのページを指定する。ファイルはメモリマップされる
+   * @param path 取込元のファイル
+   * @param pageNumber ページ番号。１から
+   */
+  public MkPdfPage(Path path, int pageNumber) {
+    this("file:" + path.toAbsolutePath().normalize(), ()->MkPdfBinder.randomAccess(path), pageNumber);
+  }
+
+  /**
+   * バイト配列の形のPDFのページを指定する
+   * @param pdf 取込元のPDF。変更してはならない
+   * @param pageNumber ページ番号。１から
+   */
+  public MkPdfPage(byte[]pdf, int pageNumber) {
+    this("bytes:" + MkRenderCache.hash(pdf),
+      ()->new RandomAccessFileOrArray(new RandomAccessSourceFactory().createSource(pdf)), pageNumber);
+  }
+
+  private MkPdfPage(String sourceKey, Source source, int pageNumber) {
+    this.sourceKey = sourceKey;
+    this.source = source;
+    this.pageNumber = pageNumber;
+
+    // ページ数と大きさのみを読み込む
+    PdfReader reader = open();
+    try {
+      if (pageNumber < 1 || pageNumber > reader.getNumberOfPages()) {
+        throw new MkException("no page " + pageNumber + " in " + sourceKey);
+      }
+      Rectangle box = reader.getPageSize(pageNumber);
+      width = box.getWidth();
+      height = box.getHeight();
+      rotation = ((reader.getPageRotation(pageNumber) % 360) + 360) % 360;
+    } finally {
+      reader.close();
+    }
+  }
+
+  /** 複製のみに使用される */
+  private MkPdfPage(MkPdfPage that) {
+    this.sourceKey = that.sourceKey;
+    this.source = that.source;
+    this.pageNumber = that.pageNumber;
+    this.rotation = that.rotation;
+    this.width = that.width;
+    this.height = that.height;
+    this.scale = that.scale;
+  }
+
+  /** 複製する。取込元は共有され、描画サイズのみが複製される */
+  @Override
+  public MkPdfPage duplicate() {
+    return new MkPdfPage(this);
+  }
+
+  /** 取込元を部分的に読み込むリーダを作成する */
+  private PdfReader open() {
+    try {
+      return new PdfReader(source.open(), null);
+    } catch (IOException ex) {
+      throw new MkException(ex);
+    }
+  }
+
+  /** ページ番号を取得する */
+  public int getPageNumber() {
+    return pageNumber;
+  }
+
+  /** 回転を反映したページの大きさを取得する */
+  public MkDimension getPageSize() {
+    return rotated()? new MkDimension(MkUnit.PT, height, width):new MkDimension(MkUnit.PT, width, height);
+  }
+
+  private boolean rotated() {
+    return rotation == 90 || rotation == 270;
+  }
+
+  /** 描画の倍率を指定する。デフォルトは1 */
+  public MkPdfPage setScale(float scale) {
+    if (scale <= 0) throw new MkException("scale must be positive");
+    this.scale = scale;
+    return this;
+  }
+
+  public MkPdfPage setSizeAspect(MkUnit unit, float x, float y) {
+    return setSizeAspect(new MkDimension(unit, x, y));
+  }
+
+  /** 描画サイズを指定する。ただしアスペクト比を保持するため、どちらか小さい方に合わせられる */
+  public MkPdfPage setSizeAspect(MkDimension size) {
+    MkDimension pageSize = getPageSize();
+    return setScale(Math.min(size.x.ptValue() / pageSize.x.ptValue(), size.y.ptValue() / pageSize.y.ptValue()));
+  }
+
+  /** 描画サイズを取得する */
+  public MkDimension getDrawSize() {
+    MkDimension pageSize = getPageSize();
+    return new MkDimension(MkUnit.PT, pageSize.x.ptValue() * scale, pageSize.y.ptValue() * scale);
+  }
+
+  /**
+   * ページを指定位置を左上として置く
+   * @param contentByte 対象コンテントバイト
+   * @param unit 位置の単位
+   * @param x 描画x位置
+   * @param y 描画y位置
+   */
+  public void setToContentByte(MkContentByte contentByte, MkUnit unit, float x, float y) {
+    setToContentByte(contentByte, new MkDimension(unit, x, y));
+  }
+
+  /**
+   * ページを指定位置を左上として置く
+   * @param contentByte 対象コンテントバイト
+   * @param position 描画位置
+   */
+  public void setToContentByte(MkContentByte contentByte, MkDimension position) {
+    MkRenderListener listener = contentByte.getContext().getRenderListener();
+    long start = MkRenderPhase.start(listener);
+    PdfImportedPage page = contentByte.importPage(sourceKey, this::open, pageNumber);
+    MkPdfPosition pdfPos = contentByte.getGeometry().toPdfPosition(position.x, position.y.add(getDrawSize().y));
+    float x = pdfPos.x, y = pdfPos.y, s = scale;
+
+    // 回転前のページ上の点(u, v)を、左下を(x, y)とする見た目の向きに変換する
+    MkContentWriter writer = contentByte.writer();
+    switch (rotation) {
+    case 90: writer.addTemplate(page, 0, -s, s, 0, x, y + width * s); break;
+    case 180: writer.addTemplate(page, -s, 0, 0, -s, x + width * s, y + height * s); break;
+    case 270: writer.addTemplate(page, 0, s, -s, 0, x + height * s, y); break;
+    default: writer.addTemplate(page, s, 0, 0, s, x, y); break;
+    }
+    MkRenderPhase.IMAGE.end(listener, start);
+  }
+}
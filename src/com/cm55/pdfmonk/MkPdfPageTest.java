@@ -0,0 +1,141 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.util.*;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.itextpdf.text.*;
+import com.itextpdf.text.io.RandomAccessSourceFactory;
+import com.itextpdf.text.pdf.*;
+
+public class MkPdfPageTest {
+
+  private static final MkContext ctx = MkContext.getDefault();
+
+  /** マージンの無い400pt四方のページ */
+  private static final MkGeometry GEOMETRY = new MkGeometry(new MkDimension(MkUnit.PT, 400, 400), MkInsets.ZERO);
+
+  /** 回転角度 */
+  private static final int[]ROTATIONS = { 0, 90, 180, 270 };
+
+  /** 回転前の大きさが200x100で、各ページが{@link #ROTATIONS}の順に回転したPDFを作成する */
+  private static byte[] source() throws Exception {
+    ByteArrayOutputStream plain = new ByteArrayOutputStream();
+    Document document = new Document(new Rectangle(200, 100));
+    PdfWriter.getInstance(document, plain);
+    document.open();
+    for (int i = 0; i < ROTATIONS.length; i++) {
+      if (i > 0) document.newPage();
+      document.add(new Paragraph("rotate " + ROTATIONS[i]));
+    }
+    document.close();
+
+    PdfReader reader = new PdfReader(plain.toByteArray());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      for (int i = 0; i < ROTATIONS.length; i++) reader.getPageN(i + 1).put(PdfName.ROTATE, new PdfNumber(ROTATIONS[i]));
+      new PdfStamper(reader, out).close();
+    } finally {
+      reader.close();
+    }
+    return out.toByteArray();
+  }
+
+  /** 一ページのPDFに置き、そのPDFを取得する */
+  private static byte[] place(MkPdfPage page, float...positions) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MkDocument doc = new MkDocument(ctx, GEOMETRY, out);
+    for (int i = 0; i < positions.length; i += 2) page.setToContentByte(doc.getCanvasOver(), MkUnit.PT, positions[i], positions[i + 1]);
+    doc.close();
+    return out.toByteArray();
+  }
+
+  /** ページのコンテンツ中のcm演算子のオペランドを取得する */
+  private static List<float[]>matrices(byte[]pdf) throws IOException {
+    PdfReader reader = new PdfReader(pdf);
+    try {
+      PRTokeniser tokeniser = new PRTokeniser(new RandomAccessFileOrArray(
+        new RandomAccessSourceFactory().createSource(reader.getPageContent(1))));
+      List<float[]>result = new ArrayList<>();
+      List<Float>operands = new ArrayList<>();
+      while (tokeniser.nextToken()) {
+        if (tokeniser.getTokenType() == PRTokeniser.TokenType.NUMBER) {
+          operands.add(Float.parseFloat(tokeniser.getStringValue()));
+          continue;
+        }
+        if (tokeniser.getTokenType() == PRTokeniser.TokenType.OTHER && tokeniser.getStringValue().equals("cm")) {
+          float[]m = new float[6];
+          for (int i = 0; i < 6; i++) m[i] = operands.get(operands.size() - 6 + i);
+          result.add(m);
+        }
+        operands.clear();
+      }
+      return result;
+    } finally {
+      reader.close();
+    }
+  }
+
+  /** 最初のページのXObjectの数 */
+  private static int xobjects(byte[]pdf) throws IOException {
+    PdfReader reader = new PdfReader(pdf);
+    try {
+      return reader.getPageN(1).getAsDict(PdfName.RESOURCES).getAsDict(PdfName.XOBJECT).size();
+    } finally {
+      reader.close();
+    }
+  }
+
+  /** 回転したページは見た目の向きで置かれ、回転前のページ全体が描画サイズの矩形にちょうど収まる */
+  @Test
+  public void rotation() throws Exception {
+    byte[]source = source();
+    for (int i = 0; i < ROTATIONS.length; i++) {
+      MkPdfPage page = new MkPdfPage(source, i + 1).setScale(0.5f);
+      boolean rotated = ROTATIONS[i] == 90 || ROTATIONS[i] == 270;
+      assertEquals(rotated? 100: 200, page.getPageSize().x.ptValue(), 0.01);
+      assertEquals(rotated? 200: 100, page.getPageSize().y.ptValue(), 0.01);
+      float drawWidth = page.getDrawSize().x.ptValue(), drawHeight = page.getDrawSize().y.ptValue();
+      assertEquals(page.getPageSize().x.ptValue() / 2, drawWidth, 0.01);
+
+      // 左上を(10, 20)として置くと、PDFの座標では左下が(10, 400 - 20 - 描画高さ)となる
+      List<float[]>matrices = matrices(place(page, 10, 20));
+      assertEquals(1, matrices.size());
+      float[]m = matrices.get(0);
+      float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+      for (float[]corner: new float[][] { { 0, 0 }, { 200, 0 }, { 0, 100 }, { 200, 100 } }) {
+        float x = m[0] * corner[0] + m[2] * corner[1] + m[4];
+        float y = m[1] * corner[0] + m[3] * corner[1] + m[5];
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+      }
+      String message = "rotate " + ROTATIONS[i];
+      assertEquals(message, 10, minX, 0.01);
+      assertEquals(message, 10 + drawWidth, maxX, 0.01);
+      assertEquals(message, 400 - 20 - drawHeight, minY, 0.01);
+      assertEquals(message, 400 - 20, maxY, 0.01);
+    }
+  }
+
+  /** 90度回転した場合の変換行列 */
+  @Test
+  public void rotation90() throws Exception {
+    MkPdfPage page = new MkPdfPage(source(), 2).setScale(0.5f);
+    float[]m = matrices(place(page, 10, 20)).get(0);
+    assertArrayEquals(new float[] { 0, -0.5f, 0.5f, 0, 10, 380 }, m, 0.01f);
+  }
+
+  /** 同じページを二度置いても、取り込まれるのは一つのフォームである */
+  @Test
+  public void placeTwice() throws Exception {
+    MkPdfPage page = new MkPdfPage(source(), 2).setScale(0.5f);
+    byte[]pdf = place(page, 10, 20, 200, 200);
+    assertEquals(2, matrices(pdf).size());
+    assertEquals(1, xobjects(pdf));
+  }
+}
@@ -0,0 +1,214 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+import com.itextpdf.text.*;
+import com.itextpdf.text.pdf.*;
+
+/**
+ * PDFのページ数、ページサイズ、回転を高速に取得する
+ * <p>
+ * 結合やスタンプの前にレイアウトやバッチ分けを計画するために用いる。ファイルはメモリマップされ、
+ * トレイラ、クロスリファレンス、ページツリーとページ辞書のみが読み込まれる。コンテンツストリームやフォント、画像が読み込まれることはない。
+ * ページツリーは一度だけたどられ、継承される属性はその途中で引き継がれる。
+ * </p>
+ * <pre>
+ * for (MkPdfScanner.Result result: MkPdfScanner.scanAll(paths, 8)) {
+ *   if (result.getError() != null) continue;
+ *   MkGeometry geo = result.getPage(1).getGeometry();
+ *   ...
+ * }
+ * </pre>
+ * @author ysugimura
+ */
+public class MkPdfScanner {
+
+  /** ページサイズと回転のために参照する、継承される属性 */
+  private static final PdfName[]INHERITED = { PdfName.MEDIABOX, PdfName.ROTATE };
+
+  /**
+   * 一ページ分の情報
+   */
+  public static class Page {
+
+    private final MkGeometry geometry;
+    private final int rotation;
+
+    Page(MkGeometry geometry, int rotation) {
+      this.geometry = geometry;
+      this.rotation = rotation;
+    }
+
+    /** 回転を適用した、表示上のページサイズを持つジオメトリを取得する。マージンはゼロとなる */
+    public MkGeometry getGeometry() {
+      return geometry;
+    }
+
+    /** 回転角度を取得する。0, 90, 180, 270のいずれか */
+    public int getRotation() {
+      return rotation;
+    }
+
+    /** デバッグ用。文字列化する */
+    @Override
+    public String toString() {
+      return geometry.size + ",rotation:" + rotation;
+    }
+  }
+
+  /**
+   * 一ファイル分の結果
+   */
+  public static class Result {
+
+    private final Path path;
+    private final long fileBytes;
+    private final List<Page>pages;
+    private final long nanos;
+    private final Throwable error;
+
+    Result(Path path, long fileBytes, List<Page>pages, long nanos, Throwable error) {
+      this.path = path;
+      this.fileBytes = fileBytes;
+      this.pages = pages;
+      this.nanos = nanos;
+      this.error = error;
+    }
+
+    /** ファイルを取得する */
+    public Path getPath() {
+      return path;
+    }
+
+    /** ファイルのバイト数を取得する */
+    public long getFileBytes() {
+      return fileBytes;
+    }
+
+    /** ページ数を取得する */
+    public int getPageCount() {
+      return pages.size();
+    }
+
+    /** 指定ページの情報を取得する。ページ番号は１から */
+    public Page getPage(int pageNumber) {
+      return pages.get(pageNumber - 1);
+    }
+
+    /** 全ページの情報を取得する */
+    public List<Page>getPages() {
+      return pages;
+    }
+
+    /** 読み込みに要した時間（ナノ秒）を取得する */
+    public long getNanos() {
+      return nanos;
+    }
+
+    /** {@link MkPdfScanner#scanAll(List, int)}で読み込みに失敗した場合の例外を取得する。成功時はnull */
+    public Throwable getError() {
+      return error;
+    }
+
+    /** デバッグ用。文字列化する */
+    @Override
+    public String toString() {
+      if (error != null) return path + ":" + error;
+      return path + ":pages:" + pages.size() + ",bytes:" + fileBytes + ",ms:" + nanos / 1e6;
+    }
+  }
+
+  /**
+   * 一つのファイルを読み込む。
+   * 読み込みに失敗した場合や、ページツリーが壊れている場合、MediaBoxを持たないページがある場合は{@link MkException}となる。
+   * @param path ファイル
+   * @return 結果
+   */
+  public static Result scan(Path path) {
+    long start = System.nanoTime();
+    try {
+      PdfReader reader = new PdfReader(MkPdfBinder.randomAccess(path), null);
+      try {
+        List<Page>pages = new ArrayList<>(reader.getNumberOfPages());
+        collectPages(reader, reader.getCatalog().get(PdfName.PAGES), new PdfDictionary(), pages, new HashSet<>());
+        return new Result(path, reader.getFileLength(), Collections.unmodifiableList(pages), System.nanoTime() - start, null);
+      } finally {
+        reader.close();
+      }
+    } catch (MkException ex) {
+      throw ex;
+    } catch (IOException | RuntimeException ex) {
+      throw new MkException(ex);
+    }
+  }
+
+  /**
+   * ページツリーをたどり、ページの情報を収集する
+   * @param reader リーダ
+   * @param node ページツリーのノード
+   * @param inherited 上位のノードから継承される属性
+   * @param pages 収集先
+   * @param visited 訪問済の間接参照の番号
+   */
+  private static void collectPages(PdfReader reader, PdfObject node, PdfDictionary inherited, List<Page>pages,
+      Set<Integer>visited) {
+    if (node instanceof PRIndirectReference && !visited.add(((PRIndirectReference)node).getNumber())) {
+      throw new MkException("page tree loop");
+    }
+    PdfDictionary dict = (PdfDictionary)PdfReader.getPdfObjectRelease(node);
+    if (dict == null) return;
+    PdfDictionary attributes = new PdfDictionary();
+    attributes.putAll(inherited);
+    for (PdfName name: INHERITED) {
+      PdfObject value = PdfReader.getPdfObjectRelease(dict.get(name));
+      if (value != null) attributes.put(name, value);
+    }
+    PdfArray kids = dict.getAsArray(PdfName.KIDS);
+    if (kids == null) {
+      if (attributes.getAsArray(PdfName.MEDIABOX) == null) throw new MkException("no MediaBox:page " + (pages.size() + 1));
+      Rectangle size = reader.getPageSizeWithRotation(attributes);
+      pages.add(new Page(
+        new MkGeometry(new MkDimension(MkUnit.PT, size.getWidth(), size.getHeight()), MkInsets.ZERO),
+        size.getRotation()
+      ));
+      return;
+    }
+    for (PdfObject kid: kids) collectPages(reader, kid, attributes, pages, visited);
+  }
+
+  /**
+   * 複数のファイルを並列に読み込む。読み込みに失敗したファイルについては、{@link Result#getError()}が例外を返す。
+   * @param paths ファイルのリスト
+   * @param threads スレッド数
+   * @return 結果のリスト。ファイルのリストと同じ順序
+   */
+  public static List<Result>scanAll(List<Path>paths, int threads) {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Result>>futures = new ArrayList<>();
+      for (Path path: paths) {
+        futures.add(executor.submit(()-> {
+          try {
+            return scan(path);
+          } catch (Throwable th) {
+            return new Result(path, 0, Collections.emptyList(), 0, th instanceof MkException && th.getCause() != null? th.getCause():th);
+          }
+        }));
+      }
+      List<Result>results = new ArrayList<>();
+      for (Future<Result>future: futures) results.add(future.get());
+      return results;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new MkException(ex);
+    } catch (ExecutionException ex) {
+      throw new MkException(ex.getCause());
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
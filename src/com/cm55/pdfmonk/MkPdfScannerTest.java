@@ -0,0 +1,108 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class MkPdfScannerTest {
+
+  private Path dir;
+
+  @Before
+  public void before() throws IOException {
+    dir = Files.createTempDirectory("pdfmonk");
+  }
+
+  @After
+  public void after() throws IOException {
+    try (DirectoryStream<Path>files = Files.newDirectoryStream(dir)) {
+      for (Path file: files) Files.delete(file);
+    }
+    Files.delete(dir);
+  }
+
+  /** 指定されたオブジェクトを番号１から順に持つPDFファイルを作成する */
+  private Path pdf(String name, String...objects) throws IOException {
+    StringBuilder s = new StringBuilder("%PDF-1.4\n");
+    List<Integer>offsets = new ArrayList<>();
+    for (int i = 0; i < objects.length; i++) {
+      offsets.add(s.length());
+      s.append(i + 1).append(" 0 obj\n").append(objects[i]).append("\nendobj\n");
+    }
+    int xref = s.length();
+    s.append("xref\n0 ").append(objects.length + 1).append("\n0000000000 65535 f \n");
+    for (int offset: offsets) s.append(String.format("%010d 00000 n \n", offset));
+    s.append("trailer\n<< /Size ").append(objects.length + 1).append(" /Root 1 0 R >>\nstartxref\n").append(xref).append("\n%%EOF\n");
+    Path file = dir.resolve(name);
+    Files.write(file, s.toString().getBytes(StandardCharsets.ISO_8859_1));
+    return file;
+  }
+
+  /** 入れ子のページツリーで、MediaBoxとRotateは上位のノードから引き継がれ、下位のノードで上書きされる */
+  @Test
+  public void inherited() throws IOException {
+    Path file = pdf("nested.pdf",
+      "<< /Type /Catalog /Pages 2 0 R >>",
+      "<< /Type /Pages /Kids [3 0 R 4 0 R] /Count 3 /MediaBox [0 0 595 842] /Rotate 90 >>",
+      "<< /Type /Page /Parent 2 0 R >>",
+      "<< /Type /Pages /Parent 2 0 R /Kids [5 0 R 6 0 R] /Count 2 /MediaBox [0 0 612 792] >>",
+      "<< /Type /Page /Parent 4 0 R /Rotate 0 >>",
+      "<< /Type /Page /Parent 4 0 R /MediaBox [0 0 200 100] /Rotate 180 >>"
+    );
+    MkPdfScanner.Result result = MkPdfScanner.scan(file);
+    assertEquals(3, result.getPageCount());
+    assertEquals(Files.size(file), result.getFileBytes());
+    assertPage(result.getPage(1), 842, 595, 90);
+    assertPage(result.getPage(2), 612, 792, 0);
+    assertPage(result.getPage(3), 200, 100, 180);
+  }
+
+  private static void assertPage(MkPdfScanner.Page page, float width, float height, int rotation) {
+    assertEquals(width, page.getGeometry().size.x.ptValue(), 0.01);
+    assertEquals(height, page.getGeometry().size.y.ptValue(), 0.01);
+    assertEquals(rotation, page.getRotation());
+  }
+
+  /** どのノードにもMediaBoxの無いページは、そのページを示す例外となる */
+  @Test
+  public void noMediaBox() throws IOException {
+    Path file = pdf("nobox.pdf",
+      "<< /Type /Catalog /Pages 2 0 R >>",
+      "<< /Type /Pages /Kids [3 0 R 4 0 R] /Count 2 >>",
+      "<< /Type /Page /Parent 2 0 R /MediaBox [0 0 595 842] >>",
+      "<< /Type /Page /Parent 2 0 R >>"
+    );
+    try {
+      MkPdfScanner.scan(file);
+      fail();
+    } catch (MkException ex) {
+      assertTrue(ex.getMessage().contains("page 2"));
+    }
+  }
+
+  /** 不正なMediaBox等による実行時例外も{@link MkException}となる。並列の読み込みでは、失敗したファイルは例外を持つ結果となり、他のファイルは読み込まれる */
+  @Test
+  public void scanAll() throws IOException {
+    Path good = dir.resolve("good.pdf");
+    Files.write(good, MkPdfBinderTest.pdf(MkPdfBinderTest.image(), 2));
+    Path broken = pdf("broken.pdf",
+      "<< /Type /Catalog /Pages 2 0 R >>",
+      "<< /Type /Pages /Kids [3 0 R] /Count 1 /MediaBox [0 0 595] >>",
+      "<< /Type /Page /Parent 2 0 R >>"
+    );
+    try {
+      MkPdfScanner.scan(broken);
+      fail();
+    } catch (MkException ex) {
+    }
+    List<MkPdfScanner.Result>results = MkPdfScanner.scanAll(Arrays.asList(good, broken), 2);
+    assertNull(results.get(0).getError());
+    assertEquals(2, results.get(0).getPageCount());
+    assertNotNull(results.get(1).getError());
+    assertEquals(0, results.get(1).getPageCount());
+  }
+}
@@ -0,0 +1,343 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+import com.itextpdf.text.*;
+import com.itextpdf.text.io.*;
+import com.itextpdf.text.pdf.*;
+
+/**
+ * 一つのPDFを複数に分割して出力する
+ * <p>
+ * {@link MkPdfBinder}の逆の処理であり、大量の印刷用PDFを顧客ごとのページ範囲に分割したり、アップロードの制限に合わせて
+ * 一定の大きさ以下に分割したりするのに用いる。
+ * </p>
+ * <p>
+ * 元のPDFは、バイト配列の場合はそのまま、ファイルの場合はメモリマップされてヒープ上に読み込まれることはなく、
+ * クロスリファレンスとページツリーは一度だけ解析される。
+ * 各出力は、解析済のリーダの複製を用いて並列に作成される。複製は元の入力を共有し、その出力のページから参照されるオブジェクトのみを読み込む。
+ * 一つの出力の中では、複数のページから参照されるフォントや画像は一度だけ出力される。
+ * </p>
+ * <pre>
+ * try (MkPdfSplitter splitter = new MkPdfSplitter(Paths.get("print.pdf"))) {
+ *   MkBatchStats stats = splitter.split(splitter.rangesBySize(10 * 1024 * 1024),
+ *     range-&gt;new FileOutputStream("part" + range.getIndex() + ".pdf"));
+ * }
+ * </pre>
+ * @author ysugimura
+ */
+public class MkPdfSplitter implements AutoCloseable {
+
+  /**
+   * 出力一つ分のページ範囲
+   */
+  public static class Range {
+
+    private final int index;
+    private final int firstPage;
+    private final int lastPage;
+
+    /**
+     * ページ範囲を指定する
+     * @param index 出力の番号。０から
+     * @param firstPage 最初のページ。１から
+     * @param lastPage 最後のページ
+     */
+    public Range(int index, int firstPage, int lastPage) {
+      if (firstPage < 1 || lastPage < firstPage) throw new MkException("invalid page range " + firstPage + "-" + lastPage);
+      this.index = index;
+      this.firstPage = firstPage;
+      this.lastPage = lastPage;
+    }
+
+    /** 出力の番号を取得する */
+    public int getIndex() {
+      return index;
+    }
+
+    /** 最初のページを取得する */
+    public int getFirstPage() {
+      return firstPage;
+    }
+
+    /** 最後のページを取得する */
+    public int getLastPage() {
+      return lastPage;
+    }
+
+    /** ページ数を取得する */
+    public int getPageCount() {
+      return lastPage - firstPage + 1;
+    }
+
+    /** デバッグ用。文字列化する */
+    @Override
+    public String toString() {
+      return index + ":" + firstPage + "-" + lastPage;
+    }
+  }
+
+  /**
+   * 出力先
+   */
+  @FunctionalInterface
+  public interface Sink {
+    /**
+     * 出力先ストリームをオープンする。ストリームは出力の終了時にクローズされる。
+     * @param range ページ範囲
+     * @return 出力ストリーム
+     */
+    public OutputStream open(Range range) throws IOException;
+  }
+
+  /** 大きさの見積りにおける、ページ辞書・クロスリファレンス等のページあたりのバイト数 */
+  private static final long PAGE_OVERHEAD = 1024;
+
+  /** 解析済のリーダ。各出力ではこの複製を用いる */
+  private final PdfReader reader;
+
+  /** 並列に出力する数 */
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * バイト配列の形のPDFを分割する
+   * @param pdf PDFのバイト配列。変更してはならない
+   */
+  public MkPdfSplitter(byte[]pdf) {
+    this(new RandomAccessFileOrArray(new RandomAccessSourceFactory().createSource(pdf)));
+  }
+
+  /**
+   * ファイルの形のPDFを分割する。ファイルはメモリマップされ、{@link #close()}までオープンされたままとなる。
+   * @param path ファイル
+   */
+  public MkPdfSplitter(Path path) {
+    this(randomAccess(path));
+  }
+
+  private MkPdfSplitter(RandomAccessFileOrArray source) {
+    try {
+      reader = new PdfReader(source, null);
+    } catch (IOException ex) {
+      throw new MkException(ex);
+    }
+  }
+
+  /**
+   * ファイルをメモリマップしたランダムアクセス入力を作成する。
+   * ファイル用の入力は内部にバッファ等の状態を持つため、各出力の複製から並列に読み込めるよう同期化する。
+   */
+  private static RandomAccessFileOrArray randomAccess(Path path) {
+    try {
+      RandomAccessFileOrArray file = MkPdfBinder.randomAccess(path);
+      return new RandomAccessFileOrArray(new SynchronizedSource(file.createSourceView()));
+    } catch (IOException ex) {
+      throw new MkException(ex);
+    }
+  }
+
+  /** 並列に出力する数を指定する。デフォルトはプロセッサ数 */
+  public MkPdfSplitter setThreads(int threads) {
+    if (threads < 1) throw new MkException("threads must be positive");
+    this.threads = threads;
+    return this;
+  }
+
+  /** 元のPDFのバイト数を取得する */
+  public long getSourceBytes() {
+    return reader.getFileLength();
+  }
+
+  /** 総ページ数を取得する */
+  public int getPageCount() {
+    return reader.getNumberOfPages();
+  }
+
+  /**
+   * 指定ページ数ごとのページ範囲を作成する
+   * @param pagesPerRange 一つの出力のページ数
+   * @return ページ範囲のリスト
+   */
+  public List<Range>ranges(int pagesPerRange) {
+    if (pagesPerRange < 1) throw new MkException("pagesPerRange must be positive");
+    List<Range>ranges = new ArrayList<>();
+    int pageCount = getPageCount();
+    for (int first = 1; first <= pageCount; first += pagesPerRange) {
+      ranges.add(new Range(ranges.size(), first, Math.min(pageCount, first + pagesPerRange - 1)));
+    }
+    return ranges;
+  }
+
+  /**
+   * 各出力の大きさが指定バイト数以下になるようなページ範囲を作成する。
+   * 大きさは、各ページから参照されるストリームの長さの合計にページあたりの固定量を加えて見積もられ、
+   * 同じ出力内で共有されるストリームは一度だけ数えられる。
+   * 一ページだけで指定バイト数を超える場合は、そのページのみの出力となる。
+   * @param maxBytes 一つの出力の最大バイト数
+   * @return ページ範囲のリスト
+   */
+  public List<Range>rangesBySize(long maxBytes) {
+    List<Range>ranges = new ArrayList<>();
+    int pageCount = getPageCount();
+    PdfReader estimator = new PdfReader(reader);
+    Map<Integer, Long>streams = new HashMap<>();
+    long bytes = 0;
+    int first = 1;
+    for (int page = 1; page <= pageCount; page++) {
+      Map<Integer, Long>pageStreams = new HashMap<>();
+      collectStreams(estimator.getPageN(page), pageStreams, new HashSet<>());
+      long added = PAGE_OVERHEAD;
+      for (Map.Entry<Integer, Long>e: pageStreams.entrySet()) {
+        if (!streams.containsKey(e.getKey())) added += e.getValue();
+      }
+      if (page > first && bytes + added > maxBytes) {
+        ranges.add(new Range(ranges.size(), first, page - 1));
+        first = page;
+        streams.clear();
+        bytes = 0;
+        added = PAGE_OVERHEAD + pageStreams.values().stream().mapToLong(Long::longValue).sum();
+      }
+      streams.putAll(pageStreams);
+      bytes += added;
+      estimator.releasePage(page);
+    }
+    if (first <= pageCount) ranges.add(new Range(ranges.size(), first, pageCount));
+    return ranges;
+  }
+
+  /**
+   * オブジェクトから参照されるストリームの番号と長さを収集する。親ページへの参照はたどらない。
+   * @param object 対象オブジェクト
+   * @param streams 収集先
+   * @param visited 訪問済の間接参照の番号
+   */
+  private static void collectStreams(PdfObject object, Map<Integer, Long>streams, Set<Integer>visited) {
+    if (object == null) return;
+    if (object.isIndirect()) {
+      PRIndirectReference ref = (PRIndirectReference)object;
+      if (!visited.add(ref.getNumber())) return;
+      PdfObject direct = PdfReader.getPdfObjectRelease(ref);
+      if (direct instanceof PRStream) streams.put(ref.getNumber(), (long)((PRStream)direct).getLength());
+      collectStreams(direct, streams, visited);
+      return;
+    }
+    if (object.isDictionary() || object.isStream()) {
+      PdfDictionary dict = (PdfDictionary)object;
+      for (PdfName key: dict.getKeys()) {
+        if (PdfName.PARENT.equals(key)) continue;
+        collectStreams(dict.get(key), streams, visited);
+      }
+    } else if (object.isArray()) {
+      for (PdfObject item: (PdfArray)object) collectStreams(item, streams, visited);
+    }
+  }
+
+  /**
+   * 指定されたページ範囲ごとに並列に出力する。いずれかの出力が失敗した場合は、すべての出力が終了した後に例外となる。
+   * @param ranges ページ範囲のリスト
+   * @param sink 出力先
+   * @return 処理統計。出力一つを一つのジョブとする
+   */
+  public MkBatchStats split(List<Range>ranges, Sink sink) {
+    MkBatchStats stats = new MkBatchStats();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, ranges.size())));
+    try {
+      List<Future<?>>futures = new ArrayList<>();
+      for (Range range: ranges) {
+        PdfReader copy = new PdfReader(reader);
+        stats.submitted(System.nanoTime());
+        futures.add(executor.submit(()->write(copy, range, sink, stats)));
+      }
+      for (Future<?>future: futures) future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new MkException(ex);
+    } catch (ExecutionException ex) {
+      throw new MkException(ex.getCause());
+    } finally {
+      executor.shutdown();
+    }
+    if (stats.getFailureCount() > 0) {
+      throw new MkException(stats.getFailures().get(0));
+    }
+    return stats;
+  }
+
+  /**
+   * 一つのページ範囲を出力する
+   * @param reader このページ範囲専用のリーダ
+   * @param range ページ範囲
+   * @param sink 出力先
+   * @param stats 処理統計
+   */
+  private void write(PdfReader reader, Range range, Sink sink, MkBatchStats stats) {
+    long start = System.nanoTime();
+    OutputStream out = null;
+    try {
+      int lastPage = Math.min(range.lastPage, reader.getNumberOfPages());
+      if (range.firstPage > lastPage) throw new MkException("page range out of bounds " + range);
+      out = sink.open(range);
+      OutputStreamCounter counter = new OutputStreamCounter(out);
+      Document document = new Document(reader.getPageSizeWithRotation(range.firstPage));
+      PdfCopy copy = new PdfCopy(document, counter);
+      document.open();
+      for (int page = range.firstPage; page <= lastPage; page++) {
+        copy.addPage(copy.getImportedPage(reader, page));
+      }
+      document.close();
+      stats.succeeded(System.nanoTime() - start, lastPage - range.firstPage + 1, counter.getCounter());
+    } catch (Throwable th) {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException ex) {
+        }
+      }
+      stats.failed(System.nanoTime() - start, th);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /** 元のPDFをクローズする。ファイルの場合はここで解放される */
+  @Override
+  public void close() {
+    reader.close();
+  }
+
+  /**
+   * 読込を同期化した入力
+   */
+  private static class SynchronizedSource implements RandomAccessSource {
+
+    private final RandomAccessSource source;
+
+    SynchronizedSource(RandomAccessSource source) {
+      this.source = source;
+    }
+
+    @Override
+    public synchronized int get(long position) throws IOException {
+      return source.get(position);
+    }
+
+    @Override
+    public synchronized int get(long position, byte[] bytes, int off, int len) throws IOException {
+      return source.get(position, bytes, off, len);
+    }
+
+    @Override
+    public long length() {
+      return source.length();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      source.close();
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.itextpdf.text.pdf.*;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+
+public class MkPdfSplitterTest {
+
+  private Path file;
+
+  @Before
+  public void before() throws IOException {
+    file = Files.createTempFile("pdfmonk", ".pdf");
+    Files.write(file, MkPdfBinderTest.pdf(MkPdfBinderTest.image(), 5));
+  }
+
+  @After
+  public void after() throws IOException {
+    Files.delete(file);
+  }
+
+  /** クローズされたかを記録する出力先 */
+  private static class Output extends ByteArrayOutputStream {
+    boolean closed;
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  /** ファイルを並列に分割し、各出力が指定範囲のページのみを持つこと */
+  @Test
+  public void split() throws IOException {
+    Map<Integer, Output>outputs = new ConcurrentHashMap<>();
+    try (MkPdfSplitter splitter = new MkPdfSplitter(file).setThreads(3)) {
+      assertEquals(Files.size(file), splitter.getSourceBytes());
+      assertEquals(5, splitter.getPageCount());
+      List<MkPdfSplitter.Range>ranges = splitter.ranges(2);
+      assertEquals(3, ranges.size());
+      MkBatchStats stats = splitter.split(ranges, range->{
+        Output out = new Output();
+        outputs.put(range.getIndex(), out);
+        return out;
+      });
+      assertEquals(3, stats.getJobCount());
+      assertEquals(5, stats.getPageCount());
+    }
+    assertEquals(2, MkPdfBinderTest.pageCount(outputs.get(0).toByteArray()));
+    assertEquals(1, MkPdfBinderTest.pageCount(outputs.get(2).toByteArray()));
+    PdfReader reader = new PdfReader(outputs.get(1).toByteArray());
+    try {
+      assertTrue(PdfTextExtractor.getTextFromPage(reader, 1).contains("page 3"));
+      assertTrue(PdfTextExtractor.getTextFromPage(reader, 2).contains("page 4"));
+    } finally {
+      reader.close();
+    }
+    for (Output out: outputs.values()) assertTrue(out.closed);
+  }
+
+  /** 大きさの上限ごとに分割すると、画像を持つ各ページは別の出力となる */
+  @Test
+  public void rangesBySize() throws IOException {
+    try (MkPdfSplitter splitter = new MkPdfSplitter(Files.readAllBytes(file))) {
+      assertEquals(1, splitter.rangesBySize(Files.size(file) * 2).size());
+      assertEquals(5, splitter.rangesBySize(1).size());
+    }
+  }
+
+  /** 一部の出力が失敗した場合、例外となるが、すべての出力先はクローズされる */
+  @Test
+  public void failure() throws IOException {
+    List<Output>outputs = Collections.synchronizedList(new ArrayList<>());
+    try (MkPdfSplitter splitter = new MkPdfSplitter(file)) {
+      splitter.split(splitter.ranges(1), range->{
+        Output out = range.getIndex() != 2? new Output(): new Output() {
+          @Override
+          public void write(int b) {
+            throw new UncheckedIOException(new IOException("disk full"));
+          }
+          @Override
+          public void write(byte[] bytes, int off, int len) {
+            throw new UncheckedIOException(new IOException("disk full"));
+          }
+        };
+        outputs.add(out);
+        return out;
+      });
+      fail();
+    } catch (MkException ex) {
+    }
+    assertEquals(5, outputs.size());
+    for (Output out: outputs) assertTrue(out.closed);
+  }
+}
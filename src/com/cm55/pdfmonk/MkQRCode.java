@@ -0,0 +1,186 @@
+package com.cm55.pdfmonk;
+
+import java.util.*;
+
+import com.itextpdf.text.*;
+import com.itextpdf.text.pdf.qrcode.*;
+
+/**
+ * QRコード
+ * <p>
+ * 画像ではなく、モジュールを矩形のパスとしてコンテントバイトに直接描画する。各行で連続する暗モジュールは一つの矩形にまとめられ、
+ * 全体が一つのパスとして一度だけ塗りつぶされる。
+ * 同じPDF内で同じ内容・大きさ・色のQRコードを置く場合には、最初に作成したテンプレートが再利用され、符号化も行われない。
+ * </p>
+ * <p>
+ * 符号化の結果はスレッドごとに一つのオブジェクトに格納され、そこからモジュールの行列のみがこのオブジェクトに保持される。
+ * 文字列はUTF-8で符号化される。
+ * </p>
+ * <pre>
+ * new MkQRCode("https://example.com/track/1234").setModuleSize(MkUnit.MM, 0.5f)
+ *   .setToContentByte(canvas, MkUnit.MM, 150, 0);
+ * </pre>
+ * @author ysugimura
+ */
+public class MkQRCode {
+
+  /**
+   * 誤り訂正レベル
+   */
+  public enum Level {
+    /** 約7% */
+    L(ErrorCorrectionLevel.L),
+    /** 約15% */
+    M(ErrorCorrectionLevel.M),
+    /** 約25% */
+    Q(ErrorCorrectionLevel.Q),
+    /** 約30% */
+    H(ErrorCorrectionLevel.H);
+
+    private final ErrorCorrectionLevel level;
+
+    private Level(ErrorCorrectionLevel level) {
+      this.level = level;
+    }
+  }
+
+  /** 符号化のヒント */
+  private static final Map<EncodeHintType, Object>HINTS =
+    Collections.singletonMap(EncodeHintType.CHARACTER_SET, "UTF-8");
+
+  /** スレッドごとに再利用する符号化結果の格納先 */
+  private static final ThreadLocal<QRCode>QR_CODES = ThreadLocal.withInitial(QRCode::new);
+
+  /** 内容 */
+  private final String text;
+
+  /** 誤り訂正レベル */
+  private final Level level;
+
+  /** モジュールの行列。最初に必要になったときに符号化される */
+  private ByteMatrix matrix;
+
+  /** モジュールの大きさ */
+  private MkLen moduleSize = new MkLen(MkUnit.MM, 0.5f);
+
+  /** 周囲の余白のモジュール数 */
+  private int quietZone = 4;
+
+  /** モジュールの色 */
+  private BaseColor color = BaseColor.BLACK;
+
+  /** テンプレートとしてキャッシュするか */
+  private boolean cached = true;
+
+  /**
+   * 内容を指定する。誤り訂正レベルはM
+   * @param text 内容
+   */
+  public MkQRCode(String text) {
+    this(text, Level.M);
+  }
+
+  /**
+   * 内容と誤り訂正レベルを指定する
+   * @param text 内容
+   * @param level 誤り訂正レベル
+   */
+  public MkQRCode(String text, Level level) {
+    this.text = text;
+    this.level = level;
+  }
+
+  /** モジュールの大きさを指定する。デフォルトは0.5mm */
+  public MkQRCode setModuleSize(MkUnit unit, float size) {
+    moduleSize = new MkLen(unit, size);
+    return this;
+  }
+
+  /** 周囲の余白のモジュール数を指定する。デフォルトは規格の4 */
+  public MkQRCode setQuietZone(int quietZone) {
+    if (quietZone < 0) throw new MkException("quietZone must not be negative");
+    this.quietZone = quietZone;
+    return this;
+  }
+
+  /** モジュールの色を指定する。デフォルトは黒 */
+  public MkQRCode setColor(MkColor color) {
+    this.color = color.getBaseColor();
+    return this;
+  }
+
+  /** テンプレートとしてキャッシュするかを指定する。デフォルトはtrue */
+  public MkQRCode setCached(boolean cached) {
+    this.cached = cached;
+    return this;
+  }
+
+  /** 内容を取得する */
+  public String getText() {
+    return text;
+  }
+
+  /** 余白を含む大きさを取得する */
+  public MkDimension getSize() {
+    float size = moduleSize.ptValue() * (getMatrix().getWidth() + quietZone * 2);
+    return new MkDimension(MkUnit.PT, size, size);
+  }
+
+  /** モジュールの行列を取得する */
+  private ByteMatrix getMatrix() {
+    if (matrix != null) return matrix;
+    QRCode qrCode = QR_CODES.get();
+    try {
+      Encoder.encode(text, level.level, HINTS, qrCode);
+    } catch (WriterException ex) {
+      throw new MkException(ex);
+    }
+    matrix = qrCode.getMatrix();
+    return matrix;
+  }
+
+  /**
+   * 指定位置を左上として、余白を含めて描画する
+   * @param contentByte 対象コンテントバイト
+   * @param unit 位置の単位
+   * @param x 描画x位置
+   * @param y 描画y位置
+   */
+  public void setToContentByte(MkContentByte contentByte, MkUnit unit, float x, float y) {
+    setToContentByte(contentByte, new MkDimension(unit, x, y));
+  }
+
+  /**
+   * 指定位置を左上として、余白を含めて描画する
+   * @param contentByte 対象コンテントバイト
+   * @param position 描画位置
+   */
+  public void setToContentByte(MkContentByte contentByte, MkDimension position) {
+    String key = cached? "qr:" + level + ":" + moduleSize.ptValue() + ":" + quietZone + ":" + color.getRGB() + ":" + text:null;
+    contentByte.drawCached(key, this::getSize, position, this::draw);
+  }
+
+  /** モジュールを描画する。各行の連続する暗モジュールを一つの矩形とする */
+  private void draw(MkContentWriter writer, float x, float y) {
+    ByteMatrix matrix = getMatrix();
+    int n = matrix.getWidth();
+    float module = moduleSize.ptValue();
+    float left = x + quietZone * module;
+    float top = y + (quietZone + n) * module;
+    writer.setColorFill(color);
+    for (int row = 0; row < n; row++) {
+      float rowY = top - (row + 1) * module;
+      int col = 0;
+      while (col < n) {
+        if (matrix.get(col, row) != 1) {
+          col++;
+          continue;
+        }
+        int start = col;
+        while (col < n && matrix.get(col, row) == 1) col++;
+        writer.rectangle(left + start * module, rowY, (col - start) * module, module);
+      }
+    }
+    writer.fill();
+  }
+}
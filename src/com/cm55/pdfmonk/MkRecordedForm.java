@@ -0,0 +1,100 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+import com.itextpdf.text.pdf.*;
+
+/**
+ * 一度だけ描画しておき、複数のドキュメントで再利用できるフォーム
+ * <p>
+ * {@link MkTemplate}はそれを作成したドキュメントでしか使用できないため、レターヘッドや枠線のような固定の描画内容であっても、
+ * ドキュメントごとにレイアウトし直す必要がある。このオブジェクトは、描画内容を一ページ分のPDFとして一度だけ記録しておき、
+ * 各ドキュメントには{@link #importTo(MkContentByte)}によってフォームXObjectとして取り込む。
+ * 取り込まれたものは{@link MkTemplate}として扱うことができ、同じドキュメント内では何度置いても一つのXObjectへの参照となる。
+ * </p>
+ * <p>
+ * 記録後のこのオブジェクトは変更されないので、複数のスレッドで作成される複数のドキュメントで共有することができる。
+ * 取り込まれたテンプレートは取込先のドキュメントのキャッシュに保持され、このオブジェクトは取込先を参照しない。
+ * </p>
+ * <pre>
+ * MkRecordedForm form = new MkRecordedForm(ctx, geo, canvas-&gt; {
+ *   new MkTextBlock(ctx, "納品書").setToContentByte(canvas, MkUnit.MM, 0, 0);
+ * });
+ * ...
+ * MkTemplate template = form.importTo(doc.getCanvasUnder());
+ * </pre>
+ * @author ysugimura
+ */
+public class MkRecordedForm {
+
+  /** 記録されたPDF */
+  private final byte[]pdf;
+
+  /** 記録時のジオメトリ */
+  private final MkGeometry geometry;
+
+  /** 取込先のキャッシュでこのフォームを表すキーの連番 */
+  private static final AtomicLong serial = new AtomicLong();
+
+  /** 取込先のキャッシュでこのフォームを表すキー */
+  private final String key = "form:" + serial.incrementAndGet();
+
+  /**
+   * 描画内容を記録する。
+   * 描画関数には、指定ジオメトリのページを表す{@link MkCanvas}が渡されるので、通常のドキュメントと同様に描画する。
+   * ただし改ページをしてはならない。
+   * @param ctx コンテキスト
+   * @param geometry ジオメトリ
+   * @param drawer 描画関数
+   */
+  public MkRecordedForm(MkContext ctx, MkGeometry geometry, Consumer<MkCanvas>drawer) {
+    this.geometry = geometry;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MkDocument doc = new MkDocument(ctx, geometry, out);
+    drawer.accept(doc.getCanvasOver());
+    if (doc.getPageNumber() != 1) throw new MkException("recorded form must be a single page");
+    doc.close();
+    pdf = out.toByteArray();
+  }
+
+  /**
+   * 既に作成されたPDFの最初のページをフォームとする
+   * @param pdf PDFのバイト配列
+   * @param geometry そのPDFのジオメトリ
+   */
+  public MkRecordedForm(byte[]pdf, MkGeometry geometry) {
+    this.pdf = pdf;
+    this.geometry = geometry;
+  }
+
+  /** ジオメトリを取得する */
+  public MkGeometry getGeometry() {
+    return geometry;
+  }
+
+  /** 記録されたPDFを取得する。変更してはならない */
+  public byte[]getBytes() {
+    return pdf;
+  }
+
+  /**
+   * 指定されたコンテントバイトの属するドキュメントにフォームを取り込み、テンプレートとして取得する。
+   * 同じドキュメントに対しては、何度呼び出しても同じテンプレートが返される。
+   * @param contentByte 取込先のコンテントバイト
+   * @return 取り込まれたテンプレート。ページ全体の大きさを持つ
+   */
+  public MkTemplate importTo(MkContentByte contentByte) {
+    return contentByte.importTemplate("recordedForm", key, ()->new PdfReader(pdf), 1);
+  }
+
+  /**
+   * フォームを指定されたコンテントバイトのページ全体に置く。
+   * フォームのジオメトリとコンテントバイトのジオメトリの用紙サイズは同じであることが前提となる。
+   * @param contentByte 対象コンテントバイト
+   */
+  public void setToContentByte(MkContentByte contentByte) {
+    contentByte.getITextContentByte().addTemplate(importTo(contentByte).getITextContentByte(), 0, 0);
+  }
+}
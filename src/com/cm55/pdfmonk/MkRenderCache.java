@@ -0,0 +1,385 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * 描画結果のキャッシュ
+ * <p>
+ * 同じ請求書の再印刷や、多数の顧客に対する同じカタログページのように、同じ内容のPDFを何度も作成する場合に用いる。
+ * 描画内容のハッシュ値と描画コードのバージョンをキーとして、完成したPDFのバイト列を保持する。
+ * 描画内容のハッシュ値は、呼び出し側で計算したものを用いてもよいし、{@link #hash(String...)}等で計算してもよい。
+ * 描画コードを変更した場合には、バージョンを変更すれば、以前の描画結果が使用されることはない。
+ * </p>
+ * <p>
+ * {@link #render(String, MkContext, MkGeometry, Consumer)}で作成されるドキュメントは、{@link MkDocument#setDeterministic(String, long)}
+ * によって決定的な出力となるので、キャッシュされたものと新たに描画したものは同じバイト列になる。
+ * </p>
+ * <p>
+ * 同じキーに対する要求が同時に複数あった場合、描画は一度だけ行われ、他の要求はその結果を待つ。
+ * キャッシュはメモリ上に保持され、予算を超えると最も長く使われていないものから破棄される。
+ * {@link #setDiskCache(File, long)}を指定すると、メモリから破棄されたものもディスク上に残され、同様に予算を超えると古いものから削除される。
+ * ディスクの読み書きはロックの外で行われ、失敗した場合はキャッシュに無いものとして扱われる。
+ * </p>
+ * @author ysugimura
+ */
+public class MkRenderCache {
+
+  /**
+   * 描画関数
+   */
+  @FunctionalInterface
+  public interface Renderer {
+    /**
+     * PDFを出力する
+     * @param out 出力先
+     */
+    public void render(OutputStream out) throws Exception;
+  }
+
+  /** 描画コードのバージョン */
+  private final String version;
+
+  /** メモリ上のキャッシュの予算バイト数 */
+  private final long memoryBudget;
+
+  /** 決定的な出力の作成日時・更新日時 */
+  private long timestamp = 0;
+
+  /** メモリ上のキャッシュ。最も長く使われていないものが先頭 */
+  private final LinkedHashMap<String, byte[]>memory = new LinkedHashMap<>(16, 0.75f, true);
+
+  /** メモリ上のキャッシュのバイト数 */
+  private long memoryBytes;
+
+  /** ディスクキャッシュのディレクトリ */
+  private File diskDir;
+
+  /** ディスクキャッシュの予算バイト数 */
+  private long diskBudget;
+
+  /** ディスク上のキャッシュファイル。古いものが先頭 */
+  private final LinkedHashMap<String, Long>disk = new LinkedHashMap<>(16, 0.75f, true);
+
+  /** ディスク上のキャッシュのバイト数 */
+  private long diskBytes;
+
+  /** 描画中のキー */
+  private final ConcurrentHashMap<String, CompletableFuture<byte[]>>inflight = new ConcurrentHashMap<>();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * 描画コードのバージョンとメモリ上の予算を指定する
+   * @param version 描画コードのバージョン
+   * @param memoryBudget メモリ上のキャッシュの予算バイト数
+   */
+  public MkRenderCache(String version, long memoryBudget) {
+    this.version = version;
+    this.memoryBudget = memoryBudget;
+  }
+
+  /**
+   * ディスクキャッシュを設定する。ディレクトリに既に存在するキャッシュファイルも使用される。
+   * @param dir ディレクトリ
+   * @param diskBudget ディスク上のキャッシュの予算バイト数
+   * @return このオブジェクト
+   */
+  public synchronized MkRenderCache setDiskCache(File dir, long diskBudget) {
+    dir.mkdirs();
+    this.diskDir = dir;
+    this.diskBudget = diskBudget;
+    File[]files = dir.listFiles((d, name)->name.endsWith(".pdf"));
+    if (files != null) {
+      Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+      for (File file: files) {
+        String key = file.getName().substring(0, file.getName().length() - 4);
+        disk.put(key, file.length());
+        diskBytes += file.length();
+      }
+    }
+    delete(evictDisk());
+    return this;
+  }
+
+  /** 決定的な出力の作成日時・更新日時を指定する。デフォルトは1970年1月1日 */
+  public MkRenderCache setTimestamp(long timeMillis) {
+    this.timestamp = timeMillis;
+    return this;
+  }
+
+  /**
+   * 描画内容のハッシュ値を計算する
+   * @param parts 描画内容を表す文字列
+   * @return ハッシュ値
+   */
+  public static String hash(String...parts) {
+    MessageDigest digest = sha256();
+    for (String part: parts) {
+      digest.update(part.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte)0);
+    }
+    return toHex(digest.digest());
+  }
+
+  /**
+   * 描画内容のハッシュ値を計算する
+   * @param parts 描画内容を表すバイト列
+   * @return ハッシュ値
+   */
+  public static String hash(byte[]...parts) {
+    MessageDigest digest = sha256();
+    for (byte[]part: parts) {
+      digest.update(part);
+      digest.update((byte)0);
+    }
+    return toHex(digest.digest());
+  }
+
+  /**
+   * ドキュメントを描画するか、あるいはキャッシュされたものを取得する。
+   * ドキュメントは決定的な出力となるよう設定された上で描画関数に渡される。クローズはこのメソッドで行われる。
+   * @param contentHash 描画内容のハッシュ値
+   * @param ctx コンテキスト
+   * @param geometry ジオメトリ
+   * @param body 描画関数
+   * @return PDFのバイト列。変更してはならない
+   */
+  public byte[]render(String contentHash, MkContext ctx, MkGeometry geometry, Consumer<MkDocument>body) {
+    String key = keyOf(contentHash);
+    return obtain(key, ctx.getRenderListener(), out-> {
+      MkDocument doc = new MkDocument(ctx, geometry, out);
+      doc.setDeterministic(key, timestamp);
+      body.accept(doc);
+      doc.close();
+    });
+  }
+
+  /**
+   * 任意の描画関数でPDFを作成するか、あるいはキャッシュされたものを取得する。
+   * 出力が決定的であることは呼び出し側で保証すること。
+   * @param contentHash 描画内容のハッシュ値
+   * @param renderer 描画関数
+   * @return PDFのバイト列。変更してはならない
+   */
+  public byte[]get(String contentHash, Renderer renderer) {
+    return obtain(keyOf(contentHash), null, renderer);
+  }
+
+  /** 
+   * キャッシュから取得する。無ければ描画するが、同じキーを描画中のものがあれば、その結果を待つ。
+   * @param key キー
+   * @param listener 描画計測リスナ、もしくはnull
+   * @param renderer 描画関数
+   * @return PDFのバイト列
+   */
+  private byte[]obtain(String key, MkRenderListener listener, Renderer renderer) {
+    byte[]bytes = lookup(key);
+    if (listener != null) listener.cacheAccess("renderCache", bytes != null);
+    if (bytes != null) {
+      hits.incrementAndGet();
+      return bytes;
+    }
+
+    CompletableFuture<byte[]>future = new CompletableFuture<>();
+    CompletableFuture<byte[]>existing = inflight.putIfAbsent(key, future);
+    if (existing != null) {
+      coalesced.incrementAndGet();
+      return join(existing);
+    }
+
+    try {
+      // 検索から登録までの間に、他の要求の描画が終了している場合がある
+      bytes = lookup(key);
+      if (bytes != null) {
+        hits.incrementAndGet();
+        future.complete(bytes);
+        return bytes;
+      }
+      misses.incrementAndGet();
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      renderer.render(out);
+      bytes = out.toByteArray();
+      store(key, bytes);
+      future.complete(bytes);
+      return bytes;
+    } catch (Throwable th) {
+      future.completeExceptionally(th);
+      if (th instanceof MkException) throw (MkException)th;
+      throw new MkException(th);
+    } finally {
+      inflight.remove(key);
+    }
+  }
+
+  /** ヒット数を取得する */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /** ミス数、つまり実際に描画した回数を取得する */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /** 他の要求の描画結果を待った回数を取得する */
+  public long getCoalescedCount() {
+    return coalesced.get();
+  }
+
+  /** メモリあるいはディスクから破棄した回数を取得する */
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /** メモリ上のキャッシュのバイト数を取得する */
+  public synchronized long getMemoryBytes() {
+    return memoryBytes;
+  }
+
+  /** ディスク上のキャッシュのバイト数を取得する */
+  public synchronized long getDiskBytes() {
+    return diskBytes;
+  }
+
+  /** デバッグ用。文字列化する */
+  @Override
+  public String toString() {
+    return "hits:" + getHitCount() + ",misses:" + getMissCount() + ",coalesced:" + getCoalescedCount() +
+      ",evictions:" + getEvictionCount() + ",memory:" + getMemoryBytes() + ",disk:" + getDiskBytes();
+  }
+
+  /** キャッシュのキーを求める */
+  private String keyOf(String contentHash) {
+    return hash(version, contentHash);
+  }
+
+  /** メモリ、ディスクの順にキャッシュを探す。ディスクから読み込めなかったものは破棄する */
+  private byte[]lookup(String key) {
+    File file;
+    synchronized (this) {
+      byte[]bytes = memory.get(key);
+      if (bytes != null) return bytes;
+      if (diskDir == null || disk.get(key) == null) return null;
+      file = fileOf(key);
+    }
+    byte[]bytes;
+    try {
+      bytes = Files.readAllBytes(file.toPath());
+    } catch (IOException ex) {
+      synchronized (this) {
+        Long size = disk.remove(key);
+        if (size != null) diskBytes -= size;
+      }
+      return null;
+    }
+    synchronized (this) {
+      putMemory(key, bytes);
+    }
+    return bytes;
+  }
+
+  /** メモリとディスクに格納する。ディスクに書き込めなかった場合は、メモリにのみ格納される */
+  private void store(String key, byte[]bytes) {
+    File dir;
+    synchronized (this) {
+      putMemory(key, bytes);
+      if (diskDir == null || disk.containsKey(key)) return;
+      dir = diskDir;
+    }
+    File file = new File(dir, key + ".pdf");
+    try {
+      Path temp = Files.createTempFile(dir.toPath(), key, ".tmp");
+      try {
+        Files.write(temp, bytes);
+        Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    } catch (IOException ex) {
+      return;
+    }
+    List<File>evicted;
+    synchronized (this) {
+      if (dir != diskDir || disk.containsKey(key)) return;
+      disk.put(key, (long)bytes.length);
+      diskBytes += bytes.length;
+      evicted = evictDisk();
+    }
+    delete(evicted);
+  }
+
+  private void putMemory(String key, byte[]bytes) {
+    byte[]old = memory.put(key, bytes);
+    if (old != null) memoryBytes -= old.length;
+    memoryBytes += bytes.length;
+    Iterator<Map.Entry<String, byte[]>>it = memory.entrySet().iterator();
+    while (memoryBytes > memoryBudget && it.hasNext()) {
+      Map.Entry<String, byte[]>e = it.next();
+      if (e.getKey().equals(key)) continue;
+      memoryBytes -= e.getValue().length;
+      it.remove();
+      evictions.incrementAndGet();
+    }
+  }
+
+  /** ディスクの予算を超えた分を古いものから破棄し、削除すべきファイルを返す */
+  private List<File>evictDisk() {
+    List<File>evicted = new ArrayList<>();
+    Iterator<Map.Entry<String, Long>>it = disk.entrySet().iterator();
+    while (diskBytes > diskBudget && it.hasNext()) {
+      Map.Entry<String, Long>e = it.next();
+      evicted.add(fileOf(e.getKey()));
+      diskBytes -= e.getValue();
+      it.remove();
+      evictions.incrementAndGet();
+    }
+    return evicted;
+  }
+
+  /** 破棄したファイルを削除する。失敗しても無視する */
+  private static void delete(List<File>files) {
+    files.forEach(File::delete);
+  }
+
+  private File fileOf(String key) {
+    return new File(diskDir, key + ".pdf");
+  }
+
+  private static byte[]join(CompletableFuture<byte[]>future) {
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new MkException(ex);
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof MkException) throw (MkException)ex.getCause();
+      throw new MkException(ex.getCause());
+    }
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new MkException(ex);
+    }
+  }
+
+  private static String toHex(byte[]bytes) {
+    StringBuilder s = new StringBuilder();
+    for (byte b: bytes) {
+      s.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return s.toString();
+  }
+}
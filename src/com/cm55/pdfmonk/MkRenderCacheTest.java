@@ -0,0 +1,134 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.itextpdf.text.pdf.*;
+
+public class MkRenderCacheTest {
+
+  /** 指定バイト数のバイト列を出力する描画関数 */
+  private static MkRenderCache.Renderer bytes(int size, AtomicInteger count) {
+    return out-> {
+      count.incrementAndGet();
+      out.write(new byte[size]);
+    };
+  }
+
+  @Test
+  public void hitMissEviction() {
+    MkRenderCache cache = new MkRenderCache("1", 250);
+    AtomicInteger count = new AtomicInteger();
+    cache.get("a", bytes(100, count));
+    cache.get("a", bytes(100, count));
+    assertEquals(1, count.get());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(1, cache.getHitCount());
+
+    // 予算を超えると最も長く使われていないものが破棄される
+    cache.get("b", bytes(100, count));
+    cache.get("a", bytes(100, count));
+    cache.get("c", bytes(100, count));
+    assertEquals(1, cache.getEvictionCount());
+    assertEquals(200, cache.getMemoryBytes());
+    cache.get("a", bytes(100, count));
+    assertEquals(3, count.get());
+    cache.get("b", bytes(100, count));
+    assertEquals(4, count.get());
+
+    // バージョンが異なれば別のキーとなる
+    MkRenderCache other = new MkRenderCache("2", 250);
+    other.get("a", bytes(100, count));
+    assertEquals(1, other.getMissCount());
+  }
+
+  @Test
+  public void coalescing() throws Exception {
+    MkRenderCache cache = new MkRenderCache("1", 1000);
+    AtomicInteger count = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<byte[]>first = executor.submit(()->cache.get("a", out-> {
+        count.incrementAndGet();
+        started.countDown();
+        release.await();
+        out.write(1);
+      }));
+      started.await();
+      Future<byte[]>second = executor.submit(()->cache.get("a", bytes(1, count)));
+      while (cache.getCoalescedCount() == 0 && !second.isDone()) Thread.sleep(1);
+      release.countDown();
+      assertSame(first.get(), second.get());
+      assertEquals(1, count.get());
+      assertEquals(1, cache.getCoalescedCount());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void diskCache() throws IOException {
+    Path dir = Files.createTempDirectory("pdfmonk");
+    try {
+      AtomicInteger count = new AtomicInteger();
+      MkRenderCache cache = new MkRenderCache("1", 1000).setDiskCache(dir.toFile(), 1000);
+      cache.get("a", bytes(100, count));
+      assertEquals(100, cache.getDiskBytes());
+
+      // ディスク上に残ったものは、別のキャッシュからも使用される
+      MkRenderCache reopened = new MkRenderCache("1", 1000).setDiskCache(dir.toFile(), 1000);
+      assertEquals(100, reopened.get("a", bytes(100, count)).length);
+      assertEquals(1, count.get());
+      assertEquals(1, reopened.getHitCount());
+    } finally {
+      try (DirectoryStream<Path>files = Files.newDirectoryStream(dir)) {
+        for (Path file: files) Files.delete(file);
+      }
+      Files.delete(dir);
+    }
+  }
+
+  /** ディスクに書き込めなくても、描画は成功する */
+  @Test
+  public void diskFailure() throws IOException {
+    Path dir = Files.createTempDirectory("pdfmonk");
+    MkRenderCache cache = new MkRenderCache("1", 1000).setDiskCache(dir.toFile(), 1000);
+    Files.delete(dir);
+    AtomicInteger count = new AtomicInteger();
+    assertEquals(100, cache.get("a", bytes(100, count)).length);
+    assertEquals(0, cache.getDiskBytes());
+    cache.get("a", bytes(100, count));
+    assertEquals(1, count.get());
+  }
+
+  /** 同じ内容の描画は同じバイト列となり、文書情報にトレイラと同じ文字列があっても壊れない */
+  @Test
+  public void deterministic() throws IOException {
+    MkContext ctx = MkContext.getDefault();
+    List<byte[]>results = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      MkRenderCache cache = new MkRenderCache("1", 1000000);
+      results.add(cache.render("invoice", ctx, MkGeometry.A4_PORTRAIT, doc-> {
+        doc.getITextDocument().addTitle("trailer /ID [<abc");
+        new MkTextBlock(ctx, "Invoice").setToContentByte(doc.getCanvasOver(), MkUnit.MM, 0, 0);
+      }));
+    }
+    assertArrayEquals(results.get(0), results.get(1));
+    PdfReader reader = new PdfReader(results.get(0));
+    try {
+      assertEquals("trailer /ID [<abc", reader.getInfo().get("Title"));
+      PdfArray id = reader.getTrailer().getAsArray(PdfName.ID);
+      assertArrayEquals(id.getAsString(0).getBytes(), id.getAsString(1).getBytes());
+    } finally {
+      reader.close();
+    }
+  }
+}
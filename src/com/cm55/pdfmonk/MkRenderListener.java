@@ -0,0 +1,71 @@
+package com.cm55.pdfmonk;
+
+/**
+ * 描画計測リスナ
+ * <p>
+ * {@link MkContext#setRenderListener(MkRenderListener)}によってコンテキストに設定すると、そのコンテキストを使用する
+ * {@link MkDocument}、{@link MkTable}、{@link MkTextBlock}、{@link MkImage}等から、各フェーズの処理時間、ページ数、
+ * 描画された要素数、出力バイト数、キャッシュのヒット状況が通知される。
+ * </p>
+ * <p>
+ * リスナが設定されていない場合には、計測のための時刻取得等は一切行われない。
+ * 標準の実装としては、ヒストグラムに集計する{@link MkRenderStats}がある。
+ * </p>
+ * <p>
+ * コンテキストが複製されてもリスナ自体は複製されず、同じものが共有される。
+ * したがって、複数のスレッドから同時に呼び出される可能性があるため、実装はスレッドセーフでなければならない。
+ * </p>
+ * @author ysugimura
+ */
+public interface MkRenderListener extends MkDuplicatable<MkRenderListener> {
+
+  /**
+   * あるフェーズの処理が終了した
+   * @param phase フェーズ
+   * @param nanos 処理時間（ナノ秒）
+   */
+  public void phase(MkRenderPhase phase, long nanos);
+
+  /**
+   * 要素が一つ描画された。{@link #phase(MkRenderPhase, long)}の直後に通知される
+   * @param phase 要素の種類を表すフェーズ。{@link MkRenderPhase#isElement()}がtrueのもの
+   */
+  public default void elementDrawn(MkRenderPhase phase) {
+  }
+
+  /**
+   * ページの描画が終了した
+   * @param pageNumber 終了したページの番号。１から開始する
+   * @param bytesWritten その時点までに出力されたバイト数
+   */
+  public void pageCompleted(int pageNumber, long bytesWritten);
+
+  /**
+   * ドキュメントがクローズされた
+   * @param pageCount 総ページ数
+   * @param bytesWritten 総出力バイト数
+   */
+  public void documentClosed(int pageCount, long bytesWritten);
+
+  /**
+   * キャッシュが参照された
+   * @param cache キャッシュの名称
+   * @param hit true:ヒット、false:ミス
+   */
+  public void cacheAccess(String cache, boolean hit);
+
+  /**
+   * ページのコンテンツの出力が終了した。グラフィックス状態の追跡によって省略された演算子が通知される
+   * @param pageNumber ページ番号。１から開始する
+   * @param skippedOperators 省略された演算子の数
+   * @param savedBytes 省略されたバイト数。圧縮前の値
+   */
+  public default void contentOptimized(int pageNumber, int skippedOperators, long savedBytes) {
+  }
+
+  /** リスナは複製せず、同じものを共有する */
+  @Override
+  public default MkRenderListener duplicate() {
+    return this;
+  }
+}
@@ -0,0 +1,63 @@
+package com.cm55.pdfmonk;
+
+/**
+ * 描画処理の計測対象フェーズ
+ * <p>
+ * {@link MkRenderListener}に対して、どの処理にどれだけの時間がかかったかを通知する際の区分である。
+ * 計測のための時刻取得は、リスナが設定されている場合にのみ行われる。つまり、リスナの無い場合には
+ * {@link #start(MkRenderListener)}、{@link #end(MkRenderListener, long)}は何もしない。
+ * </p>
+ * <p>
+ * 要素を描画するフェーズでは、終了時に{@link MkRenderListener#elementDrawn(MkRenderPhase)}も通知される。
+ * </p>
+ * @author ysugimura
+ */
+public enum MkRenderPhase {
+  /** {@link MkDocument#newPage()}による改ページ */
+  NEW_PAGE(false),
+  /** {@link MkDocument#add(MkElement)}による要素追加 */
+  ADD_ELEMENT(true),
+  /** {@link MkTable}の描画 */
+  TABLE(true),
+  /** {@link MkTextBlock}の折返し計算 */
+  TEXT_FOLD(false),
+  /** {@link MkTextBlock}の描画 */
+  TEXT_DRAW(true),
+  /** {@link MkImage}の配置 */
+  IMAGE(true),
+  /** {@link MkDocument#close()}によるクローズ */
+  CLOSE(false);
+
+  /** 要素を描画するフェーズであるか */
+  private final boolean element;
+
+  private MkRenderPhase(boolean element) {
+    this.element = element;
+  }
+
+  /** 要素を描画するフェーズであるかを取得する */
+  public boolean isElement() {
+    return element;
+  }
+
+  /**
+   * 計測を開始する。リスナが無い場合には時刻を取得せずに0を返す。
+   * @param listener リスナ、もしくはnull
+   * @return 開始時刻（ナノ秒）
+   */
+  static long start(MkRenderListener listener) {
+    if (listener == null) return 0;
+    return System.nanoTime();
+  }
+
+  /**
+   * 計測を終了し、リスナに通知する。要素を描画するフェーズでは、要素の描画も通知する。リスナが無い場合には何もしない。
+   * @param listener リスナ、もしくはnull
+   * @param start {@link #start(MkRenderListener)}で取得した開始時刻
+   */
+  void end(MkRenderListener listener, long start) {
+    if (listener == null) return;
+    listener.phase(this, System.nanoTime() - start);
+    if (element) listener.elementDrawn(this);
+  }
+}
@@ -0,0 +1,221 @@
+package com.cm55.pdfmonk;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * {@link MkRenderListener}の標準実装。通知された値を集計する。
+ * <p>
+ * フェーズごとの処理時間は{@link MkHistogram}に集計され、そのフェーズの処理回数が要素数となる。
+ * その他、種類ごとの描画要素数、ページ数、ドキュメント数、出力バイト数、キャッシュごとのヒット・ミス数、
+ * 省略された演算子の数とバイト数を保持する。
+ * </p>
+ * <p>
+ * {@link #toString()}は、集計結果をPrometheusのテキスト形式で出力するので、そのまま外部から収集させることができる。
+ * </p>
+ * <pre>
+ * MkRenderStats stats = new MkRenderStats();
+ * MkContext ctx = MkContext.getDefault().setRenderListener(stats);
+ * MkDocument doc = new MkDocument(ctx, geo, out);
+ * ...
+ * doc.close();
+ * System.out.println(stats);
+ * </pre>
+ * @author ysugimura
+ */
+public class MkRenderStats implements MkRenderListener {
+
+  /** フェーズごとの処理時間 */
+  private final EnumMap<MkRenderPhase, MkHistogram>phases = new EnumMap<>(MkRenderPhase.class);
+
+  /** フェーズごとの描画要素数 */
+  private final AtomicLongArray elements = new AtomicLongArray(MkRenderPhase.values().length);
+
+  /** 一ページあたりの出力バイト数 */
+  private final MkHistogram pageBytes = new MkHistogram();
+
+  /** 総ページ数 */
+  private final AtomicLong pages = new AtomicLong();
+
+  /** 総ドキュメント数 */
+  private final AtomicLong documents = new AtomicLong();
+
+  /** 総出力バイト数 */
+  private final AtomicLong bytes = new AtomicLong();
+
+  /** 省略された演算子の総数 */
+  private final AtomicLong skippedOperators = new AtomicLong();
+
+  /** 省略された総バイト数 */
+  private final AtomicLong savedBytes = new AtomicLong();
+
+  /** キャッシュ名称／ヒット数・ミス数 */
+  private final ConcurrentHashMap<String, AtomicLongArray>caches = new ConcurrentHashMap<>();
+
+  /** 直前のページ終了時の出力バイト数。スレッドごとに保持する */
+  private final ThreadLocal<long[]>lastBytes = ThreadLocal.withInitial(()->new long[1]);
+
+  public MkRenderStats() {
+    for (MkRenderPhase phase: MkRenderPhase.values()) phases.put(phase, new MkHistogram());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void phase(MkRenderPhase phase, long nanos) {
+    phases.get(phase).record(nanos);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void elementDrawn(MkRenderPhase phase) {
+    elements.incrementAndGet(phase.ordinal());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void pageCompleted(int pageNumber, long bytesWritten) {
+    long[]last = lastBytes.get();
+    if (pageNumber == 1) last[0] = 0;
+    pageBytes.record(bytesWritten - last[0]);
+    last[0] = bytesWritten;
+    pages.incrementAndGet();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void documentClosed(int pageCount, long bytesWritten) {
+    documents.incrementAndGet();
+    bytes.addAndGet(bytesWritten);
+    lastBytes.get()[0] = 0;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cacheAccess(String cache, boolean hit) {
+    caches.computeIfAbsent(cache, c->new AtomicLongArray(2)).incrementAndGet(hit? 0:1);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void contentOptimized(int pageNumber, int skippedOperators, long savedBytes) {
+    this.skippedOperators.addAndGet(skippedOperators);
+    this.savedBytes.addAndGet(savedBytes);
+  }
+
+  /** 指定フェーズの処理時間ヒストグラムを取得する */
+  public MkHistogram getPhase(MkRenderPhase phase) {
+    return phases.get(phase);
+  }
+
+  /**
+   * 指定フェーズで描画された要素数を取得する
+   * @param phase {@link MkRenderPhase#isElement()}がtrueのフェーズ。それ以外では0となる
+   * @return 要素数
+   */
+  public long getElementCount(MkRenderPhase phase) {
+    return elements.get(phase.ordinal());
+  }
+
+  /** 描画された総要素数を取得する */
+  public long getElementCount() {
+    long total = 0;
+    for (int i = 0; i < elements.length(); i++) total += elements.get(i);
+    return total;
+  }
+
+  /** ページあたりの出力バイト数ヒストグラムを取得する */
+  public MkHistogram getPageBytes() {
+    return pageBytes;
+  }
+
+  /** 総ページ数を取得する */
+  public long getPageCount() {
+    return pages.get();
+  }
+
+  /** 総ドキュメント数を取得する */
+  public long getDocumentCount() {
+    return documents.get();
+  }
+
+  /** 総出力バイト数を取得する */
+  public long getBytesWritten() {
+    return bytes.get();
+  }
+
+  /** 省略された演算子の総数を取得する */
+  public long getSkippedOperators() {
+    return skippedOperators.get();
+  }
+
+  /** 省略された総バイト数を取得する。圧縮前の値 */
+  public long getSavedBytes() {
+    return savedBytes.get();
+  }
+
+  /**
+   * 指定キャッシュのヒット率を取得する。参照の無い場合は0
+   * @param cache キャッシュ名称
+   * @return 0から1までのヒット率
+   */
+  public double getHitRate(String cache) {
+    AtomicLongArray a = caches.get(cache);
+    if (a == null) return 0;
+    long total = a.get(0) + a.get(1);
+    if (total == 0) return 0;
+    return (double)a.get(0) / total;
+  }
+
+  /** すべての集計を消去する */
+  public void reset() {
+    phases.values().forEach(MkHistogram::reset);
+    for (int i = 0; i < elements.length(); i++) elements.set(i, 0);
+    pageBytes.reset();
+    pages.set(0);
+    documents.set(0);
+    bytes.set(0);
+    skippedOperators.set(0);
+    savedBytes.set(0);
+    caches.clear();
+  }
+
+  /** 集計結果をPrometheusのテキスト形式で出力する */
+  @Override
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    s.append("# TYPE pdfmonk_phase_seconds summary\n");
+    for (Map.Entry<MkRenderPhase, MkHistogram>e: phases.entrySet()) {
+      String label = "phase=\"" + e.getKey().name().toLowerCase() + "\"";
+      MkHistogram h = e.getValue();
+      for (double q: new double[] { 50, 95, 99 }) {
+        s.append("pdfmonk_phase_seconds{").append(label).append(",quantile=\"").append(q / 100).append("\"} ")
+          .append(h.getPercentile(q) / 1e9).append('\n');
+      }
+      s.append("pdfmonk_phase_seconds_sum{").append(label).append("} ").append(h.getSum() / 1e9).append('\n');
+      s.append("pdfmonk_phase_seconds_count{").append(label).append("} ").append(h.getCount()).append('\n');
+    }
+    s.append("# TYPE pdfmonk_elements_total counter\n");
+    for (MkRenderPhase phase: MkRenderPhase.values()) {
+      if (!phase.isElement()) continue;
+      s.append("pdfmonk_elements_total{phase=\"").append(phase.name().toLowerCase()).append("\"} ")
+        .append(elements.get(phase.ordinal())).append('\n');
+    }
+    s.append("# TYPE pdfmonk_pages_total counter\n");
+    s.append("pdfmonk_pages_total ").append(pages.get()).append('\n');
+    s.append("# TYPE pdfmonk_documents_total counter\n");
+    s.append("pdfmonk_documents_total ").append(documents.get()).append('\n');
+    s.append("# TYPE pdfmonk_bytes_written_total counter\n");
+    s.append("pdfmonk_bytes_written_total ").append(bytes.get()).append('\n');
+    s.append("# TYPE pdfmonk_skipped_operators_total counter\n");
+    s.append("pdfmonk_skipped_operators_total ").append(skippedOperators.get()).append('\n');
+    s.append("# TYPE pdfmonk_saved_content_bytes_total counter\n");
+    s.append("pdfmonk_saved_content_bytes_total ").append(savedBytes.get()).append('\n');
+    s.append("# TYPE pdfmonk_cache_requests_total counter\n");
+    caches.forEach((name, a)-> {
+      s.append("pdfmonk_cache_requests_total{cache=\"").append(name).append("\",result=\"hit\"} ").append(a.get(0)).append('\n');
+      s.append("pdfmonk_cache_requests_total{cache=\"").append(name).append("\",result=\"miss\"} ").append(a.get(1)).append('\n');
+    });
+    return s.toString();
+  }
+}
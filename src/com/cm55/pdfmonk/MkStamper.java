@@ -1,7 +1,11 @@
 package com.cm55.pdfmonk;
 
 import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
 
+import com.itextpdf.text.*;
 import com.itextpdf.text.pdf.*;
 
 /**
@@ -23,6 +27,20 @@ import com.itextpdf.text.pdf.*;
  * <p>
  * 作業が終了したら{@link #close()}を呼び出す。
  * </p>
+ * <p>
+ * ファイルを入力とする場合、ファイルはメモリマップされ、実際に参照されるオブジェクトのみが読み込まれる。
+ * 入力ファイルと出力ファイルを同じにすることはできない。
+ * </p>
+ * <p>
+ * 大きなファイルの一部のページにスタンプする場合には、{@link #MkStamper(MkContext, MkGeometry, Path, Path, boolean)}で
+ * 追記モードを指定する。元のファイルの内容はバイト列のまま出力ファイルにコピーされ、その後に変更部分のみが増分更新として追加される。
+ * コピーのためにファイル全体を一度読み込むことは避けられないが、オブジェクトの解析と再出力は変更部分のみとなるので、
+ * 通常のモードに比べて処理量とヒープ使用量が少ない。
+ * </p>
+ * <p>
+ * フォームのフィールドには{@link #setField(String, String)}で値を設定できる。
+ * 同じ様式に多数のレコードを記入する場合には{@link MkFormTemplate}を用いる。
+ * </p>
  */
 public class MkStamper  {
 
@@ -40,14 +58,73 @@ public class MkStamper  {
 
   /** ページ数 */
   private int pageCount;
+
+  /** フォームのフィールド。最初に値を設定するときに取得される */
+  private AcroFields fields;
+
+  /** フィールドの外観設定のキャッシュ。nullの場合はキャッシュしない */
+  private Map<String, TextField>fieldCache;
+
+  /** 取得済の最前面コンテンツバイト。ページ番号／コンテンツバイト */
+  private final Map<Integer, MkContentByte>overs = new TreeMap<>();
+
+  /** 取得済の最背面コンテンツバイト。ページ番号／コンテンツバイト */
+  private final Map<Integer, MkContentByte>unders = new TreeMap<>();
+
+  /** テンプレートのキャッシュを保持する最初のコンテンツバイト */
+  private MkContentByte templates;
   
   public MkStamper(MkContext ctx, MkGeometry geometry, File in, File out) throws IOException {
+    this(ctx, geometry, in.toPath(), out.toPath());
+  }
+
+  /**
+   * 入力ファイルと出力ファイルを指定する。入力ファイルはランダムアクセスで読み込まれる。
+   * @param ctx コンテキスト
+   * @param geometry ページのジオメトリ
+   * @param in 入力ファイル
+   * @param out 出力ファイル
+   */
+  public MkStamper(MkContext ctx, MkGeometry geometry, Path in, Path out) {
+    this(ctx, geometry, in, out, false);
+  }
+
+  /**
+   * 入力ファイルと出力ファイル、追記モードを指定する。入力ファイルはランダムアクセスで読み込まれる。
+   * <p>
+   * 追記モードの場合、元のファイルの内容は小さなバッファを通してバイト列のまま出力ファイルにコピーされ、
+   * その後に増分更新のみが書き込まれる。ファイル全体がヒープ上に置かれることはない。
+   * 追記モードではフォームのフラット化はできない。
+   * </p>
+   * @param ctx コンテキスト
+   * @param geometry ページのジオメトリ
+   * @param in 入力ファイル
+   * @param out 出力ファイル
+   * @param append 追記モード
+   */
+  public MkStamper(MkContext ctx, MkGeometry geometry, Path in, Path out, boolean append) {
     this.ctx = ctx;
     this.geometry = geometry;
+    PdfReader reader = null;
+    OutputStream stream = null;
     try {
-      setup(ctx, new FileInputStream(in), new FileOutputStream(out));
+      reader = new PdfReader(MkPdfBinder.randomAccess(in), null);
+      stream = Files.newOutputStream(out);
+      // 追記モードでは、スタンパが元の内容をそのまま書き出す
+      setup(reader, stream, append);
     } catch (IOException ex) {
       throw new MkException(ex);
+    } finally {
+      // セットアップに失敗した場合は、入力と出力をクローズする
+      if (stamper == null) {
+        if (reader != null) reader.close();
+        if (stream != null) {
+          try {
+            stream.close();
+          } catch (IOException ex) {
+          }
+        }
+      }
     }
   }
   
@@ -59,12 +136,29 @@ public class MkStamper  {
     setup(ctx, in, out);
   }
   
+  /**
+   * 解析済のリーダを指定する。{@link MkFormTemplate}から用いられる
+   */
+  MkStamper(MkContext ctx, MkGeometry geometry, PdfReader reader, OutputStream out) {
+    this.ctx = ctx;
+    this.geometry = geometry;
+    setup(reader, out, false);
+  }
+
   private void setup(MkContext ctx, InputStream in, OutputStream out) {
     this.ctx = ctx;
     try {
-      reader = new PdfReader(in);
+      setup(new PdfReader(in), out, false);
+    } catch (IOException ex) {
+      throw new MkException(ex);
+    }
+  }
+
+  private void setup(PdfReader reader, OutputStream out, boolean append) {
+    try {
+      this.reader = reader;
       pageCount = reader.getNumberOfPages();
-      stamper = new PdfStamper(reader, out);
+      stamper = new PdfStamper(reader, out, '\0', append);
     } catch (Exception ex) {
       throw new MkException(ex);
     }
@@ -75,16 +169,77 @@ public class MkStamper  {
     return pageCount;
   }
 
-  /** 指定ページの最前面コンテンツバイトを取得する。ページ番号は１からpageCount()まで */
+  /** 
+   * 指定ページの最前面コンテンツバイトを取得する。ページ番号は１からpageCount()まで。
+   * 同じページについては同じオブジェクトが返される
+   */
   public MkContentByte getContentByteOver(int pageNumber) {
-    PdfContentByte pcb = stamper.getOverContent(pageNumber);
-    return new MkContentByte(ctx, pcb, geometry);
+    return overs.computeIfAbsent(pageNumber, p->newContentByte(stamper.getOverContent(p)));
   }
 
-  /** 指定ページの再背面コンテンツバイトを取得する。ページ番号は１からpageCount()まで */
+  /** 
+   * 指定ページの再背面コンテンツバイトを取得する。ページ番号は１からpageCount()まで。
+   * 同じページについては同じオブジェクトが返される
+   */
   public MkContentByte getContentByteUnder(int pageNumber) {
-    PdfContentByte pcb = stamper.getUnderContent(pageNumber);
-    return new MkContentByte(ctx, pcb, geometry);
+    return unders.computeIfAbsent(pageNumber, p->newContentByte(stamper.getUnderContent(p)));
+  }
+
+  /** コンテンツバイトを作成する。テンプレートのキャッシュは全ページで共有される */
+  private MkContentByte newContentByte(PdfContentByte pcb) {
+    MkContentByte contentByte = new MkContentByte(ctx, pcb, geometry);
+    if (templates == null) templates = contentByte;
+    else contentByte.shareTemplateCache(templates);
+    return contentByte;
+  }
+
+  /**
+   * 取得済のコンテンツバイトと、そこから作成されたテンプレートのグラフィックス状態のグループを終了し、
+   * ページごとに省略された演算子を通知する
+   */
+  private void endPages() {
+    MkRenderListener listener = ctx.getRenderListener();
+    Set<Integer>pages = new TreeSet<>(overs.keySet());
+    pages.addAll(unders.keySet());
+    for (int page: pages) {
+      List<MkContentWriter>writers = new ArrayList<>();
+      if (overs.containsKey(page)) writers.add(overs.get(page).writer());
+      if (unders.containsKey(page)) writers.add(unders.get(page).writer());
+      MkContentWriter.endPage(listener, page, writers.toArray(new MkContentWriter[0]));
+    }
+    overs.values().forEach(MkContentByte::closeTemplates);
+    unders.values().forEach(MkContentByte::closeTemplates);
+    overs.clear();
+    unders.clear();
+  }
+
+  /**
+   * フォームのフィールドに値を設定する。
+   * 外観の作成には、フィールドに指定されたフォントで表示できない文字のために、コンテキストのフォントが代替として用いられる。
+   * @param name フィールド名
+   * @param value 値
+   * @return このオブジェクト
+   */
+  public MkStamper setField(String name, String value) {
+    try {
+      if (fields == null) {
+        fields = stamper.getAcroFields();
+        fields.addSubstitutionFont(ctx.getFont().getBaseFont().getITextBaseFont());
+        if (fieldCache != null) fields.setFieldCache(fieldCache);
+      }
+      if (!fields.setField(name, value)) throw new MkException("no field:" + name);
+    } catch (IOException | DocumentException ex) {
+      throw new MkException(ex);
+    }
+    return this;
+  }
+
+  /**
+   * フィールドの外観設定のキャッシュを指定する。フィールド名ごとに、フォント、サイズ、ウィジェットの位置等の解決結果が保持され、
+   * 同じ様式の別のファイルに対しても再利用される。複数のスレッドで共有してはならない。
+   */
+  void setFieldCache(Map<String, TextField>fieldCache) {
+    this.fieldCache = fieldCache;
   }
 
   /** クローズする */
@@ -95,12 +250,15 @@ public class MkStamper  {
   /** クローズする */
   public void close(boolean flat) {
     try {
+      endPages();
       if (flat)
         stamper.setFormFlattening(true);
       stamper.close();
       reader.close();
     } catch (Exception ex) {
       throw new MkException(ex);
+    } finally {
+      if (templates != null) templates.closeReaders();
     }
   }
 }
@@ -0,0 +1,83 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.itextpdf.text.pdf.*;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+
+public class MkStamperTest {
+
+  private Path in;
+  private Path out;
+
+  @Before
+  public void before() throws IOException {
+    in = Files.createTempFile("pdfmonk", ".pdf");
+    out = Files.createTempFile("pdfmonk", ".pdf");
+    MkContext ctx = MkContext.getDefault();
+    MkDocument doc = new MkDocument(ctx, MkGeometry.A4_PORTRAIT, in.toFile());
+    new MkTextBlock(ctx, "original").setToContentByte(doc.getCanvasOver(), MkUnit.MM, 0, 0);
+    doc.newPage();
+    new MkTextBlock(ctx, "second").setToContentByte(doc.getCanvasOver(), MkUnit.MM, 0, 0);
+    doc.close();
+  }
+
+  @After
+  public void after() throws IOException {
+    Files.delete(in);
+    Files.delete(out);
+  }
+
+  /** 追記モードでは、出力の先頭は元のファイルと同一であり、その後の増分更新によってスタンプが加えられる */
+  @Test
+  public void append() throws IOException {
+    byte[]original = Files.readAllBytes(in);
+    MkContext ctx = MkContext.getDefault();
+    MkStamper stamper = new MkStamper(ctx, MkGeometry.A4_PORTRAIT, in, out, true);
+    assertEquals(2, stamper.pageCount());
+    for (int page = 1; page <= stamper.pageCount(); page++) {
+      new MkTextBlock(ctx, "stamp " + page).setToContentByte(stamper.getContentByteOver(page), MkUnit.MM, 20, 20);
+    }
+    stamper.close();
+
+    byte[]stamped = Files.readAllBytes(out);
+    assertTrue(stamped.length > original.length);
+    assertArrayEquals(original, Arrays.copyOf(stamped, original.length));
+
+    PdfReader reader = new PdfReader(stamped);
+    try {
+      assertEquals(2, reader.getNumberOfPages());
+      String text = PdfTextExtractor.getTextFromPage(reader, 1);
+      assertTrue(text.contains("original"));
+      assertTrue(text.contains("stamp 1"));
+      assertTrue(PdfTextExtractor.getTextFromPage(reader, 2).contains("stamp 2"));
+    } finally {
+      reader.close();
+    }
+    // 元の版と増分更新の二つの版があり、元の版は先頭部分としてそのまま読み込める
+    assertEquals(2, new String(stamped, "ISO-8859-1").split("%%EOF", -1).length - 1);
+    PdfReader revision = new PdfReader(Arrays.copyOf(stamped, original.length));
+    try {
+      assertFalse(PdfTextExtractor.getTextFromPage(revision, 1).contains("stamp"));
+    } finally {
+      revision.close();
+    }
+  }
+
+  /** 追記モードでない場合は、ファイル全体が書き直される */
+  @Test
+  public void rewrite() throws IOException {
+    byte[]original = Files.readAllBytes(in);
+    MkContext ctx = MkContext.getDefault();
+    MkStamper stamper = new MkStamper(ctx, MkGeometry.A4_PORTRAIT, in, out);
+    new MkTextBlock(ctx, "stamp").setToContentByte(stamper.getContentByteOver(1), MkUnit.MM, 20, 20);
+    stamper.close();
+    byte[]stamped = Files.readAllBytes(out);
+    assertFalse(Arrays.equals(original, Arrays.copyOf(stamped, original.length)));
+  }
+}
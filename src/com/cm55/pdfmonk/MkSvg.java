@@ -0,0 +1,608 @@
+package com.cm55.pdfmonk;
+
+import java.awt.geom.*;
+import java.io.*;
+import java.util.*;
+import java.util.regex.*;
+
+import javax.xml.parsers.*;
+
+import org.w3c.dom.*;
+
+import com.itextpdf.text.BaseColor;
+
+/**
+ * SVGから変換したベクトル図形
+ * <p>
+ * ロゴやアイコンのSVGを、画像に変換せずにPDFのパスとして描画する。変換は一度だけ行われ、結果は座標を解決済の{@link MkDisplayList}として保持される。
+ * {@link #setToContentByte(MkContentByte, MkDimension)}は、同じPDFにつき一度だけテンプレートを作成し、以降はそのフォームXObjectへの参照のみを出力する。
+ * 同じファイルを何度も読み込む場合には、{@link MkSvgCache}を用いる。
+ * </p>
+ * <p>
+ * 対応しているのは以下のサブセットである。それ以外の要素（テキスト、グラデーション、クリッピング、use等）は無視される。
+ * </p>
+ * <ul>
+ * <li>要素：svg、g、path、rect、circle、ellipse、line、polyline、polygon
+ * <li>属性：fill、stroke、stroke-width、transform、style中の同名のプロパティ、display="none"。ルート要素のviewBox、width、height
+ * <li>色：#rgb、#rrggbb、rgb(r,g,b)、基本的な色名、none
+ * </ul>
+ * <p>
+ * 塗りつぶしは常にnonzero規則で行われ、透明度は無視される。viewBoxは縦横比を保ったまま中央に配置される。
+ * </p>
+ * @author ysugimura
+ */
+public class MkSvg {
+
+  /** SVGのpxのポイント値 */
+  private static final float PT_PER_PX = 0.75f;
+
+  /** 円弧をベジェ曲線で近似する際の制御点の係数 */
+  private static final double KAPPA = 0.5522847498;
+
+  /** 色名 */
+  private static final Map<String, BaseColor>NAMED_COLORS = new HashMap<>();
+  static {
+    NAMED_COLORS.put("black", BaseColor.BLACK);
+    NAMED_COLORS.put("white", BaseColor.WHITE);
+    NAMED_COLORS.put("red", BaseColor.RED);
+    NAMED_COLORS.put("green", new BaseColor(0, 128, 0));
+    NAMED_COLORS.put("blue", BaseColor.BLUE);
+    NAMED_COLORS.put("yellow", BaseColor.YELLOW);
+    NAMED_COLORS.put("gray", BaseColor.GRAY);
+    NAMED_COLORS.put("grey", BaseColor.GRAY);
+    NAMED_COLORS.put("orange", BaseColor.ORANGE);
+  }
+
+  private static final Pattern NUMBER = Pattern.compile("[-+]?(?:\\d+\\.?\\d*|\\.\\d+)(?:[eE][-+]?\\d+)?");
+  private static final Pattern TRANSFORM = Pattern.compile("(\\w+)\\s*\\(([^)]*)\\)");
+
+  /** 内容のハッシュ値 */
+  private final String hash;
+
+  /** 描画の大きさ */
+  private final MkDimension size;
+
+  /** 変換結果 */
+  private final MkDisplayList displayList;
+
+  private MkSvg(String hash, MkDimension size, MkDisplayList displayList) {
+    this.hash = hash;
+    this.size = size;
+    this.displayList = displayList;
+  }
+
+  /**
+   * SVGを変換する
+   * @param ctx コンテキスト
+   * @param svg SVGのバイト列
+   * @param size 描画の大きさ。nullの場合はSVGのwidth、heightをpxとした大きさ
+   * @return 変換結果
+   */
+  public static MkSvg parse(MkContext ctx, byte[]svg, MkDimension size) {
+    return parse(ctx, svg, MkRenderCache.hash(svg), size);
+  }
+
+  static MkSvg parse(MkContext ctx, byte[]svg, String hash, MkDimension size) {
+    Element root = readDocument(svg).getDocumentElement();
+    if (!"svg".equals(localName(root))) throw new MkException("not an svg document");
+
+    float width = length(root.getAttribute("width"), 0);
+    float height = length(root.getAttribute("height"), 0);
+    float[]viewBox = numbers(root.getAttribute("viewBox"));
+    if (viewBox.length != 4) viewBox = new float[] { 0, 0, width, height };
+    if (viewBox[2] <= 0 || viewBox[3] <= 0) throw new MkException("svg has no size");
+    if (size == null) {
+      if (width <= 0) width = viewBox[2];
+      if (height <= 0) height = viewBox[3];
+      size = new MkDimension(MkUnit.PT, width * PT_PER_PX, height * PT_PER_PX);
+    }
+
+    // viewBoxを縦横比を保って描画の大きさの中央に置く変換
+    float targetWidth = size.x.ptValue();
+    float targetHeight = size.y.ptValue();
+    double scale = Math.min(targetWidth / viewBox[2], targetHeight / viewBox[3]);
+    AffineTransform base = new AffineTransform();
+    base.translate((targetWidth - viewBox[2] * scale) / 2, (targetHeight - viewBox[3] * scale) / 2);
+    base.scale(scale, scale);
+    base.translate(-viewBox[0], -viewBox[1]);
+
+    MkDisplayList displayList = MkDisplayList.record(ctx, size,
+      cb->new Converter(cb).element(root, base, Style.INITIAL));
+    return new MkSvg(hash, size, displayList);
+  }
+
+  private static Document readDocument(byte[]svg) {
+    try {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware(true);
+      factory.setExpandEntityReferences(false);
+      factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+      return factory.newDocumentBuilder().parse(new ByteArrayInputStream(svg));
+    } catch (Exception ex) {
+      throw new MkException(ex);
+    }
+  }
+
+  /** 内容のハッシュ値を取得する */
+  public String getHash() {
+    return hash;
+  }
+
+  /** 描画の大きさを取得する */
+  public MkDimension getSize() {
+    return size;
+  }
+
+  /** 変換結果を取得する */
+  public MkDisplayList getDisplayList() {
+    return displayList;
+  }
+
+  /**
+   * 指定位置を左上として描画する。{@link #setToContentByte(MkContentByte, MkDimension)}を参照のこと
+   * @param contentByte 対象コンテントバイト
+   * @param unit 位置の単位
+   * @param x 描画x位置
+   * @param y 描画y位置
+   */
+  public void setToContentByte(MkContentByte contentByte, MkUnit unit, float x, float y) {
+    setToContentByte(contentByte, new MkDimension(unit, x, y));
+  }
+
+  /**
+   * 指定位置を左上として描画する。同じPDFにつき一度だけテンプレートとして出力され、以降はその参照となる
+   * @param contentByte 対象コンテントバイト
+   * @param position 描画位置
+   */
+  public void setToContentByte(MkContentByte contentByte, MkDimension position) {
+    String key = "svg:" + hash + ":" + size.x.ptValue() + "x" + size.y.ptValue();
+    contentByte.drawCached(key, ()->size, position, displayList::replay);
+  }
+
+  /**
+   * 継承される描画属性
+   */
+  private static class Style {
+
+    static final Style INITIAL = new Style(BaseColor.BLACK, null, 1, true);
+
+    /** 塗りつぶしの色。nullの場合は無し */
+    final BaseColor fill;
+    /** 線の色。nullの場合は無し */
+    final BaseColor stroke;
+    /** 線幅（ユーザ座標） */
+    final float strokeWidth;
+    /** 表示するか */
+    final boolean display;
+
+    Style(BaseColor fill, BaseColor stroke, float strokeWidth, boolean display) {
+      this.fill = fill;
+      this.stroke = stroke;
+      this.strokeWidth = strokeWidth;
+      this.display = display;
+    }
+
+    /** 要素の属性とstyleによって上書きしたものを作成する */
+    Style apply(Element element) {
+      Map<String, String>props = new HashMap<>();
+      for (String name: new String[] { "fill", "stroke", "stroke-width", "display" }) {
+        if (element.hasAttribute(name)) props.put(name, element.getAttribute(name).trim());
+      }
+      for (String decl: element.getAttribute("style").split(";")) {
+        int colon = decl.indexOf(':');
+        if (colon > 0) props.put(decl.substring(0, colon).trim(), decl.substring(colon + 1).trim());
+      }
+      if (props.isEmpty()) return this;
+      BaseColor fill = props.containsKey("fill")? color(props.get("fill"), this.fill):this.fill;
+      BaseColor stroke = props.containsKey("stroke")? color(props.get("stroke"), this.stroke):this.stroke;
+      float strokeWidth = props.containsKey("stroke-width")? length(props.get("stroke-width"), this.strokeWidth):this.strokeWidth;
+      boolean display = this.display && !"none".equals(props.get("display"));
+      return new Style(fill, stroke, strokeWidth, display);
+    }
+  }
+
+  /**
+   * SVGの要素を記録用のコンテントバイトへの描画に変換する
+   */
+  private static class Converter {
+
+    private final MkContentByte cb;
+
+    Converter(MkContentByte cb) {
+      this.cb = cb;
+    }
+
+    void element(Element element, AffineTransform parent, Style parentStyle) {
+      Style style = parentStyle.apply(element);
+      if (!style.display) return;
+      AffineTransform transform = transform(parent, element.getAttribute("transform"));
+      switch (localName(element)) {
+      case "svg":
+      case "g":
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+          if (child instanceof Element) element((Element)child, transform, style);
+        }
+        return;
+      case "path":
+        draw(new PathBuilder(transform).pathData(element.getAttribute("d")), transform, style);
+        return;
+      case "rect":
+        draw(new PathBuilder(transform).rect(num(element, "x"), num(element, "y"), num(element, "width"), num(element, "height"),
+          num(element, "rx"), num(element, "ry")), transform, style);
+        return;
+      case "circle": {
+        float r = num(element, "r");
+        draw(new PathBuilder(transform).ellipse(num(element, "cx"), num(element, "cy"), r, r), transform, style);
+        return;
+      }
+      case "ellipse":
+        draw(new PathBuilder(transform).ellipse(num(element, "cx"), num(element, "cy"), num(element, "rx"), num(element, "ry")),
+          transform, style);
+        return;
+      case "line":
+        draw(new PathBuilder(transform).moveTo(num(element, "x1"), num(element, "y1")).lineTo(num(element, "x2"), num(element, "y2")),
+          transform, new Style(null, style.stroke, style.strokeWidth, true));
+        return;
+      case "polyline":
+        draw(new PathBuilder(transform).points(numbers(element.getAttribute("points")), false), transform, style);
+        return;
+      case "polygon":
+        draw(new PathBuilder(transform).points(numbers(element.getAttribute("points")), true), transform, style);
+        return;
+      default:
+        return;
+      }
+    }
+
+    /** パスを塗りつぶし・描画する */
+    private void draw(PathBuilder builder, AffineTransform transform, Style style) {
+      MkPath path = builder.path;
+      if (path.isEmpty()) return;
+      BaseColor fill = style.fill;
+      BaseColor stroke = style.strokeWidth > 0? style.stroke:null;
+      if (fill != null) cb.setFillColor(new MkColor(fill));
+      if (stroke != null) {
+        double scale = Math.sqrt(Math.abs(transform.getDeterminant()));
+        cb.setStrokeColor(new MkColor(stroke)).setLineWidth(MkUnit.PT, (float)(style.strokeWidth * scale));
+      }
+      if (fill != null && stroke != null) cb.fillAndDrawPath(path);
+      else if (fill != null) cb.fillPath(path);
+      else if (stroke != null) cb.drawPath(path);
+    }
+
+    private static float num(Element element, String name) {
+      return length(element.getAttribute(name), 0);
+    }
+  }
+
+  /**
+   * 変換を適用しながらSVGのパスを{@link MkPath}に構築する
+   */
+  private static class PathBuilder {
+
+    final MkPath path = new MkPath(MkUnit.PT);
+    private final AffineTransform transform;
+    private final Point2D.Double point = new Point2D.Double();
+
+    /** 現在位置と、サブパスの開始位置、直前の制御点（ユーザ座標） */
+    private double x, y, startX, startY, controlX, controlY;
+
+    PathBuilder(AffineTransform transform) {
+      this.transform = transform;
+    }
+
+    private Point2D.Double apply(double px, double py) {
+      point.setLocation(px, py);
+      transform.transform(point, point);
+      return point;
+    }
+
+    PathBuilder moveTo(double px, double py) {
+      Point2D.Double p = apply(px, py);
+      path.moveTo((float)p.x, (float)p.y);
+      x = startX = controlX = px;
+      y = startY = controlY = py;
+      return this;
+    }
+
+    PathBuilder lineTo(double px, double py) {
+      Point2D.Double p = apply(px, py);
+      path.lineTo((float)p.x, (float)p.y);
+      x = controlX = px;
+      y = controlY = py;
+      return this;
+    }
+
+    PathBuilder curveTo(double x1, double y1, double x2, double y2, double x3, double y3) {
+      Point2D.Double p = apply(x1, y1);
+      float ax = (float)p.x, ay = (float)p.y;
+      p = apply(x2, y2);
+      float bx = (float)p.x, by = (float)p.y;
+      p = apply(x3, y3);
+      path.curveTo(ax, ay, bx, by, (float)p.x, (float)p.y);
+      controlX = x2;
+      controlY = y2;
+      x = x3;
+      y = y3;
+      return this;
+    }
+
+    /** 二次ベジェ曲線を三次に変換する */
+    PathBuilder quadTo(double qx, double qy, double px, double py) {
+      curveTo(x + 2 * (qx - x) / 3, y + 2 * (qy - y) / 3, px + 2 * (qx - px) / 3, py + 2 * (qy - py) / 3, px, py);
+      controlX = qx;
+      controlY = qy;
+      return this;
+    }
+
+    PathBuilder closePath() {
+      path.closePath();
+      x = controlX = startX;
+      y = controlY = startY;
+      return this;
+    }
+
+    PathBuilder rect(float rx0, float ry0, float w, float h, float rx, float ry) {
+      if (w <= 0 || h <= 0) return this;
+      if (rx <= 0) rx = ry;
+      if (ry <= 0) ry = rx;
+      rx = Math.min(rx, w / 2);
+      ry = Math.min(ry, h / 2);
+      if (rx <= 0) {
+        return moveTo(rx0, ry0).lineTo(rx0 + w, ry0).lineTo(rx0 + w, ry0 + h).lineTo(rx0, ry0 + h).closePath();
+      }
+      double kx = rx * KAPPA, ky = ry * KAPPA;
+      moveTo(rx0 + rx, ry0).lineTo(rx0 + w - rx, ry0);
+      curveTo(rx0 + w - rx + kx, ry0, rx0 + w, ry0 + ry - ky, rx0 + w, ry0 + ry);
+      lineTo(rx0 + w, ry0 + h - ry);
+      curveTo(rx0 + w, ry0 + h - ry + ky, rx0 + w - rx + kx, ry0 + h, rx0 + w - rx, ry0 + h);
+      lineTo(rx0 + rx, ry0 + h);
+      curveTo(rx0 + rx - kx, ry0 + h, rx0, ry0 + h - ry + ky, rx0, ry0 + h - ry);
+      lineTo(rx0, ry0 + ry);
+      curveTo(rx0, ry0 + ry - ky, rx0 + rx - kx, ry0, rx0 + rx, ry0);
+      return closePath();
+    }
+
+    PathBuilder ellipse(float cx, float cy, float rx, float ry) {
+      if (rx <= 0 || ry <= 0) return this;
+      double kx = rx * KAPPA, ky = ry * KAPPA;
+      moveTo(cx + rx, cy);
+      curveTo(cx + rx, cy + ky, cx + kx, cy + ry, cx, cy + ry);
+      curveTo(cx - kx, cy + ry, cx - rx, cy + ky, cx - rx, cy);
+      curveTo(cx - rx, cy - ky, cx - kx, cy - ry, cx, cy - ry);
+      curveTo(cx + kx, cy - ry, cx + rx, cy - ky, cx + rx, cy);
+      return closePath();
+    }
+
+    PathBuilder points(float[]xy, boolean close) {
+      if (xy.length < 4) return this;
+      moveTo(xy[0], xy[1]);
+      for (int i = 2; i + 1 < xy.length; i += 2) lineTo(xy[i], xy[i + 1]);
+      return close? closePath():this;
+    }
+
+    /** パスデータを解釈する */
+    PathBuilder pathData(String d) {
+      Scanner s = new Scanner(d);
+      char command = 0;
+      while (s.skipSeparators()) {
+        char c = s.peek();
+        if (Character.isLetter(c)) {
+          command = c;
+          s.pos++;
+          if (command == 'Z' || command == 'z') {
+            closePath();
+            continue;
+          }
+        } else if (command == 0) {
+          throw new MkException("invalid path data:" + d);
+        }
+        boolean rel = Character.isLowerCase(command);
+        double ox = rel? x:0, oy = rel? y:0;
+        switch (Character.toUpperCase(command)) {
+        case 'M':
+          moveTo(ox + s.number(), oy + s.number());
+          // 続く座標はlinetoとして扱う
+          command = rel? 'l':'L';
+          break;
+        case 'L': lineTo(ox + s.number(), oy + s.number()); break;
+        case 'H': lineTo(ox + s.number(), y); break;
+        case 'V': lineTo(x, oy + s.number()); break;
+        case 'C':
+          curveTo(ox + s.number(), oy + s.number(), ox + s.number(), oy + s.number(), ox + s.number(), oy + s.number());
+          break;
+        case 'S': {
+          double x1 = 2 * x - controlX, y1 = 2 * y - controlY;
+          curveTo(x1, y1, ox + s.number(), oy + s.number(), ox + s.number(), oy + s.number());
+          break;
+        }
+        case 'Q': quadTo(ox + s.number(), oy + s.number(), ox + s.number(), oy + s.number()); break;
+        case 'T': quadTo(2 * x - controlX, 2 * y - controlY, ox + s.number(), oy + s.number()); break;
+        case 'A': {
+          double rx = s.number(), ry = s.number(), angle = s.number();
+          boolean large = s.flag(), sweep = s.flag();
+          arcTo(rx, ry, angle, large, sweep, ox + s.number(), oy + s.number());
+          break;
+        }
+        default:
+          throw new MkException("unsupported path command:" + command);
+        }
+        // S、T以外の後では、直前の制御点は現在位置とみなす
+        char upper = Character.toUpperCase(command);
+        if (upper != 'C' && upper != 'S' && upper != 'Q' && upper != 'T') {
+          controlX = x;
+          controlY = y;
+        }
+      }
+      return this;
+    }
+
+    /** 楕円弧をベジェ曲線に変換する。SVG仕様の実装ノートF.6による */
+    private void arcTo(double rx, double ry, double angle, boolean large, boolean sweep, double x2, double y2) {
+      double x1 = x, y1 = y;
+      if (x1 == x2 && y1 == y2) return;
+      rx = Math.abs(rx);
+      ry = Math.abs(ry);
+      if (rx == 0 || ry == 0) {
+        lineTo(x2, y2);
+        return;
+      }
+      double phi = Math.toRadians(angle);
+      double cos = Math.cos(phi), sin = Math.sin(phi);
+      double dx = (x1 - x2) / 2, dy = (y1 - y2) / 2;
+      double x1p = cos * dx + sin * dy, y1p = -sin * dx + cos * dy;
+      double lambda = (x1p * x1p) / (rx * rx) + (y1p * y1p) / (ry * ry);
+      if (lambda > 1) {
+        rx *= Math.sqrt(lambda);
+        ry *= Math.sqrt(lambda);
+      }
+      double num = rx * rx * ry * ry - rx * rx * y1p * y1p - ry * ry * x1p * x1p;
+      double den = rx * rx * y1p * y1p + ry * ry * x1p * x1p;
+      double coef = Math.sqrt(Math.max(0, num / den)) * (large == sweep? -1:1);
+      double cxp = coef * rx * y1p / ry, cyp = -coef * ry * x1p / rx;
+      double cx = cos * cxp - sin * cyp + (x1 + x2) / 2, cy = sin * cxp + cos * cyp + (y1 + y2) / 2;
+      double theta = Math.atan2((y1p - cyp) / ry, (x1p - cxp) / rx);
+      double delta = Math.atan2((-y1p - cyp) / ry, (-x1p - cxp) / rx) - theta;
+      if (sweep && delta < 0) delta += 2 * Math.PI;
+      if (!sweep && delta > 0) delta -= 2 * Math.PI;
+
+      // 90度以下ずつに分割する
+      int segments = (int)Math.ceil(Math.abs(delta) / (Math.PI / 2));
+      double step = delta / segments;
+      double k = 4.0 / 3 * Math.tan(step / 4);
+      for (int i = 0; i < segments; i++) {
+        double t1 = theta + i * step, t2 = t1 + step;
+        double c1 = Math.cos(t1), s1 = Math.sin(t1), c2 = Math.cos(t2), s2 = Math.sin(t2);
+        double ex1 = c1 - k * s1, ey1 = s1 + k * c1;
+        double ex2 = c2 + k * s2, ey2 = s2 - k * c2;
+        curveTo(
+          cx + rx * ex1 * cos - ry * ey1 * sin, cy + rx * ex1 * sin + ry * ey1 * cos,
+          cx + rx * ex2 * cos - ry * ey2 * sin, cy + rx * ex2 * sin + ry * ey2 * cos,
+          cx + rx * c2 * cos - ry * s2 * sin, cy + rx * c2 * sin + ry * s2 * cos);
+      }
+      x = x2;
+      y = y2;
+    }
+  }
+
+  /**
+   * パスデータの字句解析
+   */
+  private static class Scanner {
+
+    private final String s;
+    int pos;
+
+    Scanner(String s) {
+      this.s = s;
+    }
+
+    /** 空白とカンマを読み飛ばす。終端であればfalse */
+    boolean skipSeparators() {
+      while (pos < s.length() && (Character.isWhitespace(s.charAt(pos)) || s.charAt(pos) == ',')) pos++;
+      return pos < s.length();
+    }
+
+    char peek() {
+      return s.charAt(pos);
+    }
+
+    double number() {
+      skipSeparators();
+      Matcher m = NUMBER.matcher(s);
+      if (!m.find(pos) || m.start() != pos) throw new MkException("number expected at " + pos + ":" + s);
+      pos = m.end();
+      return Double.parseDouble(m.group());
+    }
+
+    /** 円弧のフラグ。区切り無しに続くことがある */
+    boolean flag() {
+      skipSeparators();
+      char c = s.charAt(pos++);
+      if (c != '0' && c != '1') throw new MkException("flag expected at " + (pos - 1) + ":" + s);
+      return c == '1';
+    }
+  }
+
+  /** 親の変換にtransform属性の変換を連結する */
+  private static AffineTransform transform(AffineTransform parent, String attr) {
+    AffineTransform result = new AffineTransform(parent);
+    Matcher m = TRANSFORM.matcher(attr);
+    while (m.find()) {
+      float[]a = numbers(m.group(2));
+      switch (m.group(1)) {
+      case "matrix":
+        if (a.length == 6) result.concatenate(new AffineTransform(a[0], a[1], a[2], a[3], a[4], a[5]));
+        break;
+      case "translate":
+        if (a.length >= 1) result.translate(a[0], a.length > 1? a[1]:0);
+        break;
+      case "scale":
+        if (a.length >= 1) result.scale(a[0], a.length > 1? a[1]:a[0]);
+        break;
+      case "rotate":
+        if (a.length == 3) result.rotate(Math.toRadians(a[0]), a[1], a[2]);
+        else if (a.length >= 1) result.rotate(Math.toRadians(a[0]));
+        break;
+      case "skewX":
+        if (a.length >= 1) result.shear(Math.tan(Math.toRadians(a[0])), 0);
+        break;
+      case "skewY":
+        if (a.length >= 1) result.shear(0, Math.tan(Math.toRadians(a[0])));
+        break;
+      default:
+        break;
+      }
+    }
+    return result;
+  }
+
+  /** 色を解釈する。解釈できない場合（グラデーション等）は無しとする */
+  private static BaseColor color(String value, BaseColor inherited) {
+    value = value.trim().toLowerCase();
+    if (value.isEmpty() || value.equals("inherit")) return inherited;
+    if (value.equals("none")) return null;
+    if (value.startsWith("#")) {
+      String hex = value.substring(1);
+      if (hex.length() == 3) {
+        hex = "" + hex.charAt(0) + hex.charAt(0) + hex.charAt(1) + hex.charAt(1) + hex.charAt(2) + hex.charAt(2);
+      }
+      if (hex.length() != 6) return null;
+      try {
+        int rgb = Integer.parseInt(hex, 16);
+        return new BaseColor((rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff);
+      } catch (NumberFormatException ex) {
+        return null;
+      }
+    }
+    if (value.startsWith("rgb(")) {
+      float[]c = numbers(value.substring(4));
+      if (c.length != 3) return null;
+      return new BaseColor(Math.round(c[0]), Math.round(c[1]), Math.round(c[2]));
+    }
+    return NAMED_COLORS.get(value);
+  }
+
+  /** 長さを解釈する。単位は無視し、解釈できない場合はデフォルト値とする */
+  private static float length(String value, float defaultValue) {
+    Matcher m = NUMBER.matcher(value);
+    if (!m.find()) return defaultValue;
+    return Float.parseFloat(m.group());
+  }
+
+  /** 数値の並びを解釈する */
+  private static float[]numbers(String value) {
+    Matcher m = NUMBER.matcher(value);
+    float[]result = new float[8];
+    int count = 0;
+    while (m.find()) {
+      if (count == result.length) result = Arrays.copyOf(result, count * 2);
+      result[count++] = Float.parseFloat(m.group());
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  private static String localName(Element element) {
+    return element.getLocalName() != null? element.getLocalName():element.getTagName();
+  }
+}
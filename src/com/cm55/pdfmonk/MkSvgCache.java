@@ -0,0 +1,125 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * 変換済SVGのキャッシュ
+ * <p>
+ * 帳票ごとに同じロゴやアイコンのSVGを読み込む場合に用いる。SVGの内容のハッシュ値と描画の大きさをキーとして、
+ * 変換結果の{@link MkSvg}を保持する。ファイルが変更されればハッシュ値が変わるので、古い変換結果が使用されることはない。
+ * 保持する数を超えると、最も長く使われていないものから破棄される。
+ * </p>
+ * <p>
+ * 変換結果はドキュメントに依存しないので、一つのキャッシュを複数のスレッド、複数のドキュメントで共有してよい。
+ * </p>
+ * <pre>
+ * MkSvgCache svgs = new MkSvgCache(64);
+ * MkSvg logo = svgs.get(ctx, Paths.get("logo.svg"), new MkDimension(MkUnit.MM, 30, 10));
+ * logo.setToContentByte(canvas, MkUnit.MM, 0, 0);
+ * </pre>
+ * @author ysugimura
+ */
+public class MkSvgCache {
+
+  /** 保持する最大数 */
+  private final int maxEntries;
+
+  /** キャッシュ。最も長く使われていないものが先頭 */
+  private final LinkedHashMap<String, MkSvg>entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * 保持する最大数を指定する
+   * @param maxEntries 保持する最大数
+   */
+  public MkSvgCache(int maxEntries) {
+    if (maxEntries < 1) throw new MkException("maxEntries must be positive");
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * SVGファイルの変換結果を取得する
+   * @param ctx コンテキスト
+   * @param file SVGファイル
+   * @param size 描画の大きさ。nullの場合はSVGの大きさ
+   * @return 変換結果
+   */
+  public MkSvg get(MkContext ctx, Path file, MkDimension size) {
+    try {
+      return get(ctx, Files.readAllBytes(file), size);
+    } catch (IOException ex) {
+      throw new MkException(ex);
+    }
+  }
+
+  /**
+   * SVGの変換結果を取得する
+   * @param ctx コンテキスト
+   * @param svg SVGのバイト列
+   * @param size 描画の大きさ。nullの場合はSVGの大きさ
+   * @return 変換結果
+   */
+  public MkSvg get(MkContext ctx, byte[]svg, MkDimension size) {
+    String hash = MkRenderCache.hash(svg);
+    String key = size == null? hash:hash + ":" + size.x.ptValue() + "x" + size.y.ptValue();
+    MkSvg result = lookup(key);
+    MkRenderListener listener = ctx.getRenderListener();
+    if (listener != null) listener.cacheAccess("svg", result != null);
+    if (result != null) {
+      hits.incrementAndGet();
+      return result;
+    }
+    misses.incrementAndGet();
+
+    // 同時に変換した場合には先に登録されたものを用いる
+    result = MkSvg.parse(ctx, svg, hash, size);
+    synchronized (this) {
+      MkSvg existing = entries.putIfAbsent(key, result);
+      if (existing != null) return existing;
+      while (entries.size() > maxEntries) {
+        Iterator<String>it = entries.keySet().iterator();
+        it.next();
+        it.remove();
+        evictions.incrementAndGet();
+      }
+    }
+    return result;
+  }
+
+  private synchronized MkSvg lookup(String key) {
+    return entries.get(key);
+  }
+
+  /** 全てを破棄する */
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  /** 保持している数を取得する */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  @Override
+  public String toString() {
+    return "hits:" + hits + ",misses:" + misses + ",evictions:" + evictions + ",size:" + size();
+  }
+}
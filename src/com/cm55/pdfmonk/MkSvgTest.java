@@ -0,0 +1,131 @@
+package com.cm55.pdfmonk;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.itextpdf.text.io.RandomAccessSourceFactory;
+import com.itextpdf.text.pdf.*;
+
+public class MkSvgTest {
+
+  private static final MkContext ctx = MkContext.getDefault();
+
+  /** マージンの無い100pt四方のページ */
+  private static final MkGeometry GEOMETRY = new MkGeometry(new MkDimension(MkUnit.PT, 100, 100), MkInsets.ZERO);
+
+  /** パスの構築と描画の演算子 */
+  private static final Set<String>PATH_OPERATORS = new HashSet<>(Arrays.asList("m", "l", "c", "h", "re", "f", "S", "B"));
+
+  /** 100x100のviewBoxを持つSVGを、100pt四方の大きさでページの左上に描画し、パスの演算子を取得する */
+  private static List<String>draw(String body) throws IOException {
+    String svg = "<svg xmlns=\"http://www.w3.org/2000/svg\" viewBox=\"0 0 100 100\">" + body + "</svg>";
+    MkSvg image = MkSvg.parse(ctx, svg.getBytes(StandardCharsets.UTF_8), new MkDimension(MkUnit.PT, 100, 100));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MkDocument doc = new MkDocument(ctx, GEOMETRY, out);
+    image.getDisplayList().replay(doc.getCanvasOver(), MkUnit.PT, 0, 0);
+    doc.close();
+    PdfReader reader = new PdfReader(out.toByteArray());
+    try {
+      return operators(reader.getPageContent(1));
+    } finally {
+      reader.close();
+    }
+  }
+
+  /** コンテンツ中のパスの演算子を、小数点以下一桁に丸めたオペランドとともに一つずつ文字列化する */
+  private static List<String>operators(byte[]content) throws IOException {
+    PRTokeniser tokeniser = new PRTokeniser(new RandomAccessFileOrArray(new RandomAccessSourceFactory().createSource(content)));
+    List<String>result = new ArrayList<>();
+    StringBuilder operands = new StringBuilder();
+    while (tokeniser.nextToken()) {
+      if (tokeniser.getTokenType() == PRTokeniser.TokenType.NUMBER) {
+        operands.append(String.format("%.1f ", Float.parseFloat(tokeniser.getStringValue())));
+        continue;
+      }
+      if (tokeniser.getTokenType() != PRTokeniser.TokenType.OTHER) continue;
+      String operator = tokeniser.getStringValue();
+      if (PATH_OPERATORS.contains(operator)) result.add(operands + operator);
+      operands.setLength(0);
+    }
+    return result;
+  }
+
+  /** 角丸矩形は、上辺の角の終わりから始まり、四つの直線と四つの曲線で構成される */
+  @Test
+  public void roundRect() throws IOException {
+    List<String>ops = draw("<rect x=\"10\" y=\"20\" width=\"40\" height=\"30\" rx=\"5\" fill=\"black\"/>");
+    assertEquals(Arrays.asList(
+      "15.0 80.0 m",
+      "45.0 80.0 l", "47.8 80.0 50.0 77.8 50.0 75.0 c",
+      "50.0 55.0 l", "50.0 52.2 47.8 50.0 45.0 50.0 c",
+      "15.0 50.0 l", "12.2 50.0 10.0 52.2 10.0 55.0 c",
+      "10.0 75.0 l", "10.0 77.8 12.2 80.0 15.0 80.0 c",
+      "h", "f"), ops);
+  }
+
+  /** 相対指定の円弧は、現在位置から始まる二つの曲線となり、その終点が以降の相対指定の基準となる */
+  @Test
+  public void relativeArc() throws IOException {
+    List<String>ops = draw("<path d=\"M10 50 a20 20 0 0 1 40 0 l0 10\" fill=\"none\" stroke=\"black\"/>");
+    assertEquals(5, ops.size());
+    assertEquals("10.0 50.0 m", ops.get(0));
+    // 上を通る半円。SVGのy軸は下向きなので、PDFでは上側となる
+    assertTrue(ops.get(1), ops.get(1).endsWith(" 30.0 70.0 c"));
+    assertTrue(ops.get(2), ops.get(2).endsWith(" 50.0 50.0 c"));
+    assertEquals("50.0 40.0 l", ops.get(3));
+    assertEquals("S", ops.get(4));
+  }
+
+  /** 入れ子のグループの変換は、外側から順に適用される */
+  @Test
+  public void nestedTransform() throws IOException {
+    List<String>ops = draw(
+      "<g transform=\"translate(10,20)\"><g transform=\"scale(2)\"><rect x=\"5\" y=\"5\" width=\"10\" height=\"10\"/></g></g>");
+    assertEquals(Arrays.asList("20.0 70.0 m", "40.0 70.0 l", "40.0 50.0 l", "20.0 50.0 l", "h", "f"), ops);
+  }
+
+  /** display:noneの要素とその子孫は描画されない */
+  @Test
+  public void displayNone() throws IOException {
+    List<String>ops = draw(
+      "<rect x=\"0\" y=\"0\" width=\"10\" height=\"10\" style=\"display:none\"/>" +
+      "<g display=\"none\"><circle cx=\"50\" cy=\"50\" r=\"10\"/></g>" +
+      "<line x1=\"0\" y1=\"10\" x2=\"100\" y2=\"10\" stroke=\"black\"/>");
+    assertEquals(Arrays.asList("0.0 90.0 m", "100.0 90.0 l", "S"), ops);
+  }
+
+  /** 同じ内容と大きさでは変換結果が再利用され、上限を超えると最も長く使われていないものが破棄される */
+  @Test
+  public void cache() {
+    byte[][]svgs = new byte[3][];
+    for (int i = 0; i < svgs.length; i++) {
+      svgs[i] = ("<svg xmlns=\"http://www.w3.org/2000/svg\" viewBox=\"0 0 10 10\"><rect width=\"" + (i + 1) + "\" height=\"1\"/></svg>")
+        .getBytes(StandardCharsets.UTF_8);
+    }
+    MkDimension size = new MkDimension(MkUnit.MM, 10, 10);
+    MkSvgCache cache = new MkSvgCache(2);
+    MkSvg first = cache.get(ctx, svgs[0], size);
+    assertSame(first, cache.get(ctx, svgs[0].clone(), size));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+
+    // 大きさが異なれば別のもの
+    assertNotSame(first, cache.get(ctx, svgs[0], new MkDimension(MkUnit.MM, 20, 20)));
+    assertEquals(2, cache.size());
+
+    // 最初のものを使用してから追加すると、大きさの異なるものが破棄される
+    cache.get(ctx, svgs[0], size);
+    cache.get(ctx, svgs[1], size);
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.getEvictionCount());
+    assertSame(first, cache.get(ctx, svgs[0], size));
+    assertEquals(3, cache.getHitCount());
+    cache.get(ctx, svgs[0], new MkDimension(MkUnit.MM, 20, 20));
+    assertEquals(4, cache.getMissCount());
+    assertEquals(2, cache.getEvictionCount());
+  }
+}
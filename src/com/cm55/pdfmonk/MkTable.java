@@ -300,8 +300,11 @@ public class MkTable implements MkElement, MkSpacing<MkTable> {
    * @param position 描画指定位置
    */  
   public void setToContentByte(MkContentByte canvas, MkDimension position) {
+    MkRenderListener listener = canvas.getContext().getRenderListener();
+    long start = MkRenderPhase.start(listener);
     MkPdfPosition pdfPosition = canvas.getGeometry().toPdfPosition(position);
     table.writeSelectedRows(0, -1, pdfPosition.x, pdfPosition.y, canvas.getITextContentByte());    
+    MkRenderPhase.TABLE.end(listener, start);
   }
 
   /**
@@ -326,6 +329,8 @@ public class MkTable implements MkElement, MkSpacing<MkTable> {
    * @param canvas 描画先のキャンバス
    */
   public void addToCanvas(MkCanvas canvas, MkAlign align) {
+    MkRenderListener listener = canvas.getContext().getRenderListener();
+    long start = MkRenderPhase.start(listener);
     table.setHorizontalAlignment(align.value);
     MkGeometry page = canvas.getGeometry();
     
@@ -350,6 +355,7 @@ public class MkTable implements MkElement, MkSpacing<MkTable> {
     
     // 最終書き込み位置をキャンバスに設定しておく
     canvas.setVertical(column.getYLine());
+    MkRenderPhase.TABLE.end(listener, start);
   }
 
 }
@@ -124,7 +124,10 @@ public class MkTextBlock {
     if (!canvas.canDraw(drawSize.y)) {
       canvas.newPage();
     }
+    MkRenderListener listener = ctx.getRenderListener();
+    long start = MkRenderPhase.start(listener);
     new Renderer(canvas, new MkDimension(x, canvas.getVertical()), drawAttr, foldedTexts, ctx.getFont()).draw();
+    MkRenderPhase.TEXT_DRAW.end(listener, start);
     MkLen newY = canvas.getVertical().add(drawSize.y);
     canvas.setVertical(newY);
     return newY;
@@ -142,12 +145,20 @@ public class MkTextBlock {
    */
   public MkLen setToContentByte(MkContentByte contentByte, MkDimension position) {
     ensureFoldedTexts();
-    return new Renderer(contentByte, position, drawAttr, foldedTexts, ctx.getFont()).draw();
+    MkRenderListener listener = ctx.getRenderListener();
+    long start = MkRenderPhase.start(listener);
+    MkLen result = new Renderer(contentByte, position, drawAttr, foldedTexts, ctx.getFont()).draw();
+    MkRenderPhase.TEXT_DRAW.end(listener, start);
+    return result;
   }
   
   private void ensureFoldedTexts() {
+    MkRenderListener listener = ctx.getRenderListener();
+    if (listener != null) listener.cacheAccess("textFold", foldedTexts != null);
     if (foldedTexts != null) return;
+    long start = MkRenderPhase.start(listener);
     foldedTexts = new FoldedTexts(ctx.getFont(), texts, drawAttr);
+    MkRenderPhase.TEXT_FOLD.end(listener, start);
   }
   
   /** 
@@ -281,17 +292,12 @@ public class MkTextBlock {
       // テキストブロックを実際に描画する左上位置を取得する
       MkPdfPosition blockPosition = getBlockPosition(contentByte, position, foldedTexts);
 
-      // PDFコンテントバイトを取得
-      PdfContentByte pcb = contentByte.getITextContentByte();
-      pcb.saveState();
-      try {
-        pcb.beginText();
-        setFont(pcb, font);
-        drawTexts(pcb, blockPosition, foldedTexts);
-        pcb.endText();
-      } finally {
-        pcb.restoreState();
-      }
+      // グラフィックス状態を追跡する出力を取得。フォントと色は、直前のテキストブロックと同じであれば出力されない
+      MkContentWriter writer = contentByte.writer();
+      setFont(writer, font);
+      writer.beginText();
+      drawTexts(writer, blockPosition, foldedTexts);
+      writer.endText();
       return position.y.add(foldedTexts.drawSize.y);
     }
 
@@ -299,10 +305,10 @@ public class MkTextBlock {
      * コンテントバイトの指定位置からテキストブロックを描画する。 各行は{@link #textAlign}の値によってアラインメントされる。
      * 右詰め・中央詰めの場合には、計算されたブロックの幅にしたが行が設定される。
      * 
-     * @param pcb
+     * @param writer
      * @param blockPosition
      */
-    private void drawTexts(PdfContentByte pcb, MkPdfPosition blockPosition, FoldedTexts foldedTexts) {
+    private void drawTexts(MkContentWriter writer, MkPdfPosition blockPosition, FoldedTexts foldedTexts) {
 
       float fontSize = font.getSize().ptValue();
       float lineHeight = fontSize * (100 + drawAttr.lineSpacing) / 100;
@@ -312,13 +318,13 @@ public class MkTextBlock {
       for (String text : foldedTexts.foldedTexts) {
         switch (drawAttr.textAlign) {
         case LEFT:
-          pcb.showTextAligned(Element.ALIGN_LEFT, text, blockPosition.x, y, 0);
+          writer.showTextAligned(Element.ALIGN_LEFT, text, blockPosition.x, y);
           break;
         case CENTER:
-          pcb.showTextAligned(Element.ALIGN_CENTER, text, blockPosition.x + blockSize.x.ptValue() / 2, y, 0);
+          writer.showTextAligned(Element.ALIGN_CENTER, text, blockPosition.x + blockSize.x.ptValue() / 2, y);
           break;
         case RIGHT:
-          pcb.showTextAligned(Element.ALIGN_RIGHT, text, blockPosition.x + blockSize.x.ptValue(), y, 0);
+          writer.showTextAligned(Element.ALIGN_RIGHT, text, blockPosition.x + blockSize.x.ptValue(), y);
           break;
         default:
           break;
@@ -330,13 +336,14 @@ public class MkTextBlock {
     /**
      * コンテントバイトに描画用フォントを設定する。
      * 内部的には、フォントが設定できないので、スタイル付ベースフォントを使用し、フォント色はコンテントバイトに設定する。
+     * 色の指定が無い場合は、以前のテキストブロックの色ではなく、元のコンテントバイトの色が用いられる。
      * 
-     * @param pcb
-     *          コンテントバイト
+     * @param writer
+     *          コンテントバイトへの出力
      * @param font
      *          フォント
      */
-    private void setFont(PdfContentByte pcb, MkFont font) {
+    private void setFont(MkContentWriter writer, MkFont font) {
 
       /*
        * PCBへの直接描画ではフォントを使うことができず、ベースフォントを使う必要がある。
@@ -344,15 +351,18 @@ public class MkTextBlock {
        */
       BaseFont baseFont = font.getBaseFont().getStyled(font.getStyle()).getITextBaseFont();
 
-      // コンテントバイトにベースフォントとサイズを設定する
-      pcb.setFontAndSize(baseFont, font.getSize().ptValue());
-
       // ベースフォントには元のフォントの色指定は含まれていない。色はPCBへ設定する
       BaseColor color = font.getITextFont().getColor();
+      // 指定が無い場合、通常のテキストは塗りつぶしの色のみで描画されるので、線の色は元に戻さなくともよい
+      if (color == null) writer.inheritColorFill();
+      writer.beginGroup();
       if (color != null) {
-        pcb.setColorFill(color);
-        pcb.setColorStroke(color);
+        writer.setColorFill(color);
+        writer.setColorStroke(color);
       }
+
+      // コンテントバイトにベースフォントとサイズを設定する
+      writer.setFontAndSize(baseFont, font.getSize().ptValue());
     }
 
     /**